@@ -0,0 +1,171 @@
+package com.cptingle.WebServer.bench;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A client that writes prebuilt requests and reads the responses into a reused buffer, so the allocations measured by the
+ * benchmarks are the server's rather than the client's. Bytes received past the end of a response are kept for the next
+ * one, so several requests can be written before their responses are read.
+ */
+final class BenchClient implements Closeable {
+    private static final byte[] CONTENT_LENGTH = "content-length:".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final byte[] request;
+    private final byte[] buf = new byte[64 * 1024];
+    // Received bytes not consumed yet are buf[pos, limit)
+    private int pos;
+    private int limit;
+
+    /**
+     * @param port - the port of the server on the loopback address
+     * @throws IOException
+     */
+    BenchClient(int port) throws IOException {
+        this(port, null);
+    }
+
+    /**
+     * @param port - the port of the server on the loopback address
+     * @param path - the path requested by exchange()
+     * @throws IOException
+     */
+    BenchClient(int port, String path) throws IOException {
+        this.socket = new Socket();
+        socket.connect(new InetSocketAddress("127.0.0.1", port));
+        socket.setTcpNoDelay(true);
+        this.in = socket.getInputStream();
+        this.out = socket.getOutputStream();
+        this.request = path != null ? request(path, true) : null;
+    }
+
+    /**
+     * @param path - the path to request
+     * @param keepAlive - false to ask the server to close the connection after answering
+     * @return - an encoded GET request
+     */
+    static byte[] request(String path, boolean keepAlive) {
+        return ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nUser-Agent: bench\r\nAccept: */*\r\n"
+                + (keepAlive ? "" : "Connection: close\r\n") + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Sends the request given to the constructor and reads the complete response
+     * @return - the status code of the response
+     * @throws IOException
+     */
+    int exchange() throws IOException {
+        send(request);
+        flush();
+        return readResponse();
+    }
+
+    /**
+     * Writes a request without flushing it
+     * @param request - the encoded request
+     * @throws IOException
+     */
+    void send(byte[] request) throws IOException {
+        out.write(request);
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Reads the next complete response
+     * @return - the status code of the response
+     * @throws IOException
+     */
+    int readResponse() throws IOException {
+        int headEnd;
+        while ((headEnd = findHeadEnd(pos, limit)) == -1) {
+            fill();
+        }
+        int status = (buf[pos + 9] - '0') * 100 + (buf[pos + 10] - '0') * 10 + (buf[pos + 11] - '0');
+        long length = contentLength(pos, headEnd);
+        pos = headEnd;
+
+        long buffered = Math.min(length, limit - pos);
+        pos += (int) buffered;
+        long remaining = length - buffered;
+        // Read no further than the end of the body, so nothing of the next response is thrown away
+        while (remaining > 0) {
+            pos = 0;
+            limit = 0;
+            int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (n == -1)
+                throw new IOException("Connection closed by server");
+            remaining -= n;
+        }
+        return status;
+    }
+
+    /**
+     * Reads more bytes into the buffer, moving the unconsumed bytes to its start if it is full
+     * @throws IOException
+     */
+    private void fill() throws IOException {
+        if (pos == limit) {
+            pos = 0;
+            limit = 0;
+        } else if (limit == buf.length) {
+            if (pos == 0)
+                throw new IOException("Response head too large");
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n == -1)
+            throw new IOException("Connection closed by server");
+        limit += n;
+    }
+
+    /**
+     * @return - the offset just past the blank line ending the response head, or -1 if it has not been received yet
+     */
+    private int findHeadEnd(int from, int to) {
+        for (int i = from; i + 3 < to; i++) {
+            if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n')
+                return i + 4;
+        }
+        return -1;
+    }
+
+    private long contentLength(int start, int headEnd) throws IOException {
+        for (int i = start; i + CONTENT_LENGTH.length < headEnd; i++) {
+            if ((i == start || buf[i - 1] == '\n') && matchesName(i)) {
+                long length = 0;
+                for (int j = i + CONTENT_LENGTH.length; buf[j] != '\r'; j++) {
+                    if (buf[j] >= '0' && buf[j] <= '9')
+                        length = length * 10 + (buf[j] - '0');
+                }
+                return length;
+            }
+        }
+        throw new IOException("Response without a Content-length");
+    }
+
+    private boolean matchesName(int i) {
+        for (int j = 0; j < CONTENT_LENGTH.length; j++) {
+            if ((buf[i + j] | 0x20) != CONTENT_LENGTH[j])
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
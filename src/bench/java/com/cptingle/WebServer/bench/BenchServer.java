@@ -0,0 +1,111 @@
+package com.cptingle.WebServer.bench;
+
+import com.cptingle.WebServer.server.HTTPServer;
+import com.cptingle.WebServer.util.configuration.Configuration;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * An in-process server for the benchmarks, listening on an ephemeral loopback port with logging turned off. Its
+ * configuration, web root and servlet directory live in a temporary directory that is deleted when it is closed.
+ */
+final class BenchServer implements Closeable {
+    private final Path dir;
+    private final Path webRoot;
+    private final HTTPServer server;
+
+    /**
+     * @param transport - "blocking" or "nio"
+     * @param fileCache - whether static files are served from the in-memory cache or streamed from disk
+     * @throws IOException
+     */
+    BenchServer(String transport, boolean fileCache) throws IOException {
+        this(transport, "cached", fileCache);
+    }
+
+    /**
+     * @param transport - "blocking" or "nio"
+     * @param executor - the executor type, "cached", "bounded" or "virtual"
+     * @param fileCache - whether static files are served from the in-memory cache or streamed from disk
+     * @throws IOException
+     */
+    BenchServer(String transport, String executor, boolean fileCache) throws IOException {
+        this(transport, executor, 1, fileCache);
+    }
+
+    /**
+     * @param transport - "blocking" or "nio"
+     * @param executor - the executor type, "cached", "bounded" or "virtual"
+     * @param acceptors - the number of listeners accepting connections
+     * @param fileCache - whether static files are served from the in-memory cache or streamed from disk
+     * @throws IOException
+     */
+    BenchServer(String transport, String executor, int acceptors, boolean fileCache) throws IOException {
+        this.dir = Files.createTempDirectory("webserver-bench");
+        this.webRoot = Files.createDirectories(dir.resolve("html"));
+
+        List<String> config = Arrays.asList(
+                "server-version: \"bench\"",
+                "debug: false",
+                "bind-address: \"127.0.0.1\"",
+                "port: 0",
+                "index-page: \"index.html\"",
+                "configuration:",
+                "  hot-reload: false",
+                "transport:",
+                "  type: \"" + transport + "\"",
+                "  acceptors: " + acceptors,
+                "executor:",
+                "  type: \"" + executor + "\"",
+                "persistence:",
+                "  use-persistent-connections: true",
+                "  persistent-connection-timeout: 120000",
+                "servlets:",
+                "  directory: \"" + dir.resolve("servlets") + "\"",
+                "  hot-reload: false",
+                "logging:",
+                "  enabled: false",
+                "  http-log-file-path: \"" + dir.resolve("logs") + "\"",
+                "  error-log-file-path: \"" + dir.resolve("logs") + "\"",
+                "files:",
+                "  web-root: \"" + webRoot + "\"",
+                "  cache:",
+                "    enabled: " + fileCache
+        );
+        Path configFile = dir.resolve("config.yaml");
+        Files.write(configFile, config, StandardCharsets.UTF_8);
+
+        this.server = new HTTPServer(new Configuration(configFile.toString()));
+        Thread serverThread = new Thread(server, "bench-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    HTTPServer getServer() {
+        return server;
+    }
+
+    Path getWebRoot() {
+        return webRoot;
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.cptingle.WebServer.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+
+/**
+ * Dispatching requests to a servlet over a keep-alive loopback connection to an in-process server. The servlet answers
+ * with a small fixed body, so the time is spent framing the request, routing it, running the servlet and sending the
+ * response. The literal path is matched by literal edges only, the other one binds a path parameter.
+ */
+@State(Scope.Thread)
+public class DispatchBenchmark {
+    @Param({HelloServlet.PATH, HelloServlet.PARAM_PATH})
+    public String path;
+
+    @Param({"blocking", "nio"})
+    public String transport;
+
+    private BenchServer server;
+    private BenchClient client;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new BenchServer(transport, false);
+        server.getServer().getServlets().register(new HelloServlet(server.getServer()));
+
+        client = new BenchClient(server.getPort(), path);
+        int status = client.exchange();
+        if (status != 200)
+            throw new IllegalStateException("Expected 200 but the server answered " + status);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public int get() throws IOException {
+        return client.exchange();
+    }
+}
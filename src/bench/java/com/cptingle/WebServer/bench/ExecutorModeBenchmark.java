@@ -0,0 +1,168 @@
+package com.cptingle.WebServer.bench;
+
+import com.cptingle.WebServer.server.HTTPServer;
+import com.cptingle.WebServer.util.configuration.Configuration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the cached thread pool with the virtual thread executor. For each mode an in-process server is started on an
+ * ephemeral port, a large number of keep-alive connections is opened and held idle, then every connection is driven with
+ * sequential requests. Reports the platform threads and heap held by the idle connections and the request throughput.
+ *
+ * Usage: ExecutorModeBenchmark [connections] [rounds] [client threads]
+ */
+public class ExecutorModeBenchmark {
+    private static final byte[] REQUEST = "GET /index.html HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int clientThreads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+        System.out.printf("%-10s %12s %18s %16s %14s%n", "executor", "connections", "platform threads", "heap delta (MB)", "requests/s");
+        for (String mode : new String[]{"cached", "virtual"}) {
+            run(mode, connections, rounds, clientThreads);
+        }
+    }
+
+    private static void run(String mode, int connections, int rounds, int clientThreads) throws Exception {
+        Path dir = Files.createTempDirectory("executor-bench");
+        Path webRoot = Files.createDirectories(dir.resolve("html"));
+        byte[] page = new byte[1024];
+        Arrays.fill(page, (byte) 'a');
+        Files.write(webRoot.resolve("index.html"), page);
+
+        Path configFile = dir.resolve("config.yaml");
+        Files.write(configFile, Arrays.asList(
+                "server-version: \"bench\"",
+                "debug: false",
+                "bind-address: \"127.0.0.1\"",
+                "port: 0",
+                "index-page: \"index.html\"",
+                "transport:",
+                "  type: \"blocking\"",
+                "executor:",
+                "  type: \"" + mode + "\"",
+                "persistence:",
+                "  use-persistent-connections: true",
+                "  persistent-connection-timeout: 120000",
+                "files:",
+                "  web-root: \"" + webRoot + "\"",
+                "logging:",
+                "  enabled: false",
+                "  http-log-file-path: \"" + dir.resolve("logs") + "\"",
+                "  error-log-file-path: \"" + dir.resolve("logs") + "\""
+        ), StandardCharsets.UTF_8);
+
+        HTTPServer server = new HTTPServer(new Configuration(configFile.toString()));
+        Thread serverThread = new Thread(server, "bench-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        int threadsBefore = threads.getThreadCount();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+
+        // Open every connection and complete one request so each one has a live handler on the server
+        List<Socket> sockets = new ArrayList<Socket>(connections);
+        for (int i = 0; i < connections; i++) {
+            Socket socket = new Socket();
+            socket.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort()));
+            socket.setTcpNoDelay(true);
+            exchange(socket);
+            sockets.add(socket);
+        }
+
+        System.gc();
+        int idleThreads = threads.getThreadCount() - threadsBefore;
+        long heapDelta = (memory.getHeapMemoryUsage().getUsed() - heapBefore) / (1024 * 1024);
+
+        // Drive all of the connections, each client thread owns an equal share of the sockets
+        AtomicLong completed = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(clientThreads);
+        long start = System.nanoTime();
+        for (int t = 0; t < clientThreads; t++) {
+            final int offset = t;
+            Thread client = new Thread(() -> {
+                try {
+                    for (int r = 0; r < rounds; r++) {
+                        for (int i = offset; i < sockets.size(); i += clientThreads) {
+                            exchange(sockets.get(i));
+                            completed.incrementAndGet();
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            });
+            client.start();
+        }
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%-10s %12d %18d %16d %14.0f%n", mode, connections, idleThreads, heapDelta, completed.get() / seconds);
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.close();
+    }
+
+    /**
+     * Sends one request and reads the complete response
+     * @param socket - keep-alive connection to the server
+     * @throws IOException
+     */
+    private static void exchange(Socket socket) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(REQUEST);
+        out.flush();
+
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b == -1)
+                throw new IOException("Connection closed by server");
+            head.write(b);
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+
+        int length = 0;
+        for (String line : head.toString("ISO-8859-1").split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                length = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        byte[] body = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(body, read, length - read);
+            if (n == -1)
+                throw new IOException("Connection closed by server");
+            read += n;
+        }
+    }
+}
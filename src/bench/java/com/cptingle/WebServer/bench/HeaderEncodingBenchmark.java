@@ -0,0 +1,69 @@
+package com.cptingle.WebServer.bench;
+
+import com.cptingle.WebServer.messaging.Response;
+import com.cptingle.WebServer.response.Status;
+import com.cptingle.WebServer.server.BlockingConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Building a response and encoding its header block. writeHeaders encodes into a reused buffer the way connections do,
+ * headerBytes encodes into a new array the way callers without a buffer do.
+ */
+@State(Scope.Thread)
+public class HeaderEncodingBenchmark {
+    // The headers sent with a static file
+    private static final List<String> FILE_HEADERS = Arrays.asList(
+            "Accept-Ranges: bytes",
+            "ETag: \"5f2b-18c3a1e0\"",
+            "Last-Modified: Mon, 04 Mar 2024 10:15:30 GMT",
+            "Cache-Control: public, max-age=3600",
+            "Vary: Accept-Encoding"
+    );
+
+    @Param({"none", "file"})
+    public String headers;
+
+    private BenchServer server;
+    private BlockingConnection conn;
+    private ByteBuffer body;
+    private List<String> extraHeaders;
+    private final ByteBuffer dst = ByteBuffer.allocate(16 * 1024);
+
+    @Setup
+    public void setup() throws IOException {
+        server = new BenchServer("blocking", false);
+        // The connection is only used to reach the server's header encoder, it is never connected
+        conn = new BlockingConnection(new Socket(), server.getServer());
+        body = ByteBuffer.wrap(new byte[1024]);
+        extraHeaders = headers.equals("file") ? FILE_HEADERS : null;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    public ByteBuffer writeHeaders() {
+        Response rsp = new Response(conn, Status.OK, body.duplicate(), extraHeaders);
+        dst.clear();
+        rsp.writeHeaders(dst);
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] headerBytes() {
+        return new Response(conn, Status.OK, body.duplicate(), extraHeaders).getHeaderBytes();
+    }
+}
@@ -0,0 +1,35 @@
+package com.cptingle.WebServer.bench;
+
+import com.cptingle.WebServer.messaging.Request;
+import com.cptingle.WebServer.messaging.Response;
+import com.cptingle.WebServer.response.Status;
+import com.cptingle.WebServer.server.AbstractServlet;
+import com.cptingle.WebServer.server.ClientConnection;
+import com.cptingle.WebServer.server.HTTPServer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A servlet answering GET requests with a small fixed page, on a literal route and on a route with a path parameter
+ */
+public class HelloServlet extends AbstractServlet {
+    static final String PATH = "/bench/hello";
+    static final String PARAM_PATH = "/bench/items/42";
+
+    private static final ByteBuffer BODY = ByteBuffer.wrap("<html><body>Hello</body></html>".getBytes(StandardCharsets.UTF_8));
+
+    public HelloServlet(HTTPServer server) {
+        super(server, new String[]{PATH, "/bench/items/{id}"});
+    }
+
+    @Override
+    public void get(ClientConnection conn, Request req) {
+        try {
+            conn.sendResponse(new Response(conn, Status.OK, BODY.duplicate()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
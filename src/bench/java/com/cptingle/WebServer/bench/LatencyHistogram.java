@@ -0,0 +1,113 @@
+package com.cptingle.WebServer.bench;
+
+/**
+ * Latencies in nanoseconds. Values are grouped by their highest set bit and every group is split into 64 linear
+ * sub-buckets, so a bucket is never wider than 1/64 of the values in it and a reported latency, the top of its bucket,
+ * is at most about 1.6% above the recorded one. Not thread safe, each load generator connection records into its own
+ * histogram and they are added together once the run is over.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int HALF_SUB_BUCKETS = 1 << (SUB_BUCKET_BITS - 1);
+
+    private final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKETS];
+    private long total;
+    private long sum;
+    private long max;
+
+    /**
+     * @param nanos - the latency to record
+     */
+    void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    private void record(long nanos, long count) {
+        long value = Math.max(0, nanos);
+        counts[index(value)] += count;
+        total += count;
+        sum += value * count;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * @param other - a histogram whose values are added to this one
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Corrects the latencies of a closed loop for coordinated omission. A client that waits for every response before
+     * sending its next request stops sending while the server stalls, so a stall shows up as one slow request rather than
+     * as every request that would have been sent meanwhile. For each latency longer than the expected interval between
+     * requests, the requests that were held back are added with the latencies they would have seen.
+     * @param expectedInterval - the average time between the requests of one connection, in nanoseconds
+     * @return - a new corrected histogram
+     */
+    LatencyHistogram correctedFor(long expectedInterval) {
+        LatencyHistogram corrected = new LatencyHistogram();
+        corrected.add(this);
+        if (expectedInterval <= 0) {
+            return corrected;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0)
+                continue;
+            long value = Math.min(highest(i), max);
+            for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+                corrected.record(missing, counts[i]);
+            }
+        }
+        return corrected;
+    }
+
+    long getTotalCount() {
+        return total;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    long getMean() {
+        return total == 0 ? 0 : sum / total;
+    }
+
+    /**
+     * @param percentile - between 0 and 100
+     * @return - the latency at or below which the percentile of the recorded latencies fall, in nanoseconds
+     */
+    long getValueAtPercentile(double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(highest(i), max);
+        }
+        return max;
+    }
+
+    private static int index(long value) {
+        int group = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        int sub = (int) (value >>> group);
+        return group == 0 ? sub : group * HALF_SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return - the largest value that falls into the bucket
+     */
+    private static long highest(int index) {
+        if (index < 2 * HALF_SUB_BUCKETS)
+            return index;
+        int group = index / HALF_SUB_BUCKETS - 1;
+        long sub = index - group * HALF_SUB_BUCKETS;
+        return ((sub + 1) << group) - 1;
+    }
+}
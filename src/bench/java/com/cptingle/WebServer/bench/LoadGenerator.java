@@ -0,0 +1,299 @@
+package com.cptingle.WebServer.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives an in-process server on an ephemeral loopback port and reports its throughput and latency percentiles. Each
+ * connection is driven by its own thread with a mix of static files of several sizes, missing files and a servlet. Every
+ * combination of the given transports, executors and acceptor counts gets its own run and row in the report, so they can
+ * be compared.
+ *
+ * With --rate the connections send at a fixed schedule and latency is measured from when each request was due to be sent,
+ * so a stalled server is charged for the requests that queued up behind the stall. Without it every connection sends its
+ * next request as soon as the last response arrives and the latencies are corrected afterwards, see
+ * {@link LatencyHistogram#correctedFor(long)}. Both ways the percentiles are free of coordinated omission; the uncorrected
+ * p99.9 is printed next to them for comparison.
+ *
+ * Usage: LoadGenerator [--option=value ...]
+ *   --transport=blocking,nio   transports to run against
+ *   --executor=cached          executor types to run against, cached, bounded or virtual
+ *   --acceptors=1              listener counts to run against, compare 1,4 with --keep-alive=false
+ *   --connections=64           concurrent connections
+ *   --duration=10              seconds measured
+ *   --warmup=3                 seconds run before measuring
+ *   --keep-alive=true          false opens a new connection for every pipeline of requests
+ *   --pipeline=1               requests written before their responses are read
+ *   --rate=0                   requests per second over all connections, 0 for as fast as the server answers
+ *   --mix=small:40,medium:15,large:5,missing:10,servlet:30
+ *                              relative weights of the requests, see Kind
+ *   --cache=true               whether the server caches static files in memory
+ */
+public class LoadGenerator {
+    private static final Map<String, String> DEFAULTS = new HashMap<String, String>();
+
+    static {
+        DEFAULTS.put("transport", "blocking,nio");
+        DEFAULTS.put("executor", "cached");
+        DEFAULTS.put("acceptors", "1");
+        DEFAULTS.put("connections", "64");
+        DEFAULTS.put("duration", "10");
+        DEFAULTS.put("warmup", "3");
+        DEFAULTS.put("keep-alive", "true");
+        DEFAULTS.put("pipeline", "1");
+        DEFAULTS.put("rate", "0");
+        DEFAULTS.put("mix", "small:40,medium:15,large:5,missing:10,servlet:30");
+        DEFAULTS.put("cache", "true");
+    }
+
+    /**
+     * The requests the load is made of
+     */
+    private enum Kind {
+        SMALL("/small.html", 200, 1024),
+        MEDIUM("/medium.html", 200, 64 * 1024),
+        LARGE("/large.html", 200, 1024 * 1024),
+        MISSING("/missing.html", 404, -1),
+        SERVLET(HelloServlet.PATH, 200, -1);
+
+        private final String path;
+        private final int expectedStatus;
+        // The size of the static file served for the request, -1 if there is none
+        private final int fileSize;
+
+        Kind(String path, int expectedStatus, int fileSize) {
+            this.path = path;
+            this.expectedStatus = expectedStatus;
+            this.fileSize = fileSize;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>(DEFAULTS);
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String key = arg.startsWith("--") && eq > 2 ? arg.substring(2, eq) : null;
+            if (key == null || !DEFAULTS.containsKey(key)) {
+                System.err.println("Unknown option " + arg + ", the options are " + DEFAULTS.keySet());
+                System.exit(1);
+            }
+            options.put(key, arg.substring(eq + 1));
+        }
+
+        LoadGenerator generator = new LoadGenerator(options);
+        System.out.printf("%-9s %-8s %4s %6s %8s %6s %12s %8s %10s %10s %10s %10s %12s%n", "transport", "executor", "acc", "conns",
+                "pipeline", "keep", "requests/s", "errors", "p50 (ms)", "p99 (ms)", "p99.9 (ms)", "max (ms)", "raw p99.9");
+        for (String transport : options.get("transport").split(",")) {
+            for (String executor : options.get("executor").split(",")) {
+                for (String acceptors : options.get("acceptors").split(",")) {
+                    generator.run(transport.trim(), executor.trim(), Integer.parseInt(acceptors.trim()));
+                }
+            }
+        }
+    }
+
+    private final int connections;
+    private final long duration;
+    private final long warmup;
+    private final boolean keepAlive;
+    private final int pipeline;
+    private final double rate;
+    private final boolean cache;
+    // Every kind appears in proportion to its weight, requests pick one at random
+    private final Kind[] mix;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.connections = Integer.parseInt(options.get("connections"));
+        this.duration = Long.parseLong(options.get("duration")) * 1_000_000_000L;
+        this.warmup = Long.parseLong(options.get("warmup")) * 1_000_000_000L;
+        this.keepAlive = Boolean.parseBoolean(options.get("keep-alive"));
+        this.pipeline = Math.max(1, Integer.parseInt(options.get("pipeline")));
+        this.rate = Double.parseDouble(options.get("rate"));
+        this.cache = Boolean.parseBoolean(options.get("cache"));
+
+        List<Kind> weighted = new ArrayList<Kind>();
+        for (String entry : options.get("mix").split(",")) {
+            String[] parts = entry.split(":");
+            Kind kind = Kind.valueOf(parts[0].trim().toUpperCase());
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            for (int i = 0; i < weight; i++) {
+                weighted.add(kind);
+            }
+        }
+        if (weighted.isEmpty())
+            throw new IllegalArgumentException("The request mix is empty");
+        this.mix = weighted.toArray(new Kind[0]);
+    }
+
+    /**
+     * Runs the load against a new server and prints a row of the report
+     * @param transport - the transport of the server
+     * @param executor - the executor type of the server
+     * @param acceptors - the number of listeners of the server
+     * @throws Exception
+     */
+    private void run(String transport, String executor, int acceptors) throws Exception {
+        try (BenchServer server = new BenchServer(transport, executor, acceptors, cache)) {
+            for (Kind kind : Kind.values()) {
+                if (kind.fileSize >= 0) {
+                    byte[] page = new byte[kind.fileSize];
+                    Arrays.fill(page, (byte) 'a');
+                    Files.write(server.getWebRoot().resolve(kind.path.substring(1)), page);
+                }
+            }
+            server.getServer().getServlets().register(new HelloServlet(server.getServer()));
+
+            long start = System.nanoTime() + 100_000_000L;
+            Connection[] drivers = new Connection[connections];
+            Thread[] threads = new Thread[connections];
+            for (int i = 0; i < connections; i++) {
+                drivers[i] = new Connection(server.getPort(), i, start);
+                threads[i] = new Thread(drivers[i], "load-" + i);
+                threads[i].setDaemon(true);
+                threads[i].start();
+            }
+
+            LatencyHistogram latency = new LatencyHistogram();
+            LatencyHistogram raw = new LatencyHistogram();
+            long errors = 0;
+            for (int i = 0; i < connections; i++) {
+                threads[i].join();
+                latency.add(drivers[i].getCorrected());
+                raw.add(drivers[i].raw);
+                errors += drivers[i].errors;
+            }
+
+            System.out.printf("%-9s %-8s %4d %6d %8d %6s %12.0f %8d %10.3f %10.3f %10.3f %10.3f %12.3f%n", transport, executor,
+                    server.getServer().getAcceptorCount(), connections, pipeline, keepAlive ? "yes" : "no",
+                    raw.getTotalCount() / (duration / 1e9), errors,
+                    millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(99)),
+                    millis(latency.getValueAtPercentile(99.9)), millis(latency.getMax()), millis(raw.getValueAtPercentile(99.9)));
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Drives one connection for the warmup and the measured duration
+     */
+    private class Connection implements Runnable {
+        private final int port;
+        private final Random random;
+        private final long start;
+        // Time between the pipelines sent by this connection when sending at a fixed rate
+        private final long interval;
+        private final byte[][] requests = new byte[Kind.values().length][];
+        private final byte[][] closingRequests = new byte[Kind.values().length][];
+        private final Kind[] batch = new Kind[pipeline];
+
+        // Latency from when a request was due to be sent, which is only known when sending at a fixed rate
+        private final LatencyHistogram scheduled = new LatencyHistogram();
+        // Latency from when a request was actually sent
+        private final LatencyHistogram raw = new LatencyHistogram();
+        private long errors;
+        private long batches;
+
+        private Connection(int port, int id, long start) {
+            this.port = port;
+            this.random = new Random(id);
+            this.interval = rate > 0 ? (long) (1e9 * pipeline * connections / rate) : 0;
+            // Connections sending at a fixed rate are spread evenly over the interval instead of sending all at once
+            this.start = start + (interval * id) / connections;
+            for (Kind kind : Kind.values()) {
+                requests[kind.ordinal()] = BenchClient.request(kind.path, true);
+                closingRequests[kind.ordinal()] = BenchClient.request(kind.path, false);
+            }
+        }
+
+        @Override
+        public void run() {
+            long measureFrom = start + warmup;
+            long end = measureFrom + duration;
+            long due = start;
+            BenchClient client = null;
+            while (true) {
+                long now = System.nanoTime();
+                if (interval > 0) {
+                    while (now < due) {
+                        LockSupport.parkNanos(due - now);
+                        now = System.nanoTime();
+                    }
+                } else {
+                    due = Math.max(now, start);
+                }
+                if (due >= end) {
+                    break;
+                }
+                boolean measured = due >= measureFrom;
+
+                try {
+                    if (client == null) {
+                        client = new BenchClient(port);
+                    }
+                    for (int i = 0; i < pipeline; i++) {
+                        batch[i] = mix[random.nextInt(mix.length)];
+                        // Without keep-alive the last request of the pipeline asks the server to close the connection
+                        boolean last = i == pipeline - 1;
+                        client.send(!keepAlive && last ? closingRequests[batch[i].ordinal()] : requests[batch[i].ordinal()]);
+                    }
+                    client.flush();
+                    long sent = System.nanoTime();
+
+                    for (int i = 0; i < pipeline; i++) {
+                        int status = client.readResponse();
+                        long done = System.nanoTime();
+                        if (status != batch[i].expectedStatus) {
+                            errors += measured ? 1 : 0;
+                        }
+                        if (measured) {
+                            scheduled.record(done - due);
+                            raw.record(done - sent);
+                        }
+                    }
+                    if (measured) {
+                        batches++;
+                    }
+                    if (!keepAlive) {
+                        client.close();
+                        client = null;
+                    }
+                } catch (IOException e) {
+                    errors += measured ? 1 : 0;
+                    client = closeQuietly(client);
+                }
+                due += interval;
+            }
+            closeQuietly(client);
+        }
+
+        /**
+         * @return - the latencies corrected for coordinated omission
+         */
+        private LatencyHistogram getCorrected() {
+            if (interval > 0) {
+                return scheduled;
+            }
+            return raw.correctedFor(batches > 0 ? duration / batches : 0);
+        }
+
+        private BenchClient closeQuietly(BenchClient client) {
+            if (client != null) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    // Already broken
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.cptingle.WebServer.bench;
+
+import com.cptingle.WebServer.exceptions.HTTPParseException;
+import com.cptingle.WebServer.messaging.Method;
+import com.cptingle.WebServer.messaging.Request;
+import com.cptingle.WebServer.messaging.RequestParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parsing of a request head. parser frames the head straight from the received bytes with the {@link RequestParser} used by
+ * both transports, headerLines builds a request from header lines that have already been split, which parses the headers
+ * and cookies with Request.parseHeaders and parseCookies.
+ */
+@State(Scope.Thread)
+public class RequestParsingBenchmark {
+    private static final List<String> MINIMAL = Arrays.asList(
+            "GET /index.html HTTP/1.1",
+            "Host: localhost"
+    );
+    private static final List<String> BROWSER = Arrays.asList(
+            "GET /articles/2024/performance.html?ref=home&page=2 HTTP/1.1",
+            "Host: www.example.com",
+            "Connection: keep-alive",
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36",
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8",
+            "Accept-Encoding: gzip, deflate, br",
+            "Accept-Language: en-US,en;q=0.9",
+            "Cache-Control: max-age=0",
+            "Referer: https://www.example.com/",
+            "If-None-Match: \"5f2b-18c3a1e0\"",
+            "Cookie: session=8f14e45fceea167a5a36dedd4bea2543; theme=dark; consent=1; _ga=GA1.2.1234567890.1700000000"
+    );
+
+    @Param({"minimal", "browser"})
+    public String request;
+
+    private RequestParser parser;
+    private ByteBuffer buf;
+    private int length;
+    private String path;
+    private List<String> headerLines;
+
+    @Setup
+    public void setup() {
+        List<String> lines = request.equals("browser") ? BROWSER : MINIMAL;
+        StringBuilder head = new StringBuilder();
+        for (String line : lines) {
+            head.append(line).append("\r\n");
+        }
+        head.append("\r\n");
+        byte[] bytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        this.buf = ByteBuffer.wrap(bytes);
+        this.length = bytes.length;
+        // Requests only keep a reference to the server, parsing does not use it
+        this.parser = new RequestParser(null, "index.html", RequestParser.DEFAULT_MAX_REQUEST_LINE, RequestParser.DEFAULT_MAX_HEADER_SIZE, RequestParser.DEFAULT_MAX_BODY_SIZE);
+
+        this.path = lines.get(0).split(" ")[1];
+        this.headerLines = new ArrayList<String>(lines.subList(1, lines.size()));
+    }
+
+    @Benchmark
+    public Request parser() throws HTTPParseException {
+        buf.limit(length);
+        buf.position(0);
+        return parser.parse(buf);
+    }
+
+    @Benchmark
+    public Request headerLines() {
+        return new Request(null, Method.GET, path, headerLines);
+    }
+}
@@ -0,0 +1,56 @@
+package com.cptingle.WebServer.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Serving a static file over a keep-alive loopback connection to an in-process server, from the request being written to
+ * the last byte of the response being read. With the cache off every request is answered with Response(File), which
+ * transfers the file from disk, with it on the file is sent from memory.
+ */
+@State(Scope.Thread)
+public class StaticFileBenchmark {
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean cache;
+
+    @Param({"blocking", "nio"})
+    public String transport;
+
+    private BenchServer server;
+    private BenchClient client;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new BenchServer(transport, cache);
+        byte[] page = new byte[size];
+        Arrays.fill(page, (byte) 'a');
+        Files.write(server.getWebRoot().resolve("file.html"), page);
+
+        client = new BenchClient(server.getPort(), "/file.html");
+        int status = client.exchange();
+        if (status != 200)
+            throw new IllegalStateException("Expected 200 but the server answered " + status);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public int get() throws IOException {
+        return client.exchange();
+    }
+}
@@ -0,0 +1,79 @@
+package com.cptingle.WebServer.bench;
+
+import com.cptingle.WebServer.util.FileParser;
+import com.cptingle.WebServer.util.template.Template;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rendering %%symbol%% templates of different sizes, with a symbol roughly every 256 bytes. parseFile goes through
+ * FileParser.parseFile, which checks the file for changes before rendering its cached template, render renders a template
+ * that has already been compiled and compile measures compiling one from its text.
+ */
+@State(Scope.Thread)
+public class TemplateBenchmark {
+    private static final String[] SYMBOLS = {"title", "user", "count", "message"};
+
+    @Param({"1024", "16384", "262144"})
+    public int size;
+
+    private File file;
+    private String text;
+    private Template template;
+    private final Map<String, Object> symbols = new HashMap<String, Object>();
+
+    @Setup
+    public void setup() throws IOException {
+        StringBuilder page = new StringBuilder(size + 64);
+        page.append("<html><head><title>%%title%%</title></head><body>\n");
+        int symbol = 0;
+        while (page.length() < size) {
+            page.append("<p class=\"row\">Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut ")
+                    .append("labore et dolore magna aliqua. Ut enim ad minim veniam, quis nostrud exercitation ullamco laboris. ")
+                    .append("%%").append(SYMBOLS[symbol++ % SYMBOLS.length]).append("%%</p>\n");
+        }
+        page.append("</body></html>\n");
+        text = page.toString();
+
+        file = File.createTempFile("template-bench", ".html");
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        template = Template.compile(text);
+
+        symbols.put("title", "Benchmark");
+        symbols.put("user", "<admin>");
+        symbols.put("count", 42);
+        symbols.put("message", "Fish & Chips");
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public String parseFile() throws IOException {
+        return FileParser.parseFile(file, symbols);
+    }
+
+    @Benchmark
+    public byte[] render() {
+        return template.renderBytes(symbols);
+    }
+
+    @Benchmark
+    public Template compile() {
+        return Template.compile(text);
+    }
+}
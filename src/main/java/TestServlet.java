@@ -5,7 +5,7 @@ import com.cptingle.WebServer.server.HTTPServer;
 
 public class TestServlet extends AbstractServlet {
     public TestServlet(HTTPServer server) {
-        super(server, "/test.html");
+        super(server, new String[]{"/test.html"});
     }
     public void get(ClientConnection conn, Request req) {
         System.err.println("YINNY");
@@ -0,0 +1,19 @@
+package com.cptingle.WebServer.exceptions;
+
+import com.cptingle.WebServer.response.Status;
+
+/**
+ * Thrown when a request received from a client is malformed or exceeds a limit. The status is the error response to send back.
+ */
+public class HTTPParseException extends Exception {
+    private final Status status;
+
+    public HTTPParseException(Status status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,22 @@
+package com.cptingle.WebServer.exceptions;
+
+import com.cptingle.WebServer.response.Status;
+
+import java.io.IOException;
+
+/**
+ * Thrown while reading a request body that is malformed or larger than allowed. The status is the error response to send back
+ * if no response has been sent yet. The rest of the connection can't be framed afterwards, so it is closed.
+ */
+public class RequestBodyException extends IOException {
+    private final Status status;
+
+    public RequestBodyException(Status status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+}
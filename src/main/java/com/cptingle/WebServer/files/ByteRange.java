@@ -0,0 +1,126 @@
+package com.cptingle.WebServer.files;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An inclusive range of bytes requested with the Range header
+ */
+public class ByteRange {
+    private static final int MAX_RANGES = 16;
+
+    private final long start;
+    private final long end;
+
+    public ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return - the last byte of the range, inclusive
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * @param size - the size of the complete file
+     * @return - the Content-Range value for this range, such as "bytes 0-499/1234"
+     */
+    public String toContentRange(long size) {
+        return "bytes " + start + "-" + end + "/" + size;
+    }
+
+    /**
+     * Parses a Range header such as "bytes=0-499,1000-,-500" against a file of the given size. Overlapping or adjacent
+     * ranges are merged and ranges reaching past the end of the file are shortened.
+     * @param header - the Range header value
+     * @param size - the size of the file
+     * @return - the satisfiable ranges in ascending order, an empty list if none of the ranges can be satisfied,
+     *           or null if the header is malformed or asks for too many ranges and should be ignored
+     */
+    public static List<ByteRange> parse(String header, long size) {
+        header = header.trim();
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
+
+            try {
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                long start;
+                long end;
+                if (first.isEmpty()) {
+                    // Suffix range, the last N bytes of the file
+                    long suffix = Long.parseLong(last);
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0, size - suffix);
+                    end = size - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+                    if (!last.isEmpty() && Long.parseLong(last) < start) {
+                        return null;
+                    }
+                }
+                if (start < 0) {
+                    return null;
+                }
+                if (start < size && start <= end) {
+                    ranges.add(new ByteRange(start, end));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        return merge(ranges);
+    }
+
+    private static List<ByteRange> merge(List<ByteRange> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+
+        Collections.sort(ranges, Comparator.comparingLong(ByteRange::getStart));
+        List<ByteRange> merged = new ArrayList<ByteRange>(ranges.size());
+        ByteRange current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            ByteRange next = ranges.get(i);
+            if (next.start <= current.end + 1) {
+                current = new ByteRange(current.start, Math.max(current.end, next.end));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+}
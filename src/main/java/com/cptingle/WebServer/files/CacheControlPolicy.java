@@ -0,0 +1,61 @@
+package com.cptingle.WebServer.files;
+
+import com.cptingle.WebServer.exceptions.YAMLConfigurationException;
+import com.cptingle.WebServer.util.configuration.Configuration;
+
+import java.nio.file.FileSystems;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps request paths to Cache-Control header values. Each rule is a glob pattern matched against the request path,
+ * for example "/assets/**" or "**.css", and the first matching rule wins.
+ */
+public class CacheControlPolicy {
+    private final List<PathMatcher> matchers = new ArrayList<PathMatcher>();
+    private final List<String> values = new ArrayList<String>();
+
+    /**
+     * Creates the policy from a configuration section mapping glob patterns to header values, in the order they are listed
+     * @param section - the cache-control configuration section
+     */
+    public CacheControlPolicy(Configuration section) {
+        for (String pattern : section.getKeys()) {
+            try {
+                String value = section.getString(pattern);
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+                values.add(value);
+            } catch (YAMLConfigurationException | IllegalArgumentException e) {
+                System.err.println("Invalid cache-control rule '" + pattern + "': " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates a policy without any rules, no Cache-Control header is sent
+     */
+    public CacheControlPolicy() {
+    }
+
+    /**
+     * @param requestPath - the request path without the query string
+     * @return - the Cache-Control value for the path, or null if no rule matches
+     */
+    public String lookup(String requestPath) {
+        try {
+            Path path = Paths.get(requestPath);
+            for (int i = 0; i < matchers.size(); i++) {
+                if (matchers.get(i).matches(path)) {
+                    return values.get(i);
+                }
+            }
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,54 @@
+package com.cptingle.WebServer.files;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * The contents of a static file held in memory by the {@link StaticFileCache}
+ */
+public class CachedFile {
+    private final Path path;
+    private final ByteBuffer content;
+    private final long lastModified;
+    private volatile long lastAccess;
+
+    CachedFile(Path path, ByteBuffer content, long lastModified) {
+        this.path = path;
+        this.content = content.asReadOnlyBuffer();
+        this.lastModified = lastModified;
+        this.lastAccess = System.nanoTime();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return - a view of the file contents with its own position, safe to hand to a single writer
+     */
+    public ByteBuffer getContent() {
+        return content.duplicate();
+    }
+
+    /**
+     * @return - the size of the file in bytes
+     */
+    public long getSize() {
+        return content.capacity();
+    }
+
+    /**
+     * @return - the modification time of the file when it was read, in milliseconds since the epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    void touch() {
+        lastAccess = System.nanoTime();
+    }
+}
@@ -0,0 +1,264 @@
+package com.cptingle.WebServer.files;
+
+import com.cptingle.WebServer.util.Utility;
+import com.cptingle.WebServer.util.compression.Compressor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps gzip and deflate encoded copies of static files so each version of a file is compressed once rather than on every request.
+ * Like the {@link StaticFileCache} the total size is kept under a byte budget by evicting the least recently used variants,
+ * and variants are dropped when the {@link WebRootWatcher} reports their file changed. Requests arriving while a file is being
+ * compressed wait for that compression rather than starting their own.
+ */
+public class CompressedVariantCache implements InvalidationListener {
+    // One map per encoding, keyed by the resolved path, so a lookup does not build a key
+    private final ConcurrentHashMap<Path, Variant> gzip = new ConcurrentHashMap<Path, Variant>();
+    private final ConcurrentHashMap<Path, Variant> deflate = new ConcurrentHashMap<Path, Variant>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final Compressor compressor;
+    private final long maxBytes;
+    private final long maxFileSize;
+
+    /**
+     * @param compressor - the compressor used to encode files
+     * @param maxBytes - the total number of compressed bytes the cache may hold
+     * @param maxFileSize - files larger than this are never compressed
+     */
+    public CompressedVariantCache(Compressor compressor, long maxBytes, long maxFileSize) {
+        this.compressor = compressor;
+        this.maxBytes = maxBytes;
+        this.maxFileSize = Math.min(maxFileSize, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * @param size - the size of the file
+     * @return - whether the file is small enough to be compressed
+     */
+    public boolean accepts(long size) {
+        return size <= maxFileSize;
+    }
+
+    /**
+     * Fetches the encoded copy of the current version of the file, compressing the file if there is none yet. If another
+     * request is already compressing the same version this waits for its result.
+     * @param path - the resolved path of the file
+     * @param meta - the metadata of the current file version
+     * @param cached - the cached file contents, or null to read the file from disk
+     * @param encoding - gzip or deflate
+     * @return - a view of the encoded file, or null if the file changed while it was being compressed
+     * @throws IOException
+     */
+    public ByteBuffer get(Path path, FileMetadata meta, CachedFile cached, String encoding) throws IOException {
+        ConcurrentHashMap<Path, Variant> entries = entriesFor(encoding);
+        while (true) {
+            Variant variant = entries.get(path);
+            if (variant != null && variant.isFor(meta)) {
+                variant.lastAccess = System.nanoTime();
+                ByteBuffer content = variant.await();
+                return content != null ? content.duplicate() : null;
+            }
+
+            Variant fresh = new Variant(path, meta);
+            if (variant == null ? entries.putIfAbsent(path, fresh) == null : entries.replace(path, variant, fresh)) {
+                if (variant != null) {
+                    release(variant);
+                }
+                ByteBuffer content = compress(entries, fresh, cached, encoding);
+                return content != null ? content.duplicate() : null;
+            }
+            // Another request replaced the entry first, use theirs
+        }
+    }
+
+    /**
+     * @param path - the resolved path of the file
+     * @param meta - the metadata of the current file version
+     * @param encoding - gzip or deflate
+     * @return - the length of the encoded copy of the current file version, or -1 if it has not been compressed yet
+     */
+    public long getLength(Path path, FileMetadata meta, String encoding) {
+        Variant variant = entriesFor(encoding).get(path);
+        if (variant == null || !variant.isFor(meta)) {
+            return -1;
+        }
+        ByteBuffer content = variant.content.getNow(null);
+        return content != null ? content.remaining() : -1;
+    }
+
+    /**
+     * Compresses the file for an entry that was just added, waking the requests waiting for it
+     * @return - the encoded file, or null if the file changed while it was being compressed
+     */
+    private ByteBuffer compress(ConcurrentHashMap<Path, Variant> entries, Variant variant, CachedFile cached, String encoding) throws IOException {
+        ByteBuffer content;
+        try {
+            byte[] data;
+            if (cached != null) {
+                ByteBuffer view = cached.getContent();
+                data = new byte[view.remaining()];
+                view.get(data);
+            } else {
+                data = Utility.fileToByteArray(variant.path.toFile());
+            }
+
+            // If the file changed while it was being read or compressed the watcher may have fired before the entry was added
+            if (data.length != variant.size) {
+                content = null;
+            } else {
+                content = ByteBuffer.wrap(compressor.compressStatic(data, 0, data.length, encoding)).asReadOnlyBuffer();
+                if (Files.getLastModifiedTime(variant.path).toMillis() != variant.lastModified) {
+                    content = null;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (entries.remove(variant.path, variant)) {
+                release(variant);
+            }
+            variant.content.completeExceptionally(e);
+            throw e;
+        }
+
+        if (content == null) {
+            if (entries.remove(variant.path, variant)) {
+                release(variant);
+            }
+            variant.content.complete(null);
+            return null;
+        }
+
+        variant.content.complete(content);
+        // Only charged if the entry was not invalidated meanwhile, otherwise its bytes would never be given back
+        if (variant.charged.compareAndSet(0, content.capacity())) {
+            usedBytes.addAndGet(content.capacity());
+        }
+        if (usedBytes.get() > maxBytes) {
+            evict();
+        }
+        return content;
+    }
+
+    /**
+     * @return - the number of compressed bytes currently cached
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    @Override
+    public void invalidate(Path path) {
+        invalidate(gzip, path);
+        invalidate(deflate, path);
+    }
+
+    private void invalidate(ConcurrentHashMap<Path, Variant> entries, Path path) {
+        for (Variant variant : entries.values()) {
+            if (variant.path.startsWith(path) && entries.remove(variant.path, variant)) {
+                release(variant);
+            }
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        clear(gzip);
+        clear(deflate);
+    }
+
+    private void clear(ConcurrentHashMap<Path, Variant> entries) {
+        for (Variant variant : entries.values()) {
+            if (entries.remove(variant.path, variant)) {
+                release(variant);
+            }
+        }
+    }
+
+    private ConcurrentHashMap<Path, Variant> entriesFor(String encoding) {
+        return Compressor.DEFLATE.equals(encoding) ? deflate : gzip;
+    }
+
+    /**
+     * Gives back the bytes of a variant that has been removed from its map
+     */
+    private void release(Variant variant) {
+        long charged = variant.charged.getAndSet(-1);
+        if (charged > 0) {
+            usedBytes.addAndGet(-charged);
+        }
+    }
+
+    /**
+     * Evicts the least recently used variants until the cache is back under its byte budget
+     */
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            List<Variant> variants = new ArrayList<Variant>(gzip.values());
+            variants.addAll(deflate.values());
+            variants.sort(Comparator.comparingLong(Variant::getLastAccess));
+            for (Variant variant : variants) {
+                if (usedBytes.get() <= maxBytes) {
+                    break;
+                }
+                // Variants still being compressed are left alone, their bytes are not counted yet
+                if (variant.content.isDone() && (gzip.remove(variant.path, variant) || deflate.remove(variant.path, variant))) {
+                    release(variant);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static class Variant {
+        private final Path path;
+        private final long lastModified;
+        private final long size;
+        // Completed with the encoded file once compressed, or with null if the file changed meanwhile
+        private final CompletableFuture<ByteBuffer> content = new CompletableFuture<ByteBuffer>();
+        // Bytes counted towards the budget, -1 once released
+        private final AtomicLong charged = new AtomicLong();
+        private volatile long lastAccess;
+
+        Variant(Path path, FileMetadata meta) {
+            this.path = path;
+            this.lastModified = meta.getLastModified();
+            this.size = meta.getSize();
+            this.lastAccess = System.nanoTime();
+        }
+
+        boolean isFor(FileMetadata meta) {
+            return lastModified == meta.getLastModified() && size == meta.getSize();
+        }
+
+        ByteBuffer await() throws IOException {
+            try {
+                return content.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        long getLastAccess() {
+            return lastAccess;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.cptingle.WebServer.files;
+
+import com.cptingle.WebServer.messaging.Request;
+import com.cptingle.WebServer.response.HttpClock;
+import com.cptingle.WebServer.util.compression.Compressor;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Validators and caching headers for one version of a static file. They are computed once when the file is first requested
+ * and kept until the {@link WebRootWatcher} reports the file changed.
+ */
+public class FileMetadata {
+    // A two digit RFC 850 year more than 50 years in the future is taken to be in the past
+    private static final DateTimeFormatter RFC_850 = new DateTimeFormatterBuilder()
+            .appendPattern("EEEE, dd-MMM-")
+            .appendValueReduced(ChronoField.YEAR, 2, 2, LocalDate.now(ZoneOffset.UTC).minusYears(49))
+            .appendPattern(" HH:mm:ss 'GMT'")
+            .toFormatter(Locale.US).withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter ASCTIME = DateTimeFormatter.ofPattern("EEE MMM ppd HH:mm:ss yyyy", Locale.US).withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter[] DATE_FORMATS = {HttpClock.IMF_FIXDATE, RFC_850, ASCTIME};
+
+    private final long size;
+    private final long lastModified;
+    private final String etag;
+    private final String lastModifiedHttp;
+    private final String mimeType;
+    private final boolean compressible;
+    private final List<String> headers;
+    private final List<String> gzipHeaders;
+    private final List<String> deflateHeaders;
+
+    /**
+     * @param attrs - the attributes of the file
+     * @param cacheControl - the Cache-Control value for the file, or null to send none
+     * @param mimeType - the mime type of the file
+     * @param compressible - whether compressed variants of the file may be sent
+     */
+    public FileMetadata(BasicFileAttributes attrs, String cacheControl, String mimeType, boolean compressible) {
+        this.size = attrs.size();
+        this.lastModified = attrs.lastModifiedTime().toMillis();
+        // Strong validator derived from the modification time and size, the same file version always produces the same tag
+        this.etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"";
+        this.lastModifiedHttp = HttpClock.IMF_FIXDATE.format(Instant.ofEpochMilli(lastModified));
+        this.mimeType = mimeType;
+        this.compressible = compressible;
+
+        this.headers = buildHeaders(null, cacheControl);
+        this.gzipHeaders = compressible ? buildHeaders(Compressor.GZIP, cacheControl) : null;
+        this.deflateHeaders = compressible ? buildHeaders(Compressor.DEFLATE, cacheControl) : null;
+    }
+
+    private List<String> buildHeaders(String encoding, String cacheControl) {
+        List<String> temp = new ArrayList<String>(6);
+        temp.add("Accept-Ranges: bytes");
+        temp.add("ETag: " + getEtag(encoding));
+        temp.add("Last-Modified: " + lastModifiedHttp);
+        if (cacheControl != null) {
+            temp.add("Cache-Control: " + cacheControl);
+        }
+        if (compressible) {
+            temp.add("Vary: Accept-Encoding");
+        }
+        if (encoding != null) {
+            temp.add("Content-Encoding: " + encoding);
+        }
+        return Collections.unmodifiableList(temp);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return - the modification time in milliseconds since the epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return - the entity tag including its quotes
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * Each content coding is a different representation of the file and needs its own strong entity tag
+     * @param encoding - the content coding, or null for the uncompressed file
+     * @return - the entity tag of that representation including its quotes
+     */
+    public String getEtag(String encoding) {
+        if (encoding == null) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * @return - whether compressed variants of the file may be sent
+     */
+    public boolean isCompressible() {
+        return compressible;
+    }
+
+    /**
+     * @return - the prebuilt Accept-Ranges, ETag, Last-Modified, Cache-Control and Vary header lines sent with every response for this file
+     */
+    public List<String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @param encoding - the content coding of the body, or null for the uncompressed file
+     * @return - the prebuilt headers for that representation, including its Content-Encoding
+     */
+    public List<String> getHeaders(String encoding) {
+        if (Compressor.GZIP.equals(encoding))
+            return gzipHeaders;
+        if (Compressor.DEFLATE.equals(encoding))
+            return deflateHeaders;
+        return headers;
+    }
+
+    /**
+     * Evaluates the If-None-Match and If-Modified-Since request headers. If-Modified-Since is ignored when If-None-Match is present.
+     * @param req - the request
+     * @return - true if the client already has this version and a 304 Not Modified can be sent
+     */
+    public boolean isNotModified(Request req) {
+        return isNotModified(req, null);
+    }
+
+    /**
+     * Evaluates the conditional request headers against one representation of the file
+     * @param req - the request
+     * @param encoding - the content coding that would be sent, or null for the uncompressed file
+     * @return - true if the client already has this representation and a 304 Not Modified can be sent
+     */
+    public boolean isNotModified(Request req, String encoding) {
+        String ifNoneMatch = req.getHeaderValue("if-none-match");
+        if (ifNoneMatch != null) {
+            return matchesEtag(ifNoneMatch, true, getEtag(encoding));
+        }
+
+        String ifModifiedSince = req.getHeaderValue("if-modified-since");
+        if (ifModifiedSince != null) {
+            long since = parseHttpDate(ifModifiedSince);
+            // HTTP dates only have a resolution of one second
+            return since != -1 && lastModified / 1000 <= since / 1000;
+        }
+        return false;
+    }
+
+    /**
+     * Checks the file's entity tag against a list of entity tags from a request header
+     * @param header - comma separated entity tags, or *
+     * @param weak - whether weak tags (W/"...") may match, as in If-None-Match
+     * @return - true if any of the tags match
+     */
+    public boolean matchesEtag(String header, boolean weak) {
+        return matchesEtag(header, weak, etag);
+    }
+
+    private static boolean matchesEtag(String header, boolean weak, String etag) {
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                if (!weak)
+                    continue;
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses an HTTP date in any of the three formats RFC 7231 requires recipients to accept: IMF-fixdate such as
+     * "Sun, 06 Nov 1994 08:49:37 GMT", the obsolete RFC 850 format "Sunday, 06-Nov-94 08:49:37 GMT" and asctime "Sun Nov  6 08:49:37 1994"
+     * @param value - the header value
+     * @return - the time in milliseconds since the epoch, or -1 if the value is not a valid date
+     */
+    public static long parseHttpDate(String value) {
+        String date = value.trim();
+        for (DateTimeFormatter format : DATE_FORMATS) {
+            try {
+                return format.parse(date, Instant::from).toEpochMilli();
+            } catch (DateTimeParseException e) {
+                // Try the next format
+            }
+        }
+        return -1;
+    }
+}
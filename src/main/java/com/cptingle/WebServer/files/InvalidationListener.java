@@ -0,0 +1,19 @@
+package com.cptingle.WebServer.files;
+
+import java.nio.file.Path;
+
+/**
+ * Receives notifications from the {@link WebRootWatcher} when files under the web root change
+ */
+public interface InvalidationListener {
+    /**
+     * Called when a file or directory was created, modified or deleted
+     * @param path - the changed path, anything cached for it or for files beneath it is stale
+     */
+    public void invalidate(Path path);
+
+    /**
+     * Called when the watcher lost track of events and every cached file must be considered stale
+     */
+    public void invalidateAll();
+}
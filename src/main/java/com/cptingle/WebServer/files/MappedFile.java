@@ -0,0 +1,85 @@
+package com.cptingle.WebServer.files;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * A read-only memory mapping of a static file shared by every request for it. A single mapping cannot exceed 2 GB so
+ * large files are mapped in segments. Slices are views into the mapping, the pages are read from the page cache
+ * by the kernel and never copied onto the heap.
+ */
+public class MappedFile {
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final Path path;
+    private final long size;
+    private final long lastModified;
+    private final MappedByteBuffer[] segments;
+    private volatile long lastAccess;
+
+    MappedFile(Path path, long size, long lastModified) throws IOException {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+
+        int count = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        this.segments = new MappedByteBuffer[count];
+        // The mappings stay valid after the channel is closed
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int i = 0; i < count; i++) {
+                long position = i * SEGMENT_SIZE;
+                segments[i] = fc.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, size - position));
+            }
+        }
+        this.lastAccess = System.nanoTime();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    void touch() {
+        lastAccess = System.nanoTime();
+    }
+
+    /**
+     * Adds views of the requested bytes to the list. A range that crosses a segment boundary produces one view per segment.
+     * @param start - the offset of the first byte
+     * @param length - the number of bytes
+     * @param out - the list to add the views to
+     */
+    public void slice(long start, long length, List<ByteBuffer> out) {
+        long position = start;
+        long remaining = length;
+        while (remaining > 0) {
+            int segment = (int) (position / SEGMENT_SIZE);
+            int offset = (int) (position % SEGMENT_SIZE);
+            int count = (int) Math.min(remaining, segments[segment].capacity() - offset);
+
+            ByteBuffer view = segments[segment].duplicate();
+            view.position(offset);
+            view.limit(offset + count);
+            out.add(view.slice());
+
+            position += count;
+            remaining -= count;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.cptingle.WebServer.files;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps one {@link MappedFile} per static file so concurrent partial reads of the same file share a single mapping.
+ * Like the {@link StaticFileCache} the total size of the mappings is kept under a byte budget by evicting the least recently
+ * used ones, an evicted mapping is released once the requests still sending from it are done.
+ * Reading a mapping past the end of a file that was truncated crashes the process rather than throwing, so the file is checked
+ * against the mapping every time it is served. The cache should only be used while a {@link WebRootWatcher} is running.
+ */
+public class MappedFileCache implements InvalidationListener {
+    private final ConcurrentHashMap<Path, MappedFile> mappings = new ConcurrentHashMap<Path, MappedFile>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final long maxBytes;
+
+    /**
+     * @param maxBytes - the total number of bytes of file content that may be mapped
+     */
+    public MappedFileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Fetches the mapping for the current version of the file, mapping it if it is not mapped yet or has changed.
+     * A file larger than the whole budget is mapped for this request only.
+     * @param path - the resolved path of the file
+     * @param meta - the metadata of the current file version
+     * @return - the mapped file, or null if the file on disk no longer matches the metadata
+     * @throws IOException
+     */
+    public MappedFile get(Path path, FileMetadata meta) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (attrs.size() != meta.getSize() || attrs.lastModifiedTime().toMillis() != meta.getLastModified()) {
+            return null;
+        }
+
+        MappedFile mapped = mappings.get(path);
+        if (mapped != null && mapped.getLastModified() == meta.getLastModified() && mapped.getSize() == meta.getSize()) {
+            mapped.touch();
+            return mapped;
+        }
+
+        mapped = new MappedFile(path, meta.getSize(), meta.getLastModified());
+        if (mapped.getSize() > maxBytes) {
+            return mapped;
+        }
+        MappedFile previous = mappings.put(path, mapped);
+        usedBytes.addAndGet(mapped.getSize() - (previous != null ? previous.getSize() : 0));
+        if (usedBytes.get() > maxBytes) {
+            evict();
+        }
+        return mapped;
+    }
+
+    /**
+     * @return - the number of bytes of file content currently mapped
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * @return - the number of files currently mapped
+     */
+    public int size() {
+        return mappings.size();
+    }
+
+    @Override
+    public void invalidate(Path path) {
+        remove(path);
+        for (Path key : mappings.keySet()) {
+            if (key.startsWith(path)) {
+                remove(key);
+            }
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        for (Path key : mappings.keySet()) {
+            remove(key);
+        }
+    }
+
+    private void remove(Path path) {
+        MappedFile removed = mappings.remove(path);
+        if (removed != null) {
+            usedBytes.addAndGet(-removed.getSize());
+        }
+    }
+
+    /**
+     * Evicts the least recently used mappings until the cache is back under its byte budget
+     */
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            List<MappedFile> files = new ArrayList<MappedFile>(mappings.values());
+            files.sort(Comparator.comparingLong(MappedFile::getLastAccess));
+            for (MappedFile file : files) {
+                if (usedBytes.get() <= maxBytes) {
+                    break;
+                }
+                if (mappings.remove(file.getPath(), file)) {
+                    usedBytes.addAndGet(-file.getSize());
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+}
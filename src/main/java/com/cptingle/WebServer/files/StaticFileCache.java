@@ -0,0 +1,162 @@
+package com.cptingle.WebServer.files;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent in-memory cache of static file contents keyed by their resolved path under the web root.
+ * The total size of the cached files is kept under a byte budget by evicting the least recently used files. File bodies can
+ * be held in direct buffers so they live outside of the Java heap and can be written to sockets without an extra copy.
+ * Entries are dropped by a {@link WebRootWatcher} when the files change on disk, so hits never touch the file system.
+ */
+public class StaticFileCache implements InvalidationListener {
+    private final ConcurrentHashMap<Path, CachedFile> entries = new ConcurrentHashMap<Path, CachedFile>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final long maxBytes;
+    private final long maxFileSize;
+    private final boolean offHeap;
+
+    /**
+     * @param maxBytes - the total number of bytes of file content the cache may hold
+     * @param maxFileSize - files larger than this are never cached and are streamed from disk instead
+     * @param offHeap - whether file contents are stored in direct buffers outside of the heap
+     */
+    public StaticFileCache(long maxBytes, long maxFileSize, boolean offHeap) {
+        this.maxBytes = maxBytes;
+        this.maxFileSize = Math.min(maxFileSize, maxBytes);
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Looks up a cached file without touching the file system
+     * @param path - the resolved path of the file
+     * @return - the cached file, or null if it is not cached
+     */
+    public CachedFile get(Path path) {
+        CachedFile file = entries.get(path);
+        if (file != null) {
+            file.touch();
+        }
+        return file;
+    }
+
+    /**
+     * Reads the file into the cache if it is small enough, evicting older files to stay under the byte budget
+     * @param path - the resolved path of a regular file
+     * @param attrs - the attributes of the file, read by the caller when it checked the file exists
+     * @return - the cached file, or null if the file is too large to be cached
+     * @throws IOException
+     */
+    public CachedFile load(Path path, BasicFileAttributes attrs) throws IOException {
+        if (attrs.size() > maxFileSize) {
+            return null;
+        }
+
+        ByteBuffer content = offHeap ? ByteBuffer.allocateDirect((int) attrs.size()) : ByteBuffer.allocate((int) attrs.size());
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (content.hasRemaining()) {
+                if (fc.read(content) == -1) {
+                    // The file shrank since its attributes were read, don't cache a partial copy
+                    return null;
+                }
+            }
+        }
+        content.flip();
+
+        CachedFile file = new CachedFile(path, content, attrs.lastModifiedTime().toMillis());
+        CachedFile previous = entries.put(path, file);
+        usedBytes.addAndGet(file.getSize() - (previous != null ? previous.getSize() : 0));
+
+        // If the file changed while it was being read the watcher may have fired before the entry was added, so the copy can't be trusted
+        if (Files.getLastModifiedTime(path).toMillis() != file.getLastModified()) {
+            if (entries.remove(path, file)) {
+                usedBytes.addAndGet(-file.getSize());
+            }
+            return null;
+        }
+
+        if (usedBytes.get() > maxBytes) {
+            evict();
+        }
+        return file;
+    }
+
+    /**
+     * @return - the number of bytes of file content currently cached
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * @return - the number of files currently cached
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes the file, or every file under the directory, from the cache
+     * @param path - a file or directory path
+     */
+    @Override
+    public void invalidate(Path path) {
+        remove(path);
+        for (Path key : entries.keySet()) {
+            if (key.startsWith(path)) {
+                remove(key);
+            }
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        for (Path key : entries.keySet()) {
+            remove(key);
+        }
+    }
+
+    private void remove(Path path) {
+        CachedFile removed = entries.remove(path);
+        if (removed != null) {
+            usedBytes.addAndGet(-removed.getSize());
+        }
+    }
+
+    /**
+     * Evicts the least recently used files until the cache is back under its byte budget.
+     * Only one thread evicts at a time, others carry on serving while it does.
+     */
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            List<CachedFile> files = new ArrayList<CachedFile>(entries.values());
+            files.sort(Comparator.comparingLong(CachedFile::getLastAccess));
+            for (CachedFile file : files) {
+                if (usedBytes.get() <= maxBytes) {
+                    break;
+                }
+                if (entries.remove(file.getPath(), file)) {
+                    usedBytes.addAndGet(-file.getSize());
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,433 @@
+package com.cptingle.WebServer.files;
+
+import com.cptingle.WebServer.messaging.Request;
+import com.cptingle.WebServer.messaging.Response;
+import com.cptingle.WebServer.response.Status;
+import com.cptingle.WebServer.server.ClientConnection;
+import com.cptingle.WebServer.server.HTTPServer;
+import com.cptingle.WebServer.util.MimeTypes;
+import com.cptingle.WebServer.util.compression.Compressor;
+import com.cptingle.WebServer.util.configuration.ServerSettings;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves files from the web root for requests that no servlet is registered for.
+ * Small files are kept in a {@link StaticFileCache}, everything else is streamed from disk. Every response carries an ETag and
+ * Last-Modified validator so clients can revalidate with a conditional request and receive a body-less 304 Not Modified.
+ * Text files are sent gzip or deflate encoded to clients that accept it, from a {@link CompressedVariantCache}.
+ */
+public class StaticFileHandler implements InvalidationListener {
+    private HTTPServer server;
+    private Path webRoot;
+    private WebRootWatcher watcher;
+    // Set when the web root should be watched but can't be, nothing is cached then
+    private boolean watchFailed = false;
+    private Compressor compressor;
+    // Replaced when reloaded settings change them
+    private volatile StaticFileCache cache;
+    private volatile CacheControlPolicy cacheControl;
+    private volatile MappedFileCache mappedFiles;
+    private volatile CompressedVariantCache variants;
+    private final String boundary = UUID.randomUUID().toString().replace("-", "");
+
+    // Validators per file version, only kept while the watcher is running to invalidate them
+    private final ConcurrentHashMap<Path, FileMetadata> metadata = new ConcurrentHashMap<Path, FileMetadata>();
+
+    public StaticFileHandler(HTTPServer server) {
+        this.server = server;
+        this.compressor = server.getCompressor();
+
+        ServerSettings settings = server.getSettings();
+        this.webRoot = settings.getWebRoot().toAbsolutePath().normalize();
+        this.cacheControl = settings.getCacheControl();
+        if (settings.isWatchingWebRoot()) {
+            startWatcher();
+            // Mappings are only safe while the watcher drops them when their file changes
+            if (watcher != null)
+                this.mappedFiles = new MappedFileCache(settings.getMaxMappedSize());
+        }
+        this.cache = createCache(settings);
+        if (compressor.isEnabled()) {
+            this.variants = new CompressedVariantCache(compressor, settings.getVariantCacheSize(), settings.getMaxCompressedFileSize());
+        }
+        if (cache != null && watcher == null) {
+            server.getLogger().warn("Static file cache is enabled without a watcher, changed files will not be reloaded", "");
+        }
+    }
+
+    /**
+     * Picks up reloaded settings. Caches whose limits changed are replaced by empty ones, the web root and whether it is
+     * watched only change on a restart.
+     * @param previous - the settings in effect until now
+     * @param next - the reloaded settings
+     */
+    public void applySettings(ServerSettings previous, ServerSettings next) {
+        if (next.isFileCacheEnabled() != previous.isFileCacheEnabled() || next.getFileCacheMaxSize() != previous.getFileCacheMaxSize()
+                || next.getFileCacheMaxFileSize() != previous.getFileCacheMaxFileSize() || next.isFileCacheOffHeap() != previous.isFileCacheOffHeap()) {
+            cache = createCache(next);
+        }
+        if (watcher != null && next.getMaxMappedSize() != previous.getMaxMappedSize()) {
+            mappedFiles = new MappedFileCache(next.getMaxMappedSize());
+        }
+        if (variants != null && (next.getVariantCacheSize() != previous.getVariantCacheSize() || next.getMaxCompressedFileSize() != previous.getMaxCompressedFileSize())) {
+            variants = new CompressedVariantCache(compressor, next.getVariantCacheSize(), next.getMaxCompressedFileSize());
+        }
+        // The metadata holds the Cache-Control value and whether the file is compressed, so it is computed again
+        cacheControl = next.getCacheControl();
+        metadata.clear();
+    }
+
+    private StaticFileCache createCache(ServerSettings settings) {
+        if (!settings.isFileCacheEnabled() || watchFailed) {
+            return null;
+        }
+        return new StaticFileCache(settings.getFileCacheMaxSize(), settings.getFileCacheMaxFileSize(), settings.isFileCacheOffHeap());
+    }
+
+    public Path getWebRoot() {
+        return webRoot;
+    }
+
+    /**
+     * @return - the static file cache, or null if caching is disabled
+     */
+    public StaticFileCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Stops the web root watcher
+     */
+    public void close() {
+        if (watcher != null)
+            watcher.close();
+    }
+
+    /**
+     * Sends the requested file to the client, a 304 Not Modified if the client's copy is current, or a 404 page if it does not exist
+     * @param conn - the connection to respond on
+     * @param req - the request
+     * @throws IOException
+     */
+    public void get(ClientConnection conn, Request req) throws IOException {
+        StaticFileCache cache = this.cache;
+        Path path = resolve(req.getPath());
+        FileMetadata meta = path != null ? getMetadata(path) : null;
+        if (meta == null) {
+            sendNotFound(conn);
+            return;
+        }
+
+        String encoding = selectEncoding(req, meta);
+        if (meta.isNotModified(req, encoding)) {
+            sendNotModified(conn, meta, encoding);
+            return;
+        }
+
+        CachedFile cached = null;
+        if (cache != null) {
+            cached = cache.get(path);
+            if (cached == null || cached.getLastModified() != meta.getLastModified()) {
+                cached = cache.load(path, Files.readAttributes(path, BasicFileAttributes.class));
+            }
+        }
+
+        String range = req.getHeaderValue("range");
+        if (range != null && ifRangeMatches(req, meta)) {
+            List<ByteRange> ranges = ByteRange.parse(range, meta.getSize());
+            if (ranges != null) {
+                sendRanges(conn, path, meta, cached, ranges);
+                return;
+            }
+        }
+
+        if (encoding != null) {
+            ByteBuffer variant = variants.get(path, meta, cached, encoding);
+            if (variant != null) {
+                Response resp = new Response(conn, Status.OK, new ByteBuffer[]{variant}, meta.getMimeType(), meta.getHeaders(encoding));
+                resp.setContentEncoding(encoding);
+                conn.sendResponse(resp);
+                return;
+            }
+        }
+
+        Response resp = cached != null ? new Response(conn, Status.OK, cached.getContent(), meta.getHeaders()) : new Response(conn, Status.OK, path.toFile(), meta.getHeaders());
+        resp.setContentType(meta.getMimeType());
+        conn.sendResponse(resp);
+    }
+
+    /**
+     * Sends the headers the matching GET request would receive, without the body
+     * @param conn - the connection to respond on
+     * @param req - the request
+     * @throws IOException
+     */
+    public void head(ClientConnection conn, Request req) throws IOException {
+        Path path = resolve(req.getPath());
+        FileMetadata meta = path != null ? getMetadata(path) : null;
+        if (meta == null) {
+            Response resp = new Response(conn, Status.NOT_FOUND);
+            resp.buildEmptyResponse(null, 0);
+            conn.sendResponse(resp);
+            return;
+        }
+
+        String encoding = selectEncoding(req, meta);
+        if (meta.isNotModified(req, encoding)) {
+            sendNotModified(conn, meta, encoding);
+            return;
+        }
+
+        Response resp = new Response(conn, Status.OK);
+        resp.setContentType(meta.getMimeType());
+        if (encoding != null) {
+            // The length of a compressed variant is only known once a GET has compressed it, HEAD alone does not compress the file
+            resp.buildEmptyResponse(meta.getHeaders(encoding), variants.getLength(path, meta, encoding));
+        } else {
+            resp.buildEmptyResponse(meta.getHeaders(), meta.getSize());
+        }
+        conn.sendResponse(resp);
+    }
+
+    /**
+     * Picks the content coding to send the file with. Range requests are always answered from the uncompressed file.
+     * @param req - the request
+     * @param meta - the metadata of the file
+     * @return - gzip, deflate, or null to send the file uncompressed
+     */
+    private String selectEncoding(Request req, FileMetadata meta) {
+        if (variants == null || !meta.isCompressible() || req.getHeaderValue("range") != null) {
+            return null;
+        }
+        return compressor.negotiate(req.getHeaderValue("accept-encoding"));
+    }
+
+    /**
+     * Sends the requested ranges of the file as a 206 Partial Content response. A single range is sent as it is, several
+     * ranges are sent as a multipart/byteranges body. The parts are views of the cached file contents, or of a memory mapping
+     * shared by all requests for the file, so no bytes are copied onto the heap. Without a watcher to drop stale mappings the
+     * ranges are read from the file instead.
+     * @param conn - the connection to respond on
+     * @param path - the resolved path of the file
+     * @param meta - the metadata of the file
+     * @param cached - the cached file contents, or null if the file is not cached
+     * @param ranges - the ranges to send, an empty list if none of them could be satisfied
+     * @throws IOException
+     */
+    private void sendRanges(ClientConnection conn, Path path, FileMetadata meta, CachedFile cached, List<ByteRange> ranges) throws IOException {
+        if (ranges.isEmpty()) {
+            Response resp = new Response(conn, Status.REQUESTED_RANGE_NOT_SATISFIABLE);
+            resp.buildErrorPage(Collections.singletonList("Content-Range: bytes */" + meta.getSize()));
+            conn.sendResponse(resp);
+            return;
+        }
+
+        MappedFileCache mappedFiles = this.mappedFiles;
+        MappedFile mapped = cached == null && mappedFiles != null ? mappedFiles.get(path, meta) : null;
+        FileChannel fc = cached == null && mapped == null ? FileChannel.open(path, StandardOpenOption.READ) : null;
+        try {
+            sendRanges(conn, meta, cached, mapped, fc, ranges);
+        } finally {
+            if (fc != null)
+                fc.close();
+        }
+    }
+
+    private void sendRanges(ClientConnection conn, FileMetadata meta, CachedFile cached, MappedFile mapped, FileChannel fc, List<ByteRange> ranges) throws IOException {
+        List<ByteBuffer> parts = new ArrayList<ByteBuffer>();
+        List<String> headers = new ArrayList<String>(meta.getHeaders());
+        String mimeType = meta.getMimeType();
+
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            slice(cached, mapped, fc, range, parts);
+            headers.add("Content-Range: " + range.toContentRange(meta.getSize()));
+        } else {
+            for (ByteRange range : ranges) {
+                String partHeader = "\r\n--" + boundary + "\r\n" +
+                        "Content-Type: " + mimeType + "\r\n" +
+                        "Content-Range: " + range.toContentRange(meta.getSize()) + "\r\n\r\n";
+                parts.add(ByteBuffer.wrap(partHeader.getBytes(StandardCharsets.ISO_8859_1)));
+                slice(cached, mapped, fc, range, parts);
+            }
+            parts.add(ByteBuffer.wrap(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1)));
+            mimeType = "multipart/byteranges; boundary=" + boundary;
+        }
+
+        conn.sendResponse(new Response(conn, Status.PARTIAL_CONTENT, parts.toArray(new ByteBuffer[0]), mimeType, headers));
+    }
+
+    private void slice(CachedFile cached, MappedFile mapped, FileChannel fc, ByteRange range, List<ByteBuffer> out) throws IOException {
+        if (cached != null) {
+            ByteBuffer view = cached.getContent();
+            view.position((int) range.getStart());
+            view.limit((int) (range.getStart() + range.getLength()));
+            out.add(view.slice());
+        } else if (mapped != null) {
+            mapped.slice(range.getStart(), range.getLength(), out);
+        } else {
+            ByteBuffer part = ByteBuffer.allocate((int) range.getLength());
+            long position = range.getStart();
+            while (part.hasRemaining()) {
+                int read = fc.read(part, position);
+                if (read == -1) {
+                    throw new EOFException("The file was truncated while it was being sent");
+                }
+                position += read;
+            }
+            part.flip();
+            out.add(part);
+        }
+    }
+
+    /**
+     * Evaluates the If-Range request header. A range request is only honoured if the validator still matches the file,
+     * otherwise the whole file is sent. Entity tags must match exactly, weak tags never match.
+     * @param req - the request
+     * @param meta - the metadata of the file
+     * @return - true if the Range header should be honoured
+     */
+    private boolean ifRangeMatches(Request req, FileMetadata meta) {
+        String ifRange = req.getHeaderValue("if-range");
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(meta.getEtag());
+        }
+        long date = FileMetadata.parseHttpDate(ifRange);
+        return date != -1 && date / 1000 == meta.getLastModified() / 1000;
+    }
+
+    /**
+     * Fetches the validators for the file, computing them the first time the file version is requested
+     * @param path - the resolved path of the file
+     * @return - the file metadata, or null if the path is not a regular file
+     * @throws IOException
+     */
+    private FileMetadata getMetadata(Path path) throws IOException {
+        FileMetadata meta = metadata.get(path);
+        if (meta != null) {
+            return meta;
+        }
+
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (!attrs.isRegularFile()) {
+            return null;
+        }
+
+        String relative = "/" + webRoot.relativize(path).toString();
+        String mimeType = MimeTypes.forFileName(relative);
+        boolean compressible = variants != null && compressor.isEligible(mimeType, attrs.size()) && variants.accepts(attrs.size());
+        meta = new FileMetadata(attrs, cacheControl.lookup(relative), mimeType, compressible);
+        if (watcher != null) {
+            metadata.put(path, meta);
+        }
+        return meta;
+    }
+
+    @Override
+    public void invalidate(Path path) {
+        StaticFileCache cache = this.cache;
+        MappedFileCache mappedFiles = this.mappedFiles;
+        CompressedVariantCache variants = this.variants;
+        if (cache != null)
+            cache.invalidate(path);
+        if (mappedFiles != null)
+            mappedFiles.invalidate(path);
+        if (variants != null)
+            variants.invalidate(path);
+
+        metadata.remove(path);
+        for (Path key : metadata.keySet()) {
+            if (key.startsWith(path)) {
+                metadata.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        StaticFileCache cache = this.cache;
+        MappedFileCache mappedFiles = this.mappedFiles;
+        CompressedVariantCache variants = this.variants;
+        if (cache != null)
+            cache.invalidateAll();
+        if (mappedFiles != null)
+            mappedFiles.invalidateAll();
+        if (variants != null)
+            variants.invalidateAll();
+
+        metadata.clear();
+    }
+
+    /**
+     * Resolves the request path against the web root. The query string is ignored and paths that would escape the web root are rejected.
+     * @param requestPath - the path from the request line
+     * @return - the absolute path of the file, or null if the path is not valid
+     */
+    public Path resolve(String requestPath) {
+        int query = requestPath.indexOf('?');
+        if (query != -1) {
+            requestPath = requestPath.substring(0, query);
+        }
+
+        try {
+            Path path = webRoot.resolve(requestPath.startsWith("/") ? requestPath.substring(1) : requestPath).normalize();
+            return path.startsWith(webRoot) ? path : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    private void sendNotModified(ClientConnection conn, FileMetadata meta, String encoding) throws IOException {
+        Response resp = new Response(conn, Status.NOT_MODIFIED);
+        resp.setContentType(meta.getMimeType());
+        // The length of the selected representation may not be known without compressing it, so leave Content-length out
+        resp.buildEmptyResponse(meta.getHeaders(encoding), -1);
+        conn.sendResponse(resp);
+    }
+
+    private void sendNotFound(ClientConnection conn) throws IOException {
+        Response resp = new Response(conn, Status.NOT_FOUND);
+        resp.buildErrorPage();
+        conn.sendResponse(resp);
+    }
+
+    private void startWatcher() {
+        try {
+            // The handler passes the changes on to whichever caches are current
+            watcher = new WebRootWatcher(webRoot);
+            watcher.addListener(this);
+            watcher.start();
+        } catch (IOException e) {
+            // Without invalidation the cache could serve stale files forever, so don't cache at all
+            server.getLogger().warn("Unable to watch the web root, static file caching disabled: " + e.getMessage(), "");
+            watcher = null;
+            watchFailed = true;
+        }
+    }
+}
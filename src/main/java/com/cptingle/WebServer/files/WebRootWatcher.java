@@ -0,0 +1,122 @@
+package com.cptingle.WebServer.files;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Watches the web root, or any other directory, and every directory below it for changes and notifies the registered
+ * listeners so data derived from changed files is dropped. Runs on its own daemon thread.
+ */
+public class WebRootWatcher implements Runnable {
+    private final Path root;
+    private final WatchService watchService;
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<InvalidationListener>();
+
+    public WebRootWatcher(Path root) throws IOException {
+        this.root = root;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        registerAll(root);
+    }
+
+    public void addListener(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Starts watching on a new daemon thread
+     */
+    public void start() {
+        start("web-root-watcher");
+    }
+
+    /**
+     * Starts watching on a new daemon thread
+     * @param threadName - the name of the thread
+     */
+    public void start(String threadName) {
+        Thread thread = new Thread(this, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching and releases the watch service
+     */
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    for (InvalidationListener listener : listeners) {
+                        listener.invalidateAll();
+                    }
+                    continue;
+                }
+
+                Path changed = dir.resolve((Path) event.context());
+                // Directories created after startup have to be registered for their contents to be watched
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                    try {
+                        registerAll(changed);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                for (InvalidationListener listener : listeners) {
+                    listener.invalidate(changed);
+                }
+            }
+
+            if (!key.reset() && dir.equals(root)) {
+                // The web root itself is gone, nothing left to watch
+                for (InvalidationListener listener : listeners) {
+                    listener.invalidateAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Registers the directory and all of its subdirectories with the watch service
+     * @param start - the directory to register
+     * @throws IOException
+     */
+    private void registerAll(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
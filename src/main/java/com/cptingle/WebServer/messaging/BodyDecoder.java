@@ -0,0 +1,196 @@
+package com.cptingle.WebServer.messaging;
+
+import com.cptingle.WebServer.exceptions.RequestBodyException;
+import com.cptingle.WebServer.response.Status;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Extracts the data of a request body from the bytes received after the request head. Bodies with a Content-Length are
+ * counted off, chunked bodies are decoded by a state machine that can stop and resume at any byte, so the raw bytes can
+ * arrive in reads of any size. The decoder never reads past the end of the body, whatever follows it is the next request.
+ * Not thread safe.
+ */
+public class BodyDecoder {
+    private static final int LENGTH = 0;
+    private static final int SIZE = 1;
+    private static final int EXTENSION = 2;
+    private static final int SIZE_LF = 3;
+    private static final int DATA = 4;
+    private static final int DATA_CR = 5;
+    private static final int DATA_LF = 6;
+    private static final int TRAILER = 7;
+    private static final int DONE = 8;
+
+    // Longest chunk size line extension and trailer section accepted
+    private static final int MAX_EXTENSION = 4096;
+    private static final int MAX_TRAILER = 8192;
+
+    private final long maxSize;
+    private int state;
+    // Data bytes left in the body (Content-Length) or the current chunk
+    private long remaining;
+    // Data bytes announced by the chunk sizes so far, checked against the limit before they are read
+    private long total;
+    private long decoded;
+    private int sizeDigits;
+    private int skipped;
+    private int lineLength;
+
+    private BodyDecoder(int state, long remaining, long maxSize) {
+        this.state = state;
+        this.remaining = remaining;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param length - the Content-Length of the body
+     * @return - a decoder for a body of a known length
+     */
+    public static BodyDecoder fixed(long length) {
+        return new BodyDecoder(length > 0 ? LENGTH : DONE, length, length);
+    }
+
+    /**
+     * @param maxSize - the most data bytes the body may contain
+     * @return - a decoder for a body sent with Transfer-Encoding: chunked
+     */
+    public static BodyDecoder chunked(long maxSize) {
+        return new BodyDecoder(SIZE, 0, maxSize);
+    }
+
+    /**
+     * @return - true once the whole body has been decoded
+     */
+    public boolean isComplete() {
+        return state == DONE;
+    }
+
+    /**
+     * @return - the number of data bytes decoded so far
+     */
+    public long getDecodedLength() {
+        return decoded;
+    }
+
+    /**
+     * @return - the number of data bytes still expected, or -1 if the length is not known in advance
+     */
+    public long getRemaining() {
+        if (state == DONE)
+            return 0;
+        return state == LENGTH ? remaining : -1;
+    }
+
+    /**
+     * Decodes raw bytes into body data. Consumes input until the output is full, the input runs out or the body ends.
+     * @param in - the raw bytes received, in read mode
+     * @param out - the array to decode data into
+     * @param off - the offset to start at
+     * @param len - the most data bytes to produce
+     * @return - the number of data bytes produced, 0 if more input is needed or the body is complete
+     * @throws RequestBodyException if the chunk framing is malformed or the body is too large
+     */
+    public int decode(ByteBuffer in, byte[] out, int off, int len) throws RequestBodyException {
+        int produced = 0;
+        while (state != DONE && in.hasRemaining()) {
+            if (state == LENGTH || state == DATA) {
+                if (produced == len) {
+                    break;
+                }
+                int n = (int) Math.min(Math.min(remaining, len - produced), in.remaining());
+                in.get(out, off + produced, n);
+                produced += n;
+                decoded += n;
+                remaining -= n;
+                if (remaining == 0) {
+                    state = state == LENGTH ? DONE : DATA_CR;
+                }
+                continue;
+            }
+
+            byte b = in.get();
+            switch (state) {
+                case SIZE:
+                    int digit = Character.digit(b, 16);
+                    if (digit != -1) {
+                        if (++sizeDigits > 15) {
+                            throw new RequestBodyException(Status.REQUEST_ENTITY_TOO_LARGE, "Chunk size too large");
+                        }
+                        remaining = remaining * 16 + digit;
+                    } else if (sizeDigits == 0) {
+                        throw new RequestBodyException(Status.BAD_REQUEST, "Malformed chunk size");
+                    } else if (b == ';' || b == ' ' || b == '\t') {
+                        state = EXTENSION;
+                    } else if (b == '\r') {
+                        state = SIZE_LF;
+                    } else if (b == '\n') {
+                        endSizeLine();
+                    } else {
+                        throw new RequestBodyException(Status.BAD_REQUEST, "Malformed chunk size");
+                    }
+                    break;
+                case EXTENSION:
+                    // Chunk extensions are not used, they are skipped
+                    if (b == '\n') {
+                        endSizeLine();
+                    } else if (++skipped > MAX_EXTENSION) {
+                        throw new RequestBodyException(Status.BAD_REQUEST, "Chunk extension too long");
+                    }
+                    break;
+                case SIZE_LF:
+                    if (b != '\n') {
+                        throw new RequestBodyException(Status.BAD_REQUEST, "Malformed chunk size line");
+                    }
+                    endSizeLine();
+                    break;
+                case DATA_CR:
+                    if (b == '\r') {
+                        state = DATA_LF;
+                    } else if (b == '\n') {
+                        state = SIZE;
+                    } else {
+                        throw new RequestBodyException(Status.BAD_REQUEST, "Missing line break after chunk data");
+                    }
+                    break;
+                case DATA_LF:
+                    if (b != '\n') {
+                        throw new RequestBodyException(Status.BAD_REQUEST, "Missing line break after chunk data");
+                    }
+                    state = SIZE;
+                    break;
+                case TRAILER:
+                    // Trailer fields are skipped, the body ends at the first empty line
+                    if (++skipped > MAX_TRAILER) {
+                        throw new RequestBodyException(Status.REQUEST_HEADER_FIELDS_TOO_LARGE, "Trailer section too large");
+                    }
+                    if (b == '\n') {
+                        if (lineLength == 0) {
+                            state = DONE;
+                        }
+                        lineLength = 0;
+                    } else if (b != '\r') {
+                        lineLength++;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+        return produced;
+    }
+
+    private void endSizeLine() throws RequestBodyException {
+        sizeDigits = 0;
+        skipped = 0;
+        if (remaining == 0) {
+            state = TRAILER;
+            return;
+        }
+        total += remaining;
+        if (total > maxSize) {
+            throw new RequestBodyException(Status.REQUEST_ENTITY_TOO_LARGE, "Request body too large");
+        }
+        state = DATA;
+    }
+}
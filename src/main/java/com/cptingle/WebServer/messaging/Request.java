@@ -1,5 +1,6 @@
 package com.cptingle.WebServer.messaging;
 
+import com.cptingle.WebServer.routing.Route;
 import com.cptingle.WebServer.server.HTTPServer;
 
 import java.util.HashMap;
@@ -11,8 +12,16 @@ public class Request {
 
     private Method method;
     private String path;
+    private String queryString;
     private Map<String, String> headers;
     private Map<String, String> cookies;
+    // Framing of the body as given by the Content-Length and Transfer-Encoding headers
+    private long contentLength;
+    private boolean chunked;
+    private RequestBody body = RequestBody.empty();
+    // The route the request was matched to and the start and end offsets of its path parameters in the path
+    private Route route;
+    private int[] paramBounds;
 
     public Request(HTTPServer server, Method method, String path, List<String> headerLines) {
         this.server = server;
@@ -22,6 +31,21 @@ public class Request {
         this.cookies = parseCookies(headers.get("cookie"));
     }
 
+    /**
+     * Creates a request from headers that have already been parsed, such as by the {@link RequestParser}
+     * @param server - the server the request was made to
+     * @param method - the request method
+     * @param path - the request target
+     * @param headers - the headers keyed by their lower case names
+     */
+    public Request(HTTPServer server, Method method, String path, Map<String, String> headers) {
+        this.server = server;
+        this.method = method;
+        this.path = path;
+        this.headers = headers;
+        this.cookies = parseCookies(headers.get("cookie"));
+    }
+
     public Map<String, String> getHeaders() {
         return headers;
     }
@@ -34,11 +58,126 @@ public class Request {
         return path;
     }
 
+    /**
+     * @return - the part of the request target after the ?, or null if there is none
+     */
+    public String getQueryString() {
+        return queryString;
+    }
+
+    /**
+     * @return - the route the request was dispatched by, or null if it was not routed to a servlet
+     */
+    public Route getRoute() {
+        return route;
+    }
+
+    /**
+     * Returns a parameter captured from the path by the route, such as id for the route "/users/{id}". The rest of the path
+     * matched by a trailing * is available as the parameter *.
+     * @param name - the parameter name
+     * @return - the parameter value, or null if the route has no such parameter
+     */
+    public String getPathParam(String name) {
+        int index = route != null ? route.indexOf(name) : -1;
+        if (index == -1) {
+            return null;
+        }
+        return path.substring(paramBounds[index * 2], paramBounds[index * 2 + 1]);
+    }
+
+    /**
+     * Records the route the request matched, done by the connection before the request is dispatched. The offsets are not
+     * copied, the connection reuses the array for its next request, so {@link #retainRoute()} must be called before the
+     * request is handed to another thread.
+     * @param route - the route
+     * @param bounds - the parameter offsets found by the router
+     */
+    public void setRoute(Route route, int[] bounds) {
+        this.route = route;
+        this.paramBounds = bounds;
+    }
+
+    /**
+     * Copies the parameter offsets out of the connection's array, so the path parameters stay readable after the connection
+     * has moved on to its next request
+     */
+    public void retainRoute() {
+        if (route != null && route.getParamCount() > 0) {
+            int[] bounds = new int[route.getParamCount() * 2];
+            System.arraycopy(paramBounds, 0, bounds, 0, bounds.length);
+            paramBounds = bounds;
+        }
+    }
+
     public String getHeaderValue(String key) {
         return headers.get(key.toLowerCase());
 
     }
 
+    /**
+     * @return - true if a body follows the request head
+     */
+    public boolean hasBody() {
+        return chunked || contentLength > 0;
+    }
+
+    /**
+     * @return - the length of the body from the Content-Length header, 0 if there is no body, or -1 if the body is chunked
+     */
+    public long getContentLength() {
+        return chunked ? -1 : contentLength;
+    }
+
+    /**
+     * @return - true if the body is sent with Transfer-Encoding: chunked
+     */
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * @return - true if the client waits for a 100 Continue response before sending the body
+     */
+    public boolean expectsContinue() {
+        String expect = headers.get("expect");
+        return hasBody() && expect != null && expect.equalsIgnoreCase("100-continue");
+    }
+
+    /**
+     * Returns the body of the request. The body is read from the connection as it is consumed, it can only be read once.
+     * @return - the body, empty if the request has none
+     */
+    public RequestBody getBody() {
+        return body;
+    }
+
+    /**
+     * Attaches the body stream, done by the connection the request was received on
+     * @param body - the body
+     */
+    public void setBody(RequestBody body) {
+        this.body = body;
+    }
+
+    /**
+     * Sets the part of the request target after the ?, done by the {@link RequestParser}
+     * @param queryString - the query string without the ?
+     */
+    void setQueryString(String queryString) {
+        this.queryString = queryString;
+    }
+
+    /**
+     * Sets how the length of the body is determined, done by the {@link RequestParser}
+     * @param contentLength - the Content-Length, 0 if there is none
+     * @param chunked - whether the body is chunked
+     */
+    void setFraming(long contentLength, boolean chunked) {
+        this.contentLength = contentLength;
+        this.chunked = chunked;
+    }
+
     /**
      * Converts a list of header strings read in by the socket into a key value map of headers
      * @param headerLines - list to be converted
@@ -0,0 +1,204 @@
+package com.cptingle.WebServer.messaging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The body of a request, read from the connection as the servlet consumes it rather than buffered up front, so bodies of
+ * any size can be processed with constant memory. Bodies sent with Content-Length and with Transfer-Encoding: chunked read
+ * the same way, the stream ends where the body ends. When the client sent "Expect: 100-continue" the interim response is
+ * sent the first time the body is read, so a servlet that rejects a request without reading it never receives the body.
+ * Whatever the servlet leaves unread is drained by the connection after the response.
+ * Not thread safe.
+ */
+public class RequestBody extends InputStream implements ReadableByteChannel {
+    private static final RequestBody EMPTY = new RequestBody(BodyDecoder.fixed(0), null, false);
+
+    /**
+     * Supplies the raw bytes of the body from the connection
+     */
+    public interface Source {
+        /**
+         * Decodes body data from the bytes received on the connection, waiting for more to arrive if none are buffered
+         * @param decoder - the decoder of the body
+         * @param b - the array to read into
+         * @param off - the offset to start at
+         * @param len - the most bytes to read, at least 1
+         * @return - the number of bytes read, or -1 once the body is complete
+         * @throws IOException if the connection fails or the body is malformed
+         */
+        int read(BodyDecoder decoder, byte[] b, int off, int len) throws IOException;
+
+        /**
+         * Sends the 100 Continue interim response
+         * @throws IOException
+         */
+        void sendContinue() throws IOException;
+    }
+
+    private final BodyDecoder decoder;
+    private final Source source;
+    private boolean expectContinue;
+    private boolean closed;
+    private IOException failure;
+    private byte[] single;
+
+    /**
+     * @param decoder - the decoder matching the framing of the body
+     * @param source - where the raw bytes come from
+     * @param expectContinue - whether the client waits for 100 Continue before sending the body
+     */
+    public RequestBody(BodyDecoder decoder, Source source, boolean expectContinue) {
+        this.decoder = decoder;
+        this.source = source;
+        this.expectContinue = expectContinue;
+    }
+
+    /**
+     * @return - a body without any content, for requests that have none
+     */
+    public static RequestBody empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @return - true once every byte of the body has been read
+     */
+    public boolean isComplete() {
+        return decoder.isComplete();
+    }
+
+    /**
+     * @return - the number of body bytes read so far
+     */
+    public long getBytesRead() {
+        return decoder.getDecodedLength();
+    }
+
+    /**
+     * @return - true if reading the body failed, the connection can't be used for another request afterwards
+     */
+    public boolean hasFailed() {
+        return failure != null;
+    }
+
+    /**
+     * @return - the exception reading the body failed with, or null
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (single == null)
+            single = new byte[1];
+        int n = read(single, 0, 1);
+        return n == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ((off | len | (b.length - (len + off))) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (decoder.isComplete()) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        try {
+            if (expectContinue) {
+                expectContinue = false;
+                source.sendContinue();
+            }
+            return source.read(decoder, b, off, len);
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (dst.hasArray()) {
+            int n = read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (n > 0)
+                dst.position(dst.position() + n);
+            return n;
+        }
+        byte[] tmp = new byte[Math.min(dst.remaining(), 8192)];
+        int n = read(tmp, 0, tmp.length);
+        if (n > 0)
+            dst.put(tmp, 0, n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Closing the body only stops the servlet from reading further, the unread part is still drained by the connection
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Reads and discards the rest of the body so the next request on the connection can be read. Called by the connection
+     * once the response has been sent.
+     * @param limit - the most bytes to discard, a larger body is not worth reading and the connection is closed instead
+     * @return - true if the whole body has been consumed, false if the connection has to be closed
+     */
+    public boolean drain(long limit) {
+        if (decoder.isComplete()) {
+            return true;
+        }
+        // The client is still waiting for permission to send the body, it won't arrive
+        if (failure != null || expectContinue) {
+            return false;
+        }
+        long known = decoder.getRemaining();
+        if (known > limit) {
+            return false;
+        }
+
+        byte[] discard = new byte[(int) Math.min(8192, Math.max(1, known == -1 ? limit : known))];
+        long drained = 0;
+        try {
+            while (!decoder.isComplete()) {
+                if (drained >= limit) {
+                    return false;
+                }
+                int n = source.read(decoder, discard, 0, (int) Math.min(discard.length, limit - drained));
+                if (n == -1) {
+                    break;
+                }
+                drained += n;
+            }
+        } catch (IOException e) {
+            failure = e;
+            return false;
+        }
+        return true;
+    }
+}
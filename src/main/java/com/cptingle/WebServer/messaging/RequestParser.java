@@ -0,0 +1,365 @@
+package com.cptingle.WebServer.messaging;
+
+import com.cptingle.WebServer.exceptions.HTTPParseException;
+import com.cptingle.WebServer.response.Status;
+import com.cptingle.WebServer.server.HTTPServer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Incrementally parses HTTP/1.1 request heads straight out of the byte buffer data is read into, without decoding it into lines first.
+ * The parser remembers how far it has already scanned so partial requests are not rescanned on every read, records the line
+ * boundaries as it goes and then builds the {@link Request} from them in a single pass. Common header names are matched against
+ * a table of constants so the only strings allocated for them are the values.
+ * One parser is used per connection and is not thread safe.
+ */
+public class RequestParser {
+    public static final int DEFAULT_MAX_REQUEST_LINE = 8 * 1024;
+    public static final int DEFAULT_MAX_HEADER_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_BODY_SIZE = 10 * 1024 * 1024;
+    private static final int MAX_HEADERS = 100;
+
+    private static final Method[] METHODS = Method.values();
+    private static final byte[][] METHOD_NAMES = new byte[METHODS.length][];
+
+    private static final String[] COMMON_HEADERS = {
+            "host", "connection", "keep-alive", "user-agent", "accept", "accept-encoding", "accept-language", "accept-charset",
+            "cookie", "content-length", "content-type", "transfer-encoding", "expect", "te", "upgrade", "range", "if-range",
+            "if-none-match", "if-modified-since", "if-match", "if-unmodified-since", "cache-control", "pragma", "referer",
+            "origin", "authorization", "x-forwarded-for", "x-forwarded-proto", "x-requested-with", "dnt",
+            "upgrade-insecure-requests", "sec-fetch-site", "sec-fetch-mode", "sec-fetch-dest", "sec-fetch-user"
+    };
+    // The common header names grouped by length, so a lookup only compares names that can match
+    private static final String[][] HEADERS_BY_LENGTH = new String[33][];
+
+    static {
+        for (int i = 0; i < METHODS.length; i++) {
+            METHOD_NAMES[i] = METHODS[i].name().getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        int[] counts = new int[HEADERS_BY_LENGTH.length];
+        for (String name : COMMON_HEADERS) {
+            counts[name.length()]++;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            HEADERS_BY_LENGTH[i] = new String[counts[i]];
+            counts[i] = 0;
+        }
+        for (String name : COMMON_HEADERS) {
+            HEADERS_BY_LENGTH[name.length()][counts[name.length()]++] = name;
+        }
+    }
+
+    private final HTTPServer server;
+    private final String indexPage;
+    private final int maxRequestLine;
+    private final int maxHeaderSize;
+    private final long maxBodySize;
+
+    // Progress through the current request head, as offsets from the buffer position
+    private int scanned = 0;
+    private int lineStart = 0;
+    private int lineCount = 0;
+    // Start and end offsets of each line of the current request head relative to its first byte, reused for every request
+    private final int[] lines = new int[(MAX_HEADERS + 1) * 2];
+
+    /**
+     * @param server - the server the requests are made to
+     * @param indexPage - the file name appended to request paths that end with a slash
+     * @param maxRequestLine - the longest request line accepted, longer lines are answered with 414
+     * @param maxHeaderSize - the largest request head accepted, larger heads are answered with 431
+     * @param maxBodySize - the largest request body accepted, larger bodies are answered with 413
+     */
+    public RequestParser(HTTPServer server, String indexPage, int maxRequestLine, int maxHeaderSize, long maxBodySize) {
+        this.server = server;
+        this.indexPage = indexPage;
+        this.maxRequestLine = maxRequestLine;
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Attempts to parse one complete request head (request line and headers) out of the buffer.
+     * The buffer must be backed by an array and in read mode (flipped). On success the consumed bytes are skipped over,
+     * otherwise the buffer position is left at the start of the partial request so more data can be appended.
+     * @param buf - buffer containing the bytes received so far
+     * @return - the request, or null if the request head is not complete yet
+     * @throws HTTPParseException if the request is malformed or exceeds a limit
+     */
+    public Request parse(ByteBuffer buf) throws HTTPParseException {
+        byte[] a = buf.array();
+        int off = buf.arrayOffset();
+        int start = buf.position();
+        int limit = buf.limit();
+        int ls = start + lineStart;
+
+        for (int i = start + scanned; i < limit; i++) {
+            if (a[off + i] != '\n') {
+                continue;
+            }
+
+            int lineEnd = i > ls && a[off + i - 1] == '\r' ? i - 1 : i;
+            if (lineEnd == ls) {
+                if (lineCount == 0) {
+                    // Blank lines before the request line, such as a stray CRLF after a request body, are ignored
+                    start = i + 1;
+                    buf.position(start);
+                    ls = start;
+                    continue;
+                }
+
+                Request request = build(a, off + start);
+                buf.position(i + 1);
+                reset();
+                return request;
+            }
+
+            if (lineCount == 0 && lineEnd - ls > maxRequestLine) {
+                throw new HTTPParseException(Status.REQUESTED_URI_TOO_LONG, "Request line too long");
+            }
+            if (i + 1 - start > maxHeaderSize || lineCount > MAX_HEADERS) {
+                throw new HTTPParseException(Status.REQUEST_HEADER_FIELDS_TOO_LARGE, "Request head too large");
+            }
+            lines[lineCount * 2] = ls - start;
+            lines[lineCount * 2 + 1] = lineEnd - start;
+            lineCount++;
+            ls = i + 1;
+        }
+
+        if (lineCount == 0 && limit - ls > maxRequestLine) {
+            throw new HTTPParseException(Status.REQUESTED_URI_TOO_LONG, "Request line too long");
+        }
+        if (limit - start > maxHeaderSize) {
+            throw new HTTPParseException(Status.REQUEST_HEADER_FIELDS_TOO_LARGE, "Request head too large");
+        }
+
+        scanned = limit - start;
+        lineStart = ls - start;
+        return null;
+    }
+
+    /**
+     * @return - the number of bytes of the current request head scanned without finding its end
+     */
+    public int getPendingLength() {
+        return scanned;
+    }
+
+    private void reset() {
+        scanned = 0;
+        lineStart = 0;
+        lineCount = 0;
+    }
+
+    /**
+     * Builds the request from the recorded lines
+     * @param a - the buffer array
+     * @param base - the index of the first byte of the request head in the array
+     * @return - the request
+     * @throws HTTPParseException
+     */
+    private Request build(byte[] a, int base) throws HTTPParseException {
+        int s = base + lines[0];
+        int e = base + lines[1];
+        int sp1 = indexOf(a, s, e, (byte) ' ');
+        int sp2 = lastIndexOf(a, s, e, (byte) ' ');
+        if (sp1 == -1 || sp2 == sp1 || sp2 == sp1 + 1) {
+            throw new HTTPParseException(Status.BAD_REQUEST, "Malformed request line");
+        }
+        Method method = matchMethod(a, s, sp1);
+        if (indexOf(a, sp1 + 1, sp2, (byte) ' ') != -1) {
+            throw new HTTPParseException(Status.BAD_REQUEST, "Malformed request target");
+        }
+        int query = indexOf(a, sp1 + 1, sp2, (byte) '?');
+        String path = parseTarget(a, sp1 + 1, query != -1 ? query : sp2);
+        checkVersion(a, sp2 + 1, e);
+
+        Map<String, String> headers = new HashMap<String, String>(Math.max(16, lineCount * 2));
+        for (int l = 1; l < lineCount; l++) {
+            parseHeader(a, base + lines[l * 2], base + lines[l * 2 + 1], headers);
+        }
+        Request request = new Request(server, method, path, headers);
+        if (query != -1) {
+            request.setQueryString(new String(a, query + 1, sp2 - query - 1, StandardCharsets.ISO_8859_1));
+        }
+        checkFraming(request, headers);
+        return request;
+    }
+
+    /**
+     * Works out where the body of the request ends. Requests whose length is ambiguous are rejected, as proxies in front
+     * of the server could otherwise disagree about where the next request starts.
+     * @throws HTTPParseException
+     */
+    private void checkFraming(Request request, Map<String, String> headers) throws HTTPParseException {
+        String transferEncoding = headers.get("transfer-encoding");
+        String contentLength = headers.get("content-length");
+
+        if (transferEncoding != null) {
+            if (contentLength != null) {
+                throw new HTTPParseException(Status.BAD_REQUEST, "Both Content-Length and Transfer-Encoding were sent");
+            }
+            if (!transferEncoding.trim().equalsIgnoreCase("chunked")) {
+                throw new HTTPParseException(Status.NOT_IMPLEMENTED, "Unsupported transfer coding");
+            }
+            request.setFraming(0, true);
+        } else if (contentLength != null) {
+            // Repeated Content-Length headers were combined, they are only acceptable if they all agree
+            long length = -1;
+            for (String value : contentLength.split(",")) {
+                long parsed = parseLength(value.trim());
+                if (length != -1 && parsed != length) {
+                    throw new HTTPParseException(Status.BAD_REQUEST, "Conflicting Content-Length headers");
+                }
+                length = parsed;
+            }
+            if (length > maxBodySize) {
+                throw new HTTPParseException(Status.REQUEST_ENTITY_TOO_LARGE, "Request body too large");
+            }
+            request.setFraming(length, false);
+        }
+
+        String expect = headers.get("expect");
+        if (expect != null && !expect.equalsIgnoreCase("100-continue")) {
+            throw new HTTPParseException(Status.EXPECTATION_FAILED, "Unsupported expectation");
+        }
+    }
+
+    private static long parseLength(String value) throws HTTPParseException {
+        if (value.isEmpty() || value.length() > 18) {
+            throw new HTTPParseException(value.isEmpty() ? Status.BAD_REQUEST : Status.REQUEST_ENTITY_TOO_LARGE, "Invalid Content-Length");
+        }
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new HTTPParseException(Status.BAD_REQUEST, "Invalid Content-Length");
+            }
+            length = length * 10 + (c - '0');
+        }
+        return length;
+    }
+
+    /**
+     * @return - the largest request head accepted
+     */
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    /**
+     * @return - the largest request body accepted
+     */
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    private String parseTarget(byte[] a, int s, int e) {
+        String path = new String(a, s, e - s, StandardCharsets.ISO_8859_1);
+        if (path.endsWith("/")) {
+            path += indexPage;
+        }
+        return path;
+    }
+
+    private static void checkVersion(byte[] a, int v, int e) throws HTTPParseException {
+        if (e - v != 8 || a[v] != 'H' || a[v + 1] != 'T' || a[v + 2] != 'T' || a[v + 3] != 'P' || a[v + 4] != '/' || a[v + 6] != '.') {
+            throw new HTTPParseException(Status.BAD_REQUEST, "Malformed HTTP version");
+        }
+        if (a[v + 5] != '1' || (a[v + 7] != '1' && a[v + 7] != '0')) {
+            throw new HTTPParseException(Status.HTTP_VERSION_NOT_SUPPORTED, "Unsupported HTTP version");
+        }
+    }
+
+    private void parseHeader(byte[] a, int s, int e, Map<String, String> headers) throws HTTPParseException {
+        if (a[s] == ' ' || a[s] == '\t') {
+            throw new HTTPParseException(Status.BAD_REQUEST, "Folded header lines are not supported");
+        }
+        int colon = indexOf(a, s, e, (byte) ':');
+        if (colon <= s || a[colon - 1] == ' ' || a[colon - 1] == '\t') {
+            throw new HTTPParseException(Status.BAD_REQUEST, "Malformed header line");
+        }
+
+        String name = headerName(a, s, colon);
+
+        int vs = colon + 1;
+        int ve = e;
+        while (vs < ve && (a[vs] == ' ' || a[vs] == '\t'))
+            vs++;
+        while (ve > vs && (a[ve - 1] == ' ' || a[ve - 1] == '\t'))
+            ve--;
+        String value = new String(a, vs, ve - vs, StandardCharsets.ISO_8859_1);
+
+        // Repeated headers are combined into one comma separated value, cookies use their own separator
+        String previous = headers.put(name, value);
+        if (previous != null) {
+            headers.put(name, previous + (name.equals("cookie") ? "; " : ", ") + value);
+        }
+    }
+
+    /**
+     * Looks the header name up in the table of common names, only names that are not in the table are allocated
+     * @return - the lower case header name
+     */
+    private static String headerName(byte[] a, int s, int e) {
+        int length = e - s;
+        if (length < HEADERS_BY_LENGTH.length) {
+            for (String candidate : HEADERS_BY_LENGTH[length]) {
+                if (equalsIgnoreCase(a, s, candidate)) {
+                    return candidate;
+                }
+            }
+        }
+
+        char[] name = new char[length];
+        for (int i = 0; i < length; i++) {
+            name[i] = (char) toLower(a[s + i]);
+        }
+        return new String(name);
+    }
+
+    private static Method matchMethod(byte[] a, int s, int e) throws HTTPParseException {
+        for (int m = 0; m < METHODS.length; m++) {
+            byte[] name = METHOD_NAMES[m];
+            if (name.length != e - s)
+                continue;
+            int i = 0;
+            while (i < name.length && name[i] == a[s + i])
+                i++;
+            if (i == name.length)
+                return METHODS[m];
+        }
+        throw new HTTPParseException(Status.NOT_IMPLEMENTED, "Unknown request method");
+    }
+
+    private static boolean equalsIgnoreCase(byte[] a, int s, String lower) {
+        for (int i = 0; i < lower.length(); i++) {
+            if (toLower(a[s + i]) != lower.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static int toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + 32 : b & 0xFF;
+    }
+
+    private static int indexOf(byte[] a, int s, int e, byte b) {
+        for (int i = s; i < e; i++) {
+            if (a[i] == b)
+                return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] a, int s, int e, byte b) {
+        for (int i = e - 1; i >= s; i--) {
+            if (a[i] == b)
+                return i;
+        }
+        return -1;
+    }
+}
@@ -1,20 +1,29 @@
 package com.cptingle.WebServer.messaging;
 
+import com.cptingle.WebServer.response.HeaderEncoder;
 import com.cptingle.WebServer.response.Status;
 import com.cptingle.WebServer.server.ClientConnection;
+import com.cptingle.WebServer.util.Utility;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Response {
     private ClientConnection conn;
     private Status status;
-    private String headers;
+    private String mimeType = "text/html";
+    private String contentEncoding;
+    private List<String> extraHeaders;
     private byte[] body;
+    private ByteBuffer[] bodyBuffers;
+    private File bodyFile;
+    private long contentLength;
+    // Set for responses such as 304 or HEAD replies that advertise a Content-length without sending a body
+    private boolean bodyless;
 
 
     public Response(ClientConnection conn, Status status) {
@@ -22,36 +31,209 @@ public class Response {
         this.status = status;
     }
 
+    /**
+     * Creates a response whose body is the provided file. The file is not read into memory, the connection streams it to
+     * the client straight from the file system when the response is sent.
+     * @param conn - the connection the response will be sent on
+     * @param status - the response status
+     * @param file - the file to send as the body
+     */
     public Response(ClientConnection conn, Status status, File file) {
+        this(conn, status, file, null);
+    }
+
+    /**
+     * Creates a response whose body is held in a buffer, such as a file from the static file cache. The buffer is written
+     * to the client as it is and must not be modified afterwards.
+     * @param conn - the connection the response will be sent on
+     * @param status - the response status
+     * @param body - the body, from its position to its limit
+     */
+    public Response(ClientConnection conn, Status status, ByteBuffer body) {
+        this(conn, status, body, null);
+    }
+
+    public Response(ClientConnection conn, Status status, ByteBuffer body, List<String> extraHeaders) {
+        this(conn, status, new ByteBuffer[]{body}, "text/html", extraHeaders);
+    }
+
+    /**
+     * Creates a response whose body is made up of several buffers that are written one after the other,
+     * such as the parts of a multipart/byteranges response
+     * @param conn - the connection the response will be sent on
+     * @param status - the response status
+     * @param body - the buffers making up the body, each from its position to its limit
+     * @param mimeType - the mime type of the body
+     * @param extraHeaders - a list of extra headers
+     */
+    public Response(ClientConnection conn, Status status, ByteBuffer[] body, String mimeType, List<String> extraHeaders) {
         this.conn = conn;
         this.status = status;
-        try {
-            this.body = fileToByteArray(file);
-        } catch (IOException e) {
-            e.printStackTrace();
+        this.bodyBuffers = body;
+        for (ByteBuffer buf : body) {
+            this.contentLength += buf.remaining();
         }
-        this.headers = buildHeaders(conn, status, null, "text/html", body.length);
+        this.mimeType = mimeType;
+        this.extraHeaders = extraHeaders;
     }
 
+
     public Response(ClientConnection conn, Status status, File file, List<String> extraHeaders) {
         this.conn = conn;
         this.status = status;
-        try {
-            this.body = fileToByteArray(file);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        this.headers = buildHeaders(conn, status, extraHeaders, "text/html", body.length);
+        this.bodyFile = file;
+        this.contentLength = file.length();
+        this.extraHeaders = extraHeaders;
     }
 
+    /**
+     * Encodes the header block into a new array. Connections encode into their own buffer with writeHeaders() instead.
+     * @return - the encoded header block
+     */
+    public byte[] getHeaderBytes() {
+        return getEncoder().encode(status, mimeType, getHeaderContentLength(), extraHeaders);
+    }
+
+    /**
+     * @return - the header block as a string
+     */
     public String getHeaders() {
-        return headers;
+        return new String(getHeaderBytes(), StandardCharsets.ISO_8859_1);
     }
 
+    /**
+     * Encodes the header block into the buffer, at its position. The header block is built when the response is sent, so
+     * the content type and extra headers can still change until then.
+     * @param dst - the buffer to write to, backed by an array
+     * @return - true if the headers were written, false if there was not enough room left in the buffer, which is then unchanged
+     */
+    public boolean writeHeaders(ByteBuffer dst) {
+        return getEncoder().encode(dst, status, mimeType, getHeaderContentLength(), extraHeaders);
+    }
+
+    private long getHeaderContentLength() {
+        return bodyless ? contentLength : getContentLength();
+    }
+
+    private HeaderEncoder getEncoder() {
+        return conn.getServer().getHeaderEncoder();
+    }
+
+    public String getContentType() {
+        return mimeType;
+    }
+
+    /**
+     * Sets the Content-type header, text/html is sent if it is not set
+     * @param mimeType - the mime type of the body
+     */
+    public void setContentType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * @return - the content coding of the body such as gzip, or null if it is not encoded
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * Marks the body as already encoded, for bodies such as cached compressed files whose Content-Encoding header is part of the extra headers
+     * @param contentEncoding - the content coding of the body
+     */
+    public void setContentEncoding(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * Adds a header line such as "Vary: Accept-Encoding" to the response
+     * @param header - the complete header line without the line break
+     */
+    public void addHeader(String header) {
+        // The list passed to the constructor may be shared or unmodifiable, so copy it before the first change
+        List<String> temp = new ArrayList<String>(extraHeaders != null ? extraHeaders.size() + 2 : 2);
+        if (extraHeaders != null)
+            temp.addAll(extraHeaders);
+        temp.add(header);
+        this.extraHeaders = temp;
+    }
+
+    /**
+     * Replaces the in-memory body with its encoded form and adds the Content-Encoding header
+     * @param encoded - the encoded body
+     * @param encoding - the content coding used, such as gzip
+     */
+    public void setEncodedBody(byte[] encoded, String encoding) {
+        this.body = encoded;
+        this.bodyBuffers = null;
+        this.bodyFile = null;
+        this.contentEncoding = encoding;
+        addHeader("Content-Encoding: " + encoding);
+    }
+
+    /**
+     * Marks the response as streamed. The body is sent after the headers with Transfer-Encoding: chunked, so its length
+     * does not have to be known up front.
+     */
+    public void setChunked() {
+        this.body = null;
+        this.bodyBuffers = null;
+        this.bodyFile = null;
+        this.contentLength = -1;
+        this.bodyless = true;
+        addHeader("Transfer-Encoding: chunked");
+    }
+
+    /**
+     * Returns the body as a byte array. For file responses the file is read into memory on the first call, the connection
+     * does not use this for files and sends them with getBodyFile() instead.
+     * @return - the body bytes
+     */
     public byte[] getBody() {
+        if (body == null && bodyBuffers != null) {
+            body = new byte[(int) contentLength];
+            ByteBuffer dst = ByteBuffer.wrap(body);
+            for (ByteBuffer buf : bodyBuffers) {
+                dst.put(buf.duplicate());
+            }
+        } else if (body == null && bodyFile != null) {
+            try {
+                body = fileToByteArray(bodyFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         return body;
     }
 
+    /**
+     * @return - views of the body buffers with their own positions, or null if the body is not held in buffers
+     */
+    public ByteBuffer[] getBodyBuffers() {
+        if (bodyBuffers == null)
+            return null;
+        ByteBuffer[] views = new ByteBuffer[bodyBuffers.length];
+        for (int i = 0; i < views.length; i++) {
+            views[i] = bodyBuffers[i].duplicate();
+        }
+        return views;
+    }
+
+    /**
+     * @return - the file to stream as the body, or null if the body is held in memory
+     */
+    public File getBodyFile() {
+        return bodyFile;
+    }
+
+    /**
+     * @return - the length of the body in bytes
+     */
+    public long getContentLength() {
+        return (bodyFile != null || bodyBuffers != null) ? contentLength : (body != null ? body.length : 0);
+    }
+
     public Status getStatus() {
         return status;
     }
@@ -60,16 +242,29 @@ public class Response {
         buildErrorPage(null);
     }
 
+    /**
+     * Uses the error page of the response status as the body. Error pages are rendered once when the server starts and
+     * shared between responses.
+     * @param extraHeaders - a list of extra headers, may be null
+     */
     public void buildErrorPage(List<String> extraHeaders) {
-        String html = "<!DOCTYPE html>" +
-                "<html>" +
-                "<head><title>" + status.getReasonPhrase() + "</title></head>" +
-                "<body>" +
-                "<h1>" + status.getReasonPhrase() + "</h1>" +
-                "<body>" +
-                "</html>";
-        body = html.getBytes();
-        headers = buildHeaders(conn, status, extraHeaders, "text/html", body.length);
+        body = getEncoder().getErrorPage(status);
+        mimeType = "text/html";
+        this.extraHeaders = extraHeaders;
+    }
+
+    /**
+     * Builds the headers of a response that has no body, such as 304 Not Modified or the reply to a HEAD request
+     * @param extraHeaders - a list of extra headers such as ETag etc.
+     * @param contentLength - the length the body would have had, sent as the Content-length header, or -1 to leave the header out
+     */
+    public void buildEmptyResponse(List<String> extraHeaders, long contentLength) {
+        body = null;
+        bodyBuffers = null;
+        bodyFile = null;
+        this.extraHeaders = extraHeaders;
+        this.contentLength = contentLength;
+        this.bodyless = true;
     }
 
     /**
@@ -79,18 +274,7 @@ public class Response {
      * @throws IOException
      */
     public byte[] fileToByteArray(File file) throws IOException {
-        FileInputStream fis = null;
-        byte[] data = new byte[(int) file.length()];
-
-        try {
-            fis = new FileInputStream(file);
-            fis.read(data);
-        } finally {
-            if (fis != null)
-                fis.close();
-        }
-
-        return data;
+        return Utility.fileToByteArray(file);
     }
 
     /**
@@ -107,31 +291,4 @@ public class Response {
         }
         return cookie;
     }
-
-    /**
-     * Helper method to build the header string
-     * @param cc - client connection object, used to get certain com.cptingle.WebServer.server info
-     * @param rc - the com.cptingle.WebServer.response code to send to the client (200, 404, etc.)
-     * @param extraHeaders - a list of extra headers such as set-cookie etc.
-     * @param mimeType - the mime type of the returned data
-     * @param contentLength - the length (in bytes) of the content returned
-     * @return - A string containing all of the headers delimited by a newline
-     */
-    public String buildHeaders(ClientConnection cc, Status rc, List<String> extraHeaders, String mimeType, int contentLength) {
-        String ret = "";
-        ret += "HTTP/1.1 " + rc.getStatusCode() + " " + rc.getReasonPhrase() + "\r\n";
-        ret += "Server: cpt22 Web Server v" + cc.getServer().getVersion() + "\r\n";
-        ret += "Date: " + new Date() + "\r\n";
-        ret += "Content-type: " + mimeType + "\r\n";
-        ret += "Content-length: " + contentLength + "\r\n";
-        if (!cc.getServer().areConnectionsPersistent())
-            ret += "Connection: close\r\n";
-        if (extraHeaders != null) {
-            for (int i = 0; i < extraHeaders.size(); i++) {
-                ret += extraHeaders.get(i) + "\r\n";
-            }
-        }
-        ret += "\r\n";
-        return ret;
-    }
 }
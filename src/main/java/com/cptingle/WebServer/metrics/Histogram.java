@@ -0,0 +1,62 @@
+package com.cptingle.WebServer.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with logarithmic buckets: bucket i counts durations of at most 2^i microseconds, from 1us up to
+ * about 16.8s, and a last bucket counts everything slower. Finding the bucket is a leading zero count and recording is an
+ * atomic increment, so recording takes no lock and allocates nothing.
+ */
+public class Histogram {
+    // Buckets with an upper bound, 2^0 to 2^24 microseconds
+    static final int BOUNDED_BUCKETS = 25;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDED_BUCKETS + 1);
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * @param nanos - the duration to record
+     */
+    public void record(long nanos) {
+        // Rounded up, so a duration just over a bucket's bound is not counted in that bucket
+        long micros = (Math.max(0, nanos) + 999) / 1000;
+        int index = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+        buckets.incrementAndGet(Math.min(index, BOUNDED_BUCKETS));
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * @param index - the bucket, BOUNDED_BUCKETS for the unbounded one
+     * @return - the number of durations recorded in the bucket
+     */
+    long getBucket(int index) {
+        return buckets.get(index);
+    }
+
+    /**
+     * @param index - the bucket
+     * @return - the upper bound of the bucket in seconds
+     */
+    static double getUpperBound(int index) {
+        return (1L << index) / 1_000_000.0;
+    }
+
+    /**
+     * @return - the number of durations recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return - the total of the durations recorded, in nanoseconds
+     */
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+}
@@ -0,0 +1,167 @@
+package com.cptingle.WebServer.metrics;
+
+import com.cptingle.WebServer.exceptions.YAMLConfigurationException;
+import com.cptingle.WebServer.response.Status;
+import com.cptingle.WebServer.server.HTTPServer;
+import com.cptingle.WebServer.util.configuration.Configuration;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, gauges and latency histograms describing the traffic the server handles. Requests are timed from dispatch
+ * until their response is handed to the connection and recorded per route and per status class. Recording a request takes
+ * no lock and allocates nothing once its route has been seen, so it can stay on for every request.
+ * The numbers are read in the Prometheus text format by {@link MetricsServlet}.
+ */
+public class MetricsRegistry {
+    // Route label of static files and of responses sent without a route, such as parse errors
+    public static final String STATIC_ROUTE = "static";
+    public static final String NO_ROUTE = "none";
+
+    private final HTTPServer server;
+    private boolean enabled = true;
+    private String path = "/metrics";
+
+    private final ConcurrentHashMap<String, Histogram> routes = new ConcurrentHashMap<String, Histogram>();
+    // Indexed by the first digit of the status code
+    private final Histogram[] statusClasses = new Histogram[6];
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder parseErrors = new LongAdder();
+
+    public MetricsRegistry(HTTPServer server) {
+        this.server = server;
+        for (int i = 1; i < statusClasses.length; i++) {
+            statusClasses[i] = new Histogram();
+        }
+        try {
+            Configuration section = server.getConfig().getSection("metrics");
+            this.enabled = section.getBoolean("enabled", true);
+            this.path = section.getString("path", "/metrics");
+        } catch (YAMLConfigurationException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return - the path the metrics are served on
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Records a request that has been answered
+     * @param route - the pattern of the route the request matched, or one of STATIC_ROUTE and NO_ROUTE
+     * @param status - the status of the response
+     * @param nanos - the time from dispatch until the response was sent
+     */
+    public void recordRequest(String route, Status status, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        Histogram histogram = routes.get(route);
+        if (histogram == null) {
+            histogram = routes.computeIfAbsent(route, r -> new Histogram());
+        }
+        histogram.record(nanos);
+
+        int statusClass = status.getStatusCode() / 100;
+        if (statusClass > 0 && statusClass < statusClasses.length) {
+            statusClasses[statusClass].record(nanos);
+        }
+    }
+
+    /**
+     * Records a request that could not be parsed
+     */
+    public void recordParseError() {
+        parseErrors.increment();
+    }
+
+    public void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    public void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    /**
+     * @return - the number of client connections currently open
+     */
+    public long getActiveConnections() {
+        return connectionsOpened.sum() - connectionsClosed.sum();
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format
+     * @param out - receives the text
+     */
+    public void writePrometheus(StringBuilder out) {
+        out.append("# HELP http_requests_total Requests answered since startup, by status class.\n");
+        out.append("# TYPE http_requests_total counter\n");
+        for (int i = 1; i < statusClasses.length; i++) {
+            out.append("http_requests_total{class=\"").append(i).append("xx\"} ").append(statusClasses[i].getCount()).append('\n');
+        }
+
+        out.append("# HELP http_request_duration_seconds Time from dispatch until the response was sent, by route.\n");
+        out.append("# TYPE http_request_duration_seconds histogram\n");
+        // Sorted so the output is stable between scrapes
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(routes).entrySet()) {
+            writeHistogram(out, "http_request_duration_seconds", "route", escape(entry.getKey()), entry.getValue());
+        }
+
+        out.append("# HELP http_status_class_duration_seconds Time from dispatch until the response was sent, by status class.\n");
+        out.append("# TYPE http_status_class_duration_seconds histogram\n");
+        for (int i = 1; i < statusClasses.length; i++) {
+            writeHistogram(out, "http_status_class_duration_seconds", "class", i + "xx", statusClasses[i]);
+        }
+
+        writeSingle(out, "http_parse_errors_total", "counter", "Requests rejected because they could not be parsed.", parseErrors.sum());
+        writeSingle(out, "http_rejected_total", "counter", "Connections or requests turned away with 503 because the executor was saturated.", server.getRejectedCount());
+        writeSingle(out, "http_connections_active", "gauge", "Client connections currently open.", getActiveConnections());
+        writeSingle(out, "http_connections_opened_total", "counter", "Client connections accepted since startup.", connectionsOpened.sum());
+        writeSingle(out, "executor_queue_size", "gauge", "Tasks waiting for a worker thread.", server.getQueueDepth());
+        if (server.getActiveWorkers() >= 0) {
+            writeSingle(out, "executor_active_threads", "gauge", "Worker threads currently running a task.", server.getActiveWorkers());
+        }
+        writeSingle(out, "log_dropped_lines_total", "counter", "Log lines discarded because the log writer fell behind.", server.getLogger().getDroppedCount());
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String label, String value, Histogram histogram) {
+        long cumulative = 0;
+        for (int i = 0; i < Histogram.BOUNDED_BUCKETS; i++) {
+            cumulative += histogram.getBucket(i);
+            out.append(name).append("_bucket{").append(label).append("=\"").append(value).append("\",le=\"")
+                    .append(Histogram.getUpperBound(i)).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += histogram.getBucket(Histogram.BOUNDED_BUCKETS);
+        out.append(name).append("_bucket{").append(label).append("=\"").append(value).append("\",le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum{").append(label).append("=\"").append(value).append("\"} ").append(histogram.getSumNanos() / 1e9).append('\n');
+        out.append(name).append("_count{").append(label).append("=\"").append(value).append("\"} ").append(cumulative).append('\n');
+    }
+
+    private static void writeSingle(StringBuilder out, String name, String type, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Escapes a label value for the Prometheus text format
+     */
+    private static String escape(String value) {
+        if (value.indexOf('\\') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1) {
+            return value;
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
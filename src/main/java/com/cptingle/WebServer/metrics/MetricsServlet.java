@@ -0,0 +1,36 @@
+package com.cptingle.WebServer.metrics;
+
+import com.cptingle.WebServer.messaging.Request;
+import com.cptingle.WebServer.messaging.Response;
+import com.cptingle.WebServer.response.Status;
+import com.cptingle.WebServer.server.AbstractServlet;
+import com.cptingle.WebServer.server.ClientConnection;
+import com.cptingle.WebServer.server.HTTPServer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the server's metrics in the Prometheus text format. Registered by the server itself on the configured metrics
+ * path, a servlet loaded from the servlets directory with the same path replaces it.
+ */
+public class MetricsServlet extends AbstractServlet {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public MetricsServlet(HTTPServer server) {
+        super(server, new String[]{server.getMetrics().getPath()});
+    }
+
+    @Override
+    public void get(ClientConnection conn, Request req) {
+        StringBuilder text = new StringBuilder(8192);
+        server.getMetrics().writePrometheus(text);
+        Response resp = new Response(conn, Status.OK, new ByteBuffer[]{ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8))}, CONTENT_TYPE, null);
+        try {
+            conn.sendResponse(resp);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
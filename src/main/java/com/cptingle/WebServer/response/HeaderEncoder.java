@@ -0,0 +1,177 @@
+package com.cptingle.WebServer.response;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes response header blocks straight into byte buffers. Everything that is the same for every response, the status
+ * lines, the Server header and the error page bodies, is encoded once when the server starts and the Date header is taken
+ * from a {@link HttpClock}, so encoding a header block only copies bytes and writes the content length.
+ * One encoder is shared by every connection of a server.
+ */
+public class HeaderEncoder {
+    private static final byte[] CONTENT_TYPE = "Content-type: ".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] CONTENT_LENGTH = "Content-length: ".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] CONNECTION_CLOSE = "Connection: close\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final byte[] serverHeader;
+    private final boolean persistent;
+    private final HttpClock clock = new HttpClock();
+    private final Map<Status, byte[]> errorPages = new EnumMap<Status, byte[]>(Status.class);
+
+    /**
+     * @param version - the server version sent in the Server header
+     * @param persistent - whether connections are kept open, otherwise every response carries Connection: close
+     */
+    public HeaderEncoder(String version, boolean persistent) {
+        this.serverHeader = ("Server: cpt22 Web Server v" + version + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        this.persistent = persistent;
+
+        for (Status status : Status.values()) {
+            if (status.getStatusCode() >= 400) {
+                errorPages.put(status, renderErrorPage(status));
+            }
+        }
+        clock.start();
+    }
+
+    /**
+     * Stops the clock thread
+     */
+    public void close() {
+        clock.close();
+    }
+
+    /**
+     * @param status - an error status
+     * @return - the HTML body of the error page for the status, shared between responses and must not be modified
+     */
+    public byte[] getErrorPage(Status status) {
+        byte[] page = errorPages.get(status);
+        return page != null ? page : renderErrorPage(status);
+    }
+
+    /**
+     * @return - the encoded "Date: ...\r\n" header line of the current second
+     */
+    public byte[] getDateHeader() {
+        return clock.getDateHeader();
+    }
+
+    /**
+     * Encodes a header block into the buffer, at its position
+     * @param dst - the buffer to write to, backed by an array
+     * @param status - the response status
+     * @param mimeType - the value of the Content-type header
+     * @param contentLength - the value of the Content-length header, or -1 to leave the header out
+     * @param extraHeaders - complete header lines without line breaks, may be null
+     * @return - true if the headers were written, false if there was not enough room left in the buffer, which is then unchanged
+     */
+    public boolean encode(ByteBuffer dst, Status status, String mimeType, long contentLength, List<String> extraHeaders) {
+        byte[] date = clock.getDateHeader();
+        if (dst.remaining() < length(status, date, mimeType, contentLength, extraHeaders)) {
+            return false;
+        }
+
+        byte[] a = dst.array();
+        int i = dst.arrayOffset() + dst.position();
+        i = put(a, i, status.getStatusLine());
+        i = put(a, i, serverHeader);
+        i = put(a, i, date);
+        i = put(a, i, CONTENT_TYPE);
+        i = putLine(a, i, mimeType);
+        if (contentLength >= 0) {
+            i = put(a, i, CONTENT_LENGTH);
+            i = putNumber(a, i, contentLength);
+            a[i++] = '\r';
+            a[i++] = '\n';
+        }
+        if (!persistent)
+            i = put(a, i, CONNECTION_CLOSE);
+        if (extraHeaders != null) {
+            for (int h = 0; h < extraHeaders.size(); h++) {
+                i = putLine(a, i, extraHeaders.get(h));
+            }
+        }
+        a[i++] = '\r';
+        a[i++] = '\n';
+        dst.position(i - dst.arrayOffset());
+        return true;
+    }
+
+    /**
+     * Encodes a header block into a new array, for callers that have no buffer to encode into
+     * @return - the encoded header block
+     */
+    public byte[] encode(Status status, String mimeType, long contentLength, List<String> extraHeaders) {
+        byte[] date = clock.getDateHeader();
+        ByteBuffer buf = ByteBuffer.allocate(length(status, date, mimeType, contentLength, extraHeaders));
+        encode(buf, status, mimeType, contentLength, extraHeaders);
+        return buf.array();
+    }
+
+    private int length(Status status, byte[] date, String mimeType, long contentLength, List<String> extraHeaders) {
+        int length = status.getStatusLine().length + serverHeader.length + date.length + CONTENT_TYPE.length + mimeType.length() + 4;
+        if (contentLength >= 0)
+            length += CONTENT_LENGTH.length + digits(contentLength) + 2;
+        if (!persistent)
+            length += CONNECTION_CLOSE.length;
+        if (extraHeaders != null) {
+            for (int h = 0; h < extraHeaders.size(); h++) {
+                length += extraHeaders.get(h).length() + 2;
+            }
+        }
+        return length;
+    }
+
+    private static byte[] renderErrorPage(Status status) {
+        String html = "<!DOCTYPE html>" +
+                "<html>" +
+                "<head><title>" + status.getReasonPhrase() + "</title></head>" +
+                "<body>" +
+                "<h1>" + status.getReasonPhrase() + "</h1>" +
+                "</body>" +
+                "</html>";
+        return html.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int put(byte[] a, int i, byte[] bytes) {
+        System.arraycopy(bytes, 0, a, i, bytes.length);
+        return i + bytes.length;
+    }
+
+    /**
+     * Writes the characters of a header line as ISO-8859-1 followed by a line break
+     */
+    private static int putLine(byte[] a, int i, String line) {
+        int length = line.length();
+        for (int c = 0; c < length; c++) {
+            a[i++] = (byte) line.charAt(c);
+        }
+        a[i++] = '\r';
+        a[i++] = '\n';
+        return i;
+    }
+
+    private static int putNumber(byte[] a, int i, long value) {
+        int end = i + digits(value);
+        int p = end;
+        do {
+            a[--p] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        return end;
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+}
@@ -0,0 +1,64 @@
+package com.cptingle.WebServer.response;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Keeps the encoded Date header line of the current second. The value only changes once a second so it is formatted by a
+ * daemon thread rather than for every response.
+ */
+public class HttpClock implements Runnable {
+    // IMF-fixdate as required by RFC 7231, the day of the month is always two digits
+    public static final DateTimeFormatter IMF_FIXDATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private volatile byte[] dateHeader;
+    private volatile boolean running = true;
+
+    public HttpClock() {
+        update(System.currentTimeMillis());
+    }
+
+    /**
+     * Starts updating the date on a new daemon thread
+     */
+    public void start() {
+        Thread thread = new Thread(this, "http-clock");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops updating the date
+     */
+    public void close() {
+        running = false;
+    }
+
+    /**
+     * @return - the encoded "Date: ...\r\n" header line, shared between callers and must not be modified
+     */
+    public byte[] getDateHeader() {
+        return dateHeader;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            long now = System.currentTimeMillis();
+            update(now);
+            try {
+                // Wake up just after the start of the next second
+                Thread.sleep(1000 - now % 1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void update(long now) {
+        dateHeader = ("Date: " + IMF_FIXDATE.format(Instant.ofEpochMilli(now)) + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -1,6 +1,11 @@
 package com.cptingle.WebServer.response;
 
+import java.nio.charset.StandardCharsets;
+
 public enum Status {
+    // 100s
+    CONTINUE(100, "Continue"),
+
     // 200s
     OK(200, "OK"),
     CREATED(201, "Created"),
@@ -36,6 +41,7 @@ public enum Status {
     UNSUPPORTED_MEDIA_TYPE(415, "Unsupported Media Type"),
     REQUESTED_RANGE_NOT_SATISFIABLE(416, "Requested Range Not Satisfiable"),
     EXPECTATION_FAILED(417, "Expectation Failed"),
+    REQUEST_HEADER_FIELDS_TOO_LARGE(431, "Request Header Fields Too Large"),
 
     // 500s
     INTERNAL_SERVER_ERROR(500, "Internal Server Error"),
@@ -48,10 +54,12 @@ public enum Status {
 
     private final String reason;
     private final int code;
+    private final byte[] statusLine;
 
     private Status(int code, String reason) {
         this.code = code;
         this.reason = reason;
+        this.statusLine = ("HTTP/1.1 " + code + " " + reason + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
     }
 
 
@@ -63,6 +71,13 @@ public enum Status {
         return this.reason;
     }
 
+    /**
+     * @return - the encoded status line including the line break, shared between callers and must not be modified
+     */
+    public byte[] getStatusLine() {
+        return this.statusLine;
+    }
+
     public String toString() {
         return getReasonPhrase();
     }
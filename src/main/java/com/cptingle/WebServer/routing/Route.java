@@ -0,0 +1,67 @@
+package com.cptingle.WebServer.routing;
+
+import com.cptingle.WebServer.server.HTTPServlet;
+
+/**
+ * A route pattern and the servlet it maps to. Patterns are made of literal text and whole path segments that are one of
+ * <ul>
+ *     <li>{name} - matches any single segment, captured as the path parameter name</li>
+ *     <li>* - matches any single segment without capturing it</li>
+ *     <li>* as the last segment - matches the rest of the path, including nothing, captured as the path parameter *</li>
+ * </ul>
+ * For example "/users/{id}/posts" or "/api/*".
+ */
+public class Route {
+    public static final String REST = "*";
+
+    private final String pattern;
+    private final HTTPServlet servlet;
+    // Names of the captured parameters in the order they appear in the pattern, null for segments matched by *
+    private final String[] paramNames;
+
+    Route(String pattern, HTTPServlet servlet, String[] paramNames) {
+        this.pattern = pattern;
+        this.servlet = servlet;
+        this.paramNames = paramNames;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public HTTPServlet getServlet() {
+        return servlet;
+    }
+
+    /**
+     * @return - the number of path parameters the route captures
+     */
+    public int getParamCount() {
+        return paramNames.length;
+    }
+
+    /**
+     * @param index - the position of the parameter in the pattern
+     * @return - the name of the parameter, or null if the segment is matched by *
+     */
+    public String getParamName(int index) {
+        return paramNames[index];
+    }
+
+    /**
+     * @param name - the parameter name
+     * @return - the position of the parameter in the pattern, or -1 if the route does not capture it
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < paramNames.length; i++) {
+            if (name.equals(paramNames[i]))
+                return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
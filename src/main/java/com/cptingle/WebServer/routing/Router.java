@@ -0,0 +1,266 @@
+package com.cptingle.WebServer.routing;
+
+import com.cptingle.WebServer.server.HTTPServlet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps request paths to servlets with a compressed radix trie. Literal text shared by several routes is stored once along
+ * the edges, so a lookup walks the path a character at a time and its cost depends on the length of the path rather than
+ * the number of routes. Literal matches are preferred over parameter segments, which are preferred over a trailing wildcard.
+ * A router is built once with a {@link Builder} and never changes afterwards, so it can be shared by every connection and
+ * replaced as a whole when the servlets change.
+ */
+public class Router {
+    // Most parameter segments a route may have, connections reuse an offsets array of twice this size
+    public static final int MAX_PARAMS = 16;
+
+    private static final Router EMPTY = new Builder().build();
+
+    private final Node root;
+    private final int size;
+
+    private Router(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * @return - a router without any routes
+     */
+    public static Router empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @return - the number of routes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the route for a path. Nothing is allocated, the captured parameters are recorded as offsets into the path.
+     * @param path - the request path without the query string
+     * @param bounds - receives the start and end offset of each captured parameter, at least {@link #MAX_PARAMS} * 2 long
+     * @return - the matching route, or null if there is none
+     */
+    public Route find(String path, int[] bounds) {
+        return match(root, path, 0, bounds, 0);
+    }
+
+    /**
+     * @param path - the request path without the query string
+     * @return - the servlet the path is routed to, or null if there is none
+     */
+    public HTTPServlet getServlet(String path) {
+        // The parameters are not needed, so they are not recorded
+        Route route = match(root, path, 0, null, 0);
+        return route != null ? route.getServlet() : null;
+    }
+
+    private static Route match(Node node, String path, int i, int[] bounds, int param) {
+        int end = path.length();
+        if (i == end && node.route != null) {
+            return node.route;
+        }
+
+        if (i < end) {
+            Node child = node.child(path.charAt(i));
+            if (child != null && path.startsWith(child.label, i)) {
+                Route route = match(child, path, i + child.label.length(), bounds, param);
+                if (route != null)
+                    return route;
+            }
+
+            if (node.param != null) {
+                int segmentEnd = path.indexOf('/', i);
+                if (segmentEnd == -1)
+                    segmentEnd = end;
+                if (segmentEnd > i) {
+                    Route route = match(node.param, path, segmentEnd, bounds, param + 1);
+                    if (route != null) {
+                        if (bounds != null) {
+                            bounds[param * 2] = i;
+                            bounds[param * 2 + 1] = segmentEnd;
+                        }
+                        return route;
+                    }
+                }
+            }
+        }
+
+        if (node.rest != null) {
+            if (bounds != null) {
+                bounds[param * 2] = i;
+                bounds[param * 2 + 1] = end;
+            }
+            return node.rest;
+        }
+        return null;
+    }
+
+    /**
+     * A node of the trie. Nodes are only modified while the router is being built.
+     */
+    private static class Node {
+        // The literal text on the edge leading to this node
+        private String label;
+        // Literal children, at most one per first character
+        private char[] firsts = new char[0];
+        private Node[] children = new Node[0];
+        // The child matching a whole parameter segment
+        private Node param;
+        // The route whose pattern ends here, and the route whose pattern ends with a wildcard here
+        private Route route;
+        private Route rest;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        Node child(char c) {
+            for (int i = 0; i < firsts.length; i++) {
+                if (firsts[i] == c)
+                    return children[i];
+            }
+            return null;
+        }
+
+        void addChild(Node child) {
+            int n = firsts.length;
+            char[] f = new char[n + 1];
+            Node[] c = new Node[n + 1];
+            System.arraycopy(firsts, 0, f, 0, n);
+            System.arraycopy(children, 0, c, 0, n);
+            f[n] = child.label.charAt(0);
+            c[n] = child;
+            firsts = f;
+            children = c;
+        }
+
+        void replaceChild(Node old, Node replacement) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == old) {
+                    children[i] = replacement;
+                    firsts[i] = replacement.label.charAt(0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects routes and builds the trie. Not thread safe, and should be discarded once build() has been called.
+     */
+    public static class Builder {
+        private final Node root = new Node("");
+        private int size;
+
+        /**
+         * Adds a route. A route added with the same pattern as an earlier one replaces it.
+         * @param pattern - the route pattern, see {@link Route}
+         * @param servlet - the servlet requests matching the pattern are passed to
+         * @return - this builder
+         * @throws IllegalArgumentException if the pattern is malformed
+         */
+        public Builder add(String pattern, HTTPServlet servlet) {
+            if (!pattern.startsWith("/")) {
+                throw new IllegalArgumentException("Route '" + pattern + "' does not start with /");
+            }
+
+            List<String> names = new ArrayList<String>();
+            Node node = root;
+            StringBuilder literal = new StringBuilder();
+            boolean rest = false;
+            int i = 0;
+            while (i < pattern.length()) {
+                int segmentEnd = pattern.indexOf('/', i);
+                if (segmentEnd == -1)
+                    segmentEnd = pattern.length();
+                String segment = pattern.substring(i, segmentEnd);
+
+                if (segment.equals("*") && segmentEnd == pattern.length()) {
+                    rest = true;
+                    names.add(Route.REST);
+                } else if (segment.equals("*") || (segment.startsWith("{") && segment.endsWith("}"))) {
+                    String name = segment.equals("*") ? null : segment.substring(1, segment.length() - 1);
+                    if (name != null && (name.isEmpty() || names.contains(name))) {
+                        throw new IllegalArgumentException("Route '" + pattern + "' has an empty or repeated parameter name");
+                    }
+                    node = insertLiteral(node, literal.toString());
+                    literal.setLength(0);
+                    if (node.param == null)
+                        node.param = new Node("");
+                    node = node.param;
+                    names.add(name);
+                } else if (segment.indexOf('{') != -1 || segment.indexOf('}') != -1 || segment.indexOf('*') != -1) {
+                    throw new IllegalArgumentException("Route '" + pattern + "' has a parameter that is not a whole segment");
+                } else {
+                    literal.append(segment);
+                }
+
+                if (segmentEnd < pattern.length())
+                    literal.append('/');
+                i = segmentEnd + 1;
+            }
+            if (names.size() > MAX_PARAMS) {
+                throw new IllegalArgumentException("Route '" + pattern + "' has more than " + MAX_PARAMS + " parameters");
+            }
+
+            node = insertLiteral(node, literal.toString());
+            Route route = new Route(pattern, servlet, names.toArray(new String[0]));
+            Route previous;
+            if (rest) {
+                previous = node.rest;
+                node.rest = route;
+            } else {
+                previous = node.route;
+                node.route = route;
+            }
+            if (previous == null)
+                size++;
+            return this;
+        }
+
+        /**
+         * @return - the router, containing every route added so far
+         */
+        public Router build() {
+            return new Router(root, size);
+        }
+
+        /**
+         * Walks down the literal edges matching the text, splitting an edge where the text diverges from it
+         * @return - the node the text leads to
+         */
+        private static Node insertLiteral(Node node, String text) {
+            int i = 0;
+            while (i < text.length()) {
+                Node child = node.child(text.charAt(i));
+                if (child == null) {
+                    Node leaf = new Node(text.substring(i));
+                    node.addChild(leaf);
+                    return leaf;
+                }
+
+                int common = 0;
+                int max = Math.min(child.label.length(), text.length() - i);
+                while (common < max && child.label.charAt(common) == text.charAt(i + common))
+                    common++;
+
+                if (common < child.label.length()) {
+                    // Split the edge, the existing child keeps the part after the common prefix
+                    Node split = new Node(child.label.substring(0, common));
+                    node.replaceChild(child, split);
+                    child.label = child.label.substring(common);
+                    split.addChild(child);
+                    child = split;
+                }
+                node = child;
+                i += common;
+            }
+            return node;
+        }
+    }
+}
@@ -20,6 +20,13 @@ public abstract class AbstractServlet implements HTTPServlet {
         return uris;
     }
 
+    /**
+     * Called once the servlet has been replaced by a reload and the last request using it has finished, before its classes
+     * are unloaded. Servlets holding resources such as threads or open files should release them here.
+     */
+    public void destroy() {
+    }
+
     public void get(ClientConnection conn, Request req) {
         System.err.println("superpoop");
         Response resp = new Response(conn, Status.METHOD_NOT_ALLOWED);
@@ -0,0 +1,29 @@
+package com.cptingle.WebServer.server;
+
+import com.cptingle.WebServer.messaging.Request;
+import com.cptingle.WebServer.messaging.Response;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A servlet that answers requests asynchronously. Instead of sending its response before returning, the servlet returns a
+ * stage that completes with the response once it is ready, so a servlet waiting on a slow backend does not hold a worker
+ * thread while it waits. On the nio transport the connection is parked until the stage completes and the worker is free to
+ * serve other connections in the meantime.
+ * <p>
+ * Implemented alongside {@link AbstractServlet}: requests for which {@link #service(ClientConnection, Request)} returns null
+ * are passed to the usual method handlers, so a servlet can answer some methods asynchronously and leave the rest to the
+ * defaults.
+ * <p>
+ * The response is sent by the connection, the servlet must not send anything itself once it has returned a stage. If the
+ * stage does not complete within the configured timeout, 504 Gateway Timeout is sent and the connection is closed. A stage
+ * that completes exceptionally or without a response is answered with 500 Internal Server Error.
+ */
+public interface AsyncServlet extends HTTPServlet {
+    /**
+     * @param conn - the connection the request was received on
+     * @param req - the request
+     * @return - a stage that completes with the response, or null to handle the request synchronously
+     */
+    public CompletionStage<Response> service(ClientConnection conn, Request req);
+}
@@ -0,0 +1,484 @@
+package com.cptingle.WebServer.server;
+
+import com.cptingle.WebServer.exceptions.HTTPParseException;
+import com.cptingle.WebServer.messaging.BodyDecoder;
+import com.cptingle.WebServer.messaging.Request;
+import com.cptingle.WebServer.messaging.RequestBody;
+import com.cptingle.WebServer.messaging.Response;
+import com.cptingle.WebServer.response.Status;
+import com.cptingle.WebServer.util.Utility;
+import com.cptingle.WebServer.util.configuration.ServerSettings;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A client connection served by a thread of its own, used by the blocking transport. The thread reads requests from the
+ * socket, dispatches them one after the other and writes the responses itself.
+ */
+public class BlockingConnection extends ClientConnection implements Runnable {
+    private static final int HEADER_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_GATHER = 64;
+
+    private Socket socket;
+    private InputStream in;
+    // Bytes read from the client that have not been parsed yet, kept between requests so pipelined requests are not lost
+    private ByteBuffer readBuffer;
+    private WritableByteChannel output;
+    // Headers of the responses waiting to be written are encoded one after the other into this buffer, which is reused for the
+    // connection's lifetime. The header slices and the body buffers are queued in the gather array and written together,
+    // once every request already received has been answered, so a response costs a single gathering write.
+    private ByteBuffer headerBuffer;
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private int gatherCount;
+    private final RequestBody.Source bodySource = new SocketBodySource();
+
+
+    public BlockingConnection(Socket socket, HTTPServer server) {
+        super(socket, server);
+        this.socket = socket;
+
+        // If the config value for persistent connections is set, then set the socket timeout to a non-zero value as specified in the config.
+        // Setting a timeout will cause the socket to throw a timeout exception after the specified amount of milliseconds.
+        ServerSettings settings = server.getSettings();
+        if (settings.arePersistentConnections()) {
+            try {
+                socket.setSoTimeout(settings.getPersistentConnectionTimeout());
+            } catch (SocketException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        getServer().getMetrics().connectionOpened();
+        try {
+            serve();
+        } finally {
+            getServer().getMetrics().connectionClosed();
+        }
+    }
+
+    /**
+     * Reads and answers requests until the connection is closed
+     */
+    private void serve() {
+        // The streams and buffers live as long as the connection, bytes buffered for one request are never lost by the next
+        try {
+            in = socket.getInputStream();
+            output = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(socket.getOutputStream());
+        } catch (IOException ex) {
+            getLogger().info(ex.getMessage(), "");
+            return;
+        }
+        readBuffer = ByteBuffer.allocate(getParser().getMaxHeaderSize() + 1);
+        headerBuffer = ByteBuffer.allocate(HEADER_BUFFER_SIZE);
+
+        // While the socket is not timed out or closed, listen for and process HTTP requests
+        while(true) {
+            try {
+                Request request;
+                try {
+                    request = readRequest();
+                } catch (HTTPParseException ex) {
+                    // The rest of the stream can't be framed after a bad request, so answer it and close the connection
+                    getLogger().verbose("Malformed request received: " + ex.getMessage(), getAddress());
+                    sendResponse(buildParseError(ex));
+                    lingeringClose();
+                    break;
+                }
+
+                // The client closed the connection
+                if (request == null) {
+                    getLogger().verbose("Connection with a client closed by the client", getAddress());
+                    closeSocket();
+                    break;
+                }
+
+                getLogger().verbose("Request received from client", getAddress());
+                attachBody(request);
+
+                // Debug headers and cookies
+                if (getServer().isDebugging()) {
+                    debugHeaders(request);
+                }
+
+                // If the config value for persistent connections is set, then set the socket timeout to the value specified in the headers otherwise use com.cptingle.WebServer.server config val.
+                if (getServer().areConnectionsPersistent() && request.getHeaderValue("keep-alive") != null) {
+                    try {
+                        String hdr = request.getHeaderValue("keep-alive");
+                        String[] attrSplit = hdr.split(",");
+                        Map<String, String> tempMap = new HashMap<String, String>();
+                        for (String s : attrSplit) {
+                            String[] tmp = s.split("=");
+                            tempMap.put(tmp[0], tmp[1]);
+                        }
+                        socket.setSoTimeout(Integer.parseInt(tempMap.get("timeout")) * 1000);
+                    } catch (SocketException e) {
+                        e.printStackTrace();
+                    } catch (NullPointerException | ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                        getLogger().verbose("Malformed headers received", getAddress());
+                    }
+                }
+
+                if (!dispatch(request)) {
+                    lingeringClose();
+                    break;
+                }
+
+                // The rest of the body has to be read before the next request, if it can't be the connection is closed
+                if (!finishBody(request)) {
+                    lingeringClose();
+                    break;
+                }
+
+                // If connections are not persistent, or the client asked to close, close all socket connections.
+                if (!getServer().areConnectionsPersistent() || wantsClose(request)) {
+                    getLogger().verbose("Connection with a client closed (non-persistent)", getAddress());
+                    closeSocket();
+                    break;
+                }
+            } catch (FileNotFoundException ex) {
+                try {
+                    if(!sendResponse(Status.NOT_FOUND, "<html><head><title>Page not found</title></head><body>404 Page not found</body></html>")){
+                        getLogger().info("Error sending response to client", getAddress());
+                    }
+                } catch (IOException ex1) {
+                    getLogger().severe("An exception was encountered in generating the error page" + ex1.getMessage(), getAddress());
+                    System.err.println("An exception was encountered in generating the error page: " + ex1.getMessage());
+                }
+            } catch (SocketTimeoutException ex) {
+                // Catch the SocketTimeoutException and close all of the streams and socket.
+                getLogger().verbose("Connection with a client timed out and was closed (persistent)", getAddress());
+                try {
+                    closeSocket();
+                } catch (IOException ex1) {
+                    getLogger().info(ex1.getMessage(), "");
+                }
+                break;
+            } catch (IOException ex) {
+                getLogger().info(ex.getMessage(), "");
+                try {
+                    socket.close();
+                } catch (IOException ex1) {
+                    getLogger().info(ex1.getMessage(), "");
+                }
+                break;
+            }
+        }
+    }
+    /**
+     * Sends anything still buffered and closes the socket
+     * @throws IOException
+     */
+    private void closeSocket() throws IOException {
+        try {
+            flushOutput();
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Reads from the client until a complete request head has been received. Bytes following the head stay in the read buffer
+     * for the next request.
+     * @return - the request, or null if the client closed the connection
+     * @throws IOException
+     * @throws HTTPParseException if the request is malformed or too large
+     */
+    private Request readRequest() throws IOException, HTTPParseException {
+        while (true) {
+            readBuffer.flip();
+            Request request;
+            try {
+                request = getParser().parse(readBuffer);
+            } finally {
+                readBuffer.compact();
+            }
+            if (request != null) {
+                return request;
+            }
+
+            // Every pipelined request received so far has been answered, send the responses together before waiting for more
+            flushOutput();
+            int read = in.read(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), readBuffer.remaining());
+            if (read == -1) {
+                return null;
+            }
+            readBuffer.position(readBuffer.position() + read);
+        }
+    }
+
+    /**
+     * Closes the connection after an error response while the client may still be sending. Closing a socket with unread data
+     * makes the kernel reset the connection, which can destroy the response before the client reads it, so the rest of the
+     * request is read and discarded for a moment first.
+     * @throws IOException
+     */
+    private void lingeringClose() throws IOException {
+        try {
+            flushOutput();
+            socket.shutdownOutput();
+            socket.setSoTimeout(1000);
+            byte[] discard = readBuffer.array();
+            long drained = 0;
+            int read;
+            while (drained < 1024 * 1024 && (read = in.read(discard)) != -1) {
+                drained += read;
+            }
+        } catch (IOException e) {
+            // The client went away or stayed silent, either way there is nothing left to wait for
+        } finally {
+            socket.close();
+        }
+    }
+    /**
+     * Waits for the response of an asynchronous servlet. The blocking transport has a thread per connection that could not
+     * read the next request before this one is answered anyway, so it simply waits.
+     * @param request - the request being answered
+     * @param response - completes with the response
+     * @param generation - the servlets the request was dispatched to, released once the response has been sent
+     * @return - true if the connection can be used for another request, false if it has to be closed
+     * @throws IOException
+     */
+    @Override
+    protected boolean park(Request request, CompletableFuture<Response> response, ServletRegistry.Generation generation) throws IOException {
+        Response rsp = null;
+        Throwable failure = null;
+        try {
+            rsp = response.get();
+        } catch (ExecutionException e) {
+            failure = e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        }
+        return completeAsync(request, rsp, failure, generation);
+    }
+    /**
+     * Sends a com.cptingle.WebServer.response to the client provided a com.cptingle.WebServer.response code and a file to send
+     * @param code - Response code to send
+     * @param file - The file to send
+     * @throws IOException
+     */
+    private boolean sendResponse(Status code, Object file) throws IOException {
+        return sendResponse(code, null, file);
+    }
+
+    /**
+     * Queues the response to be written to the client. The headers are encoded into the connection's header buffer and the
+     * body is queued as it is without being copied. Queued responses are written with one gathering write when the connection
+     * runs out of received requests to answer, so the responses to pipelined requests are sent together.
+     * @param rsp - the response to send
+     * @return - true once the response has been queued
+     * @throws IOException
+     */
+    @Override
+    public boolean sendResponse(Response rsp) throws IOException {
+        markResponded(rsp);
+        encode(rsp);
+        // Flushing clears the header buffer, so it must not happen between encoding the headers and queueing them
+        if (gatherCount == gather.length) {
+            flushOutput();
+        }
+        ByteBuffer headers = encodeHeaders(rsp, headerBuffer);
+        if (headers == null) {
+            // No room left behind the queued responses, write them out to free the buffer
+            flushOutput();
+            headers = encodeHeaders(rsp, headerBuffer);
+        }
+        queue(headers != null ? headers : ByteBuffer.wrap(rsp.getHeaderBytes()));
+
+        if (rsp.getBodyFile() != null) {
+            transferFile(rsp.getBodyFile(), rsp.getContentLength());
+        } else if (rsp.getBodyBuffers() != null) {
+            for (ByteBuffer buf : rsp.getBodyBuffers()) {
+                queue(buf);
+            }
+        } else if (rsp.getBody() != null && rsp.getBody().length > 0) {
+            queue(ByteBuffer.wrap(rsp.getBody()));
+        }
+        return true;
+    }
+    @Override
+    protected RequestBody.Source getBodySource() {
+        return bodySource;
+    }
+
+    /**
+     * Writes a chunk of a streamed response body. The chunk has been written when this returns, so the stream can reuse its buffer.
+     * @param chunk - the framed chunk
+     * @throws IOException
+     */
+    @Override
+    void writeChunk(ByteBuffer[] chunk) throws IOException {
+        for (ByteBuffer buf : chunk) {
+            queue(buf);
+        }
+        flushOutput();
+    }
+
+    @Override
+    void writeLastChunk(ByteBuffer[] chunk) throws IOException {
+        for (ByteBuffer buf : chunk) {
+            queue(buf);
+        }
+    }
+
+    /**
+     * @return - true if chunks are still referenced after writeChunk() returns, so the stream needs a new buffer for the next one
+     */
+    @Override
+    boolean retainsChunks() {
+        return false;
+    }
+    /**
+     * Adds a buffer to the data waiting to be written to the client
+     * @param buf - the buffer to write, from its position to its limit
+     * @throws IOException
+     */
+    private void queue(ByteBuffer buf) throws IOException {
+        if (gatherCount == gather.length) {
+            flushOutput();
+        }
+        gather[gatherCount++] = buf;
+    }
+
+    /**
+     * Writes every queued buffer to the client. Socket channels accept them all in a single gathering write.
+     * @throws IOException
+     */
+    protected void flushOutput() throws IOException {
+        if (gatherCount == 0) {
+            return;
+        }
+        try {
+            int first = 0;
+            while (first < gatherCount) {
+                if (output instanceof GatheringByteChannel) {
+                    ((GatheringByteChannel) output).write(gather, first, gatherCount - first);
+                } else {
+                    output.write(gather[first]);
+                }
+                while (first < gatherCount && !gather[first].hasRemaining()) {
+                    first++;
+                }
+            }
+        } finally {
+            Arrays.fill(gather, 0, gatherCount, null);
+            gatherCount = 0;
+            headerBuffer.clear();
+        }
+    }
+
+    /**
+     * Streams a file to the client with FileChannel.transferTo. When the socket is backed by a SocketChannel the kernel copies
+     * the file straight to the socket (sendfile) so the file contents never pass through the heap.
+     * @param file - the file to send
+     * @param length - the number of bytes to send from the start of the file
+     * @throws IOException
+     */
+    protected void transferFile(File file, long length) throws IOException {
+        // The headers are still queued
+        flushOutput();
+        WritableByteChannel target = output;
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < length) {
+                long sent = fc.transferTo(position, length - position, target);
+                if (sent <= 0 && position >= fc.size()) {
+                    throw new IOException("File " + file + " was truncated while it was being sent");
+                }
+                position += sent;
+            }
+        }
+    }
+
+    /**
+     * Sends a com.cptingle.WebServer.response to the client provided a com.cptingle.WebServer.response code, additional headers, and a file to send
+     * @param code - Response code to send
+     * @param extraHeaders - Extra headers such as cookies
+     * @param file - The file to send
+     * @throws IOException
+     */
+    private boolean sendResponse(Status code, List<String> extraHeaders, Object file) throws IOException {
+        int fileLength;
+        byte[] fileData;
+
+        // Sometimes a file is provided (in the case of 404) but other times the file is provided in the form of a String (a rendered template)
+        if (file instanceof File) {
+            fileLength = (int) ((File) file).length();
+            fileData = Utility.fileToByteArray((File) file);
+        } else if (file instanceof String) {
+            fileData = ((String) file).getBytes("UTF-8");
+            fileLength = fileData.length;
+        } else {
+            return false;
+        }
+
+        byte[] headers = getServer().getHeaderEncoder().encode(code, "text/html", fileLength, extraHeaders);
+
+        getLogger().debug("SENDING HEADERS\n" + new String(headers, StandardCharsets.ISO_8859_1), getAddress());
+
+        queue(ByteBuffer.wrap(headers));
+
+        // Writes the file/string data in byte array form
+        queue(ByteBuffer.wrap(fileData, 0, fileLength));
+        return true;
+    }
+
+    /**
+     * Reads request bodies on the connection's thread. The bytes are decoded out of the same buffer requests are read into,
+     * so whatever follows the body is left there for the next request.
+     */
+    private class SocketBodySource implements RequestBody.Source {
+        @Override
+        public int read(BodyDecoder decoder, byte[] b, int off, int len) throws IOException {
+            while (true) {
+                readBuffer.flip();
+                int n;
+                try {
+                    n = decoder.decode(readBuffer, b, off, len);
+                } finally {
+                    readBuffer.compact();
+                }
+                if (n > 0) {
+                    return n;
+                }
+                if (decoder.isComplete()) {
+                    return -1;
+                }
+
+                // The decoder consumed everything buffered, wait for more. Responses queued so far go out first.
+                flushOutput();
+                int read = in.read(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), readBuffer.remaining());
+                if (read == -1) {
+                    throw new EOFException("The client closed the connection before sending the whole request body");
+                }
+                readBuffer.position(readBuffer.position() + read);
+            }
+        }
+
+        @Override
+        public void sendContinue() throws IOException {
+            queue(ByteBuffer.wrap(CONTINUE_RESPONSE));
+            flushOutput();
+        }
+    }
+}
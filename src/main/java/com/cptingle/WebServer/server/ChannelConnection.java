@@ -0,0 +1,667 @@
+package com.cptingle.WebServer.server;
+
+import com.cptingle.WebServer.exceptions.HTTPParseException;
+import com.cptingle.WebServer.messaging.BodyDecoder;
+import com.cptingle.WebServer.messaging.Request;
+import com.cptingle.WebServer.messaging.RequestBody;
+import com.cptingle.WebServer.messaging.Response;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A client connection driven by an {@link EventLoop}. Reads and writes are non-blocking and happen on the event loop thread,
+ * complete requests are handed to the server executor so servlets can keep using the blocking {@link #sendResponse(Response)} style.
+ * Requests answered by an {@link AsyncServlet} do not occupy a worker while the servlet works, the connection is parked and
+ * resumed by a worker once the response is ready.
+ */
+public class ChannelConnection extends ClientConnection {
+    private final SocketChannel channel;
+    private final EventLoop loop;
+    private final SelectionKey key;
+
+    private final ByteBuffer readBuffer;
+    // While a request body is being read the bytes after the request head belong to the body, the worker decodes them out of
+    // the read buffer and the event loop only parses further requests once the body is complete. Guards the read buffer.
+    // Locks rather than monitors throughout, so a worker on a virtual thread that waits for the client does not pin its carrier.
+    private final ReentrantLock bodyLock = new ReentrantLock();
+    private final Condition bodyReceived = bodyLock.newCondition();
+    private boolean bodyPending = false;
+    private boolean readStopped = false;
+    private final RequestBody.Source bodySource = new ChannelBodySource();
+
+    // Requests waiting to be dispatched, in the order they were received. Only one worker drains them at a time so responses stay in order.
+    // A request that could not be parsed is queued as its HTTPParseException so the error is answered after the requests before it.
+    // At most max-pipeline requests are queued, beyond that reading pauses until the worker has caught up, so a client that
+    // pipelines without reading the responses cannot fill the heap
+    private final Queue<Object> pending = new ConcurrentLinkedQueue<Object>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean pipelineFull = new AtomicBoolean(false);
+    private final AtomicBoolean dispatching = new AtomicBoolean(false);
+    // Set while a worker drains a batch of requests, their responses are handed to the event loop together once the batch is done
+    private boolean batching = false;
+    // Set by dispatch when an asynchronous servlet returned a pending response, picked up by the worker right after
+    private CompletableFuture<Response> parkedResponse;
+    private ServletRegistry.Generation parkedGeneration;
+
+    // Outgoing data, either ByteBuffers or FileRegions, written in order by the event loop
+    private final Queue<Object> writeQueue = new ConcurrentLinkedQueue<Object>();
+    // Reused by the event loop to hand queued buffers to the channel in one call
+    private final ByteBuffer[] gather = new ByteBuffer[64];
+    // Response headers are encoded into this buffer one after the other. It is only rewound once the event loop has written
+    // everything queued, and only one thread at a time may queue a response.
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(16 * 1024);
+    private final ReentrantLock sendLock = new ReentrantLock();
+    // Bytes of buffers in the write queue, streaming servlets wait for the event loop while there are too many
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final ReentrantLock drainLock = new ReentrantLock();
+    private final Condition drained = drainLock.newCondition();
+    private volatile boolean awaitingDrain = false;
+    private volatile boolean closeAfterWrite = false;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile long lastActive;
+
+    public ChannelConnection(SocketChannel channel, EventLoop loop, SelectionKey key, HTTPServer server) {
+        super(channel.socket(), server);
+        this.channel = channel;
+        this.loop = loop;
+        this.key = key;
+        // One byte more than the largest request head, so the parser sees a head that is too large before the buffer fills up
+        this.readBuffer = ByteBuffer.allocate(getParser().getMaxHeaderSize() + 1);
+        this.lastActive = System.currentTimeMillis();
+        server.getMetrics().connectionOpened();
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return - the time in milliseconds at which data was last read from or written to the client
+     */
+    public long getLastActive() {
+        return lastActive;
+    }
+
+    /**
+     * @return - true if there are no requests being processed and no bytes waiting to be sent
+     */
+    public boolean isIdle() {
+        return !dispatching.get() && pending.isEmpty() && writeQueue.isEmpty();
+    }
+
+    /**
+     * Called by the event loop when the channel is readable. Reads what is available, frames any complete requests and
+     * schedules them for dispatch.
+     * @throws IOException
+     */
+    void onReadable() throws IOException {
+        bodyLock.lock();
+        try {
+            int read = channel.read(readBuffer);
+            if (read == -1) {
+                close();
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+
+            if (bodyPending) {
+                // The worker reading the body decodes the new bytes, stop reading once the buffer is full until it has
+                if (!readBuffer.hasRemaining()) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+                bodyReceived.signalAll();
+                return;
+            }
+            parseRequests();
+        } finally {
+            bodyLock.unlock();
+        }
+
+        scheduleDispatch();
+    }
+
+    /**
+     * Called by the event loop after a worker consumed request body bytes from the read buffer. Once the body is complete
+     * the requests that followed it are parsed.
+     * @throws IOException
+     */
+    void resumeReading() throws IOException {
+        bodyLock.lock();
+        try {
+            if (!bodyPending) {
+                parseRequests();
+            }
+            if (!readStopped && !pipelineFull.get() && readBuffer.hasRemaining()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        } finally {
+            bodyLock.unlock();
+        }
+        scheduleDispatch();
+    }
+
+    /**
+     * Frames the complete requests in the read buffer and queues them for dispatch. Stops after a request with a body,
+     * the bytes after its head are the body, and once max-pipeline requests are queued, then reading pauses and the rest
+     * stays in the buffer until the worker has caught up. Called on the event loop thread with the body lock held.
+     */
+    private void parseRequests() {
+        int maxPipeline = getServer().getMaxPipeline();
+        readBuffer.flip();
+        try {
+            boolean full = false;
+            while (true) {
+                if (pendingCount.get() >= maxPipeline) {
+                    full = true;
+                    break;
+                }
+                Request request = getParser().parse(readBuffer);
+                if (request == null)
+                    break;
+                attachBody(request);
+                queue(request);
+                if (request.hasBody()) {
+                    bodyPending = true;
+                    break;
+                }
+            }
+            readBuffer.compact();
+            // Decided by the loop, not by checking the count again, as the worker may already have taken some of the requests
+            if (full) {
+                pipelineFull.set(true);
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                // The worker may have taken requests before the flag was set, then nobody else would resume reading
+                if (pendingCount.get() < maxPipeline && pipelineFull.compareAndSet(true, false)) {
+                    loop.requestRead(this);
+                }
+            }
+        } catch (HTTPParseException e) {
+            // Nothing after a malformed request can be framed, stop reading and answer it once the earlier requests are done
+            getLogger().verbose("Malformed request received: " + e.getMessage(), getAddress());
+            queue(e);
+            readBuffer.clear();
+            readStopped = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    private void queue(Object request) {
+        pendingCount.incrementAndGet();
+        pending.add(request);
+    }
+
+    /**
+     * Takes the next request to dispatch and asks the event loop to read again if reading was paused because too many were queued
+     * @return - the request, or null if none are queued
+     */
+    private Object nextPending() {
+        Object next = pending.poll();
+        if (next != null && pendingCount.decrementAndGet() < getServer().getMaxPipeline() && pipelineFull.compareAndSet(true, false)) {
+            loop.requestRead(this);
+        }
+        return next;
+    }
+
+    /**
+     * Drops the queued requests when the connection is about to be closed
+     */
+    private void clearPending() {
+        pending.clear();
+        pendingCount.set(0);
+    }
+
+    @Override
+    protected RequestBody.Source getBodySource() {
+        return bodySource;
+    }
+
+    /**
+     * Called by the event loop when the channel is writable, or when a worker has queued new data.
+     * Writes as much of the queue as the socket accepts and registers for write readiness if anything is left over.
+     * @throws IOException
+     */
+    void onWritable() throws IOException {
+        Object head;
+        while ((head = writeQueue.peek()) != null) {
+            boolean done;
+            if (head instanceof FileRegion) {
+                FileRegion region = (FileRegion) head;
+                region.transferTo(channel);
+                done = region.isDone();
+                if (done) {
+                    region.close();
+                    writeQueue.poll();
+                }
+            } else {
+                done = writeBuffers();
+            }
+
+            if (!done) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+        if (closeAfterWrite && isIdle()) {
+            getLogger().verbose("Connection with a client closed (non-persistent)", getAddress());
+            close();
+        }
+    }
+
+    /**
+     * Writes the buffers at the head of the queue, up to the next file, with a single gathering write so the responses to
+     * a batch of pipelined requests leave in as few segments as possible. Fully written buffers are removed from the queue.
+     * @return - true if every buffer was written completely
+     * @throws IOException
+     */
+    private boolean writeBuffers() throws IOException {
+        int count = 0;
+        for (Object item : writeQueue) {
+            if (!(item instanceof ByteBuffer) || count == gather.length)
+                break;
+            gather[count++] = (ByteBuffer) item;
+        }
+
+        long written = channel.write(gather, 0, count);
+        if (queuedBytes.addAndGet(-written) <= getServer().getStreamMaxBuffered() && awaitingDrain) {
+            signalDrained();
+        }
+
+        int done = 0;
+        while (done < count && !gather[done].hasRemaining()) {
+            writeQueue.poll();
+            done++;
+        }
+        Arrays.fill(gather, 0, count, null);
+        return done == count;
+    }
+
+    /**
+     * Closes the channel and cancels its registration with the event loop
+     */
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        getServer().getMetrics().connectionClosed();
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            getLogger().info(e.getMessage(), "");
+        }
+
+        // Release any files that were still queued
+        Object item;
+        while ((item = writeQueue.poll()) != null) {
+            if (item instanceof FileRegion)
+                ((FileRegion) item).close();
+        }
+
+        // A streaming servlet waiting for the queue to drain, or a servlet waiting for its request body, finds the channel closed
+        signalDrained();
+        bodyLock.lock();
+        try {
+            bodyReceived.signalAll();
+        } finally {
+            bodyLock.unlock();
+        }
+    }
+
+    private void signalDrained() {
+        drainLock.lock();
+        try {
+            drained.signalAll();
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    /**
+     * Hands the pending requests to a worker if none is currently processing this connection
+     */
+    private void scheduleDispatch() {
+        if (!pending.isEmpty() && dispatching.compareAndSet(false, true)) {
+            try {
+                loop.getExecutor().execute(this::drainPending);
+            } catch (RejectedExecutionException e) {
+                getServer().recordRejection(getAddress());
+                clearPending();
+                closeAfterWrite = true;
+                enqueue(ByteBuffer.wrap(getServer().getServiceUnavailableResponse()));
+                dispatching.set(false);
+                loop.requestWrite(this);
+            }
+        }
+    }
+
+    /**
+     * Runs on a worker thread. Dispatches queued requests one after another until none are left, or until a request is
+     * parked waiting for an asynchronous servlet.
+     */
+    private void drainPending() {
+        batching = true;
+        while (true) {
+            Object next = nextPending();
+            if (next == null) {
+                batching = false;
+                if (!writeQueue.isEmpty()) {
+                    loop.requestWrite(this);
+                }
+                dispatching.set(false);
+                // A request may have been queued between the poll and releasing the flag
+                if (!pending.isEmpty() && dispatching.compareAndSet(false, true)) {
+                    batching = true;
+                    continue;
+                }
+                return;
+            }
+
+            try {
+                if (next instanceof HTTPParseException) {
+                    closeAfterWrite = true;
+                    sendResponse(buildParseError((HTTPParseException) next));
+                } else {
+                    Request request = (Request) next;
+                    if (getServer().isDebugging()) {
+                        debugHeaders(request);
+                    }
+                    if (!dispatch(request)) {
+                        closeAfterWrite = true;
+                    } else if (parkedResponse != null) {
+                        unpark(request);
+                        return;
+                    } else if (!finishBody(request) || wantsClose(request)) {
+                        closeAfterWrite = true;
+                    }
+                }
+            } catch (IOException e) {
+                getLogger().info(e.getMessage(), getAddress());
+                closeAfterWrite = true;
+            }
+
+            if (!continueDraining()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Called after a request has been answered
+     * @return - true if the worker should go on with the next request, false if the connection is being closed
+     */
+    private boolean continueDraining() {
+        if (closeAfterWrite || !getServer().areConnectionsPersistent()) {
+            closeAfterWrite = true;
+            batching = false;
+            clearPending();
+            dispatching.set(false);
+            loop.requestWrite(this);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The worker does not wait for an asynchronous servlet, the connection keeps its dispatching flag so the requests after
+     * this one stay queued, and a worker picks the connection up again once the response is ready.
+     */
+    @Override
+    protected boolean park(Request request, CompletableFuture<Response> response, ServletRegistry.Generation generation) {
+        // Only recorded here, the completion is registered once the worker has stopped touching the connection
+        parkedResponse = response;
+        parkedGeneration = generation;
+        return true;
+    }
+
+    /**
+     * Releases the worker from a parked request. The responses to the requests before it are sent while the servlet works.
+     * @param request - the parked request
+     */
+    private void unpark(Request request) {
+        CompletableFuture<Response> response = parkedResponse;
+        ServletRegistry.Generation generation = parkedGeneration;
+        parkedResponse = null;
+        parkedGeneration = null;
+        batching = false;
+        if (!writeQueue.isEmpty()) {
+            loop.requestWrite(this);
+        }
+
+        response.whenComplete((rsp, failure) -> {
+            Runnable resume = () -> resume(request, rsp, failure, generation);
+            try {
+                loop.getExecutor().execute(resume);
+            } catch (RejectedExecutionException e) {
+                // The response is ready, sending it from the completing thread beats dropping it
+                resume.run();
+            }
+        });
+    }
+
+    /**
+     * Runs on a worker thread once an asynchronous servlet has completed. Sends the response and carries on with the
+     * requests that were received in the meantime.
+     */
+    private void resume(Request request, Response rsp, Throwable failure, ServletRegistry.Generation generation) {
+        batching = true;
+        try {
+            if (!completeAsync(request, rsp, failure, generation) || !finishBody(request) || wantsClose(request)) {
+                closeAfterWrite = true;
+            }
+        } catch (IOException e) {
+            getLogger().info(e.getMessage(), getAddress());
+            closeAfterWrite = true;
+        }
+
+        if (continueDraining()) {
+            drainPending();
+        }
+    }
+
+    /**
+     * Queues the response for the event loop to write to the client. The headers and body go out together in the event loop's
+     * gathering write. While a batch of pipelined requests is being dispatched
+     * the event loop is only woken once the whole batch has been answered.
+     * @param rsp - the response to send
+     * @return - true once the response has been queued
+     * @throws IOException
+     */
+    @Override
+    public boolean sendResponse(Response rsp) throws IOException {
+        if (!channel.isOpen()) {
+            throw new IOException("Connection closed");
+        }
+        markResponded(rsp);
+        encode(rsp);
+        sendLock.lock();
+        try {
+            if (writeQueue.isEmpty()) {
+                headerBuffer.clear();
+            }
+            ByteBuffer headers = encodeHeaders(rsp, headerBuffer);
+            enqueue(headers != null ? headers : ByteBuffer.wrap(rsp.getHeaderBytes()));
+
+            if (rsp.getBodyFile() != null) {
+                if (rsp.getContentLength() > 0)
+                    writeQueue.add(new FileRegion(rsp.getBodyFile(), 0, rsp.getContentLength()));
+            } else if (rsp.getBodyBuffers() != null) {
+                for (ByteBuffer buf : rsp.getBodyBuffers()) {
+                    enqueue(buf);
+                }
+            } else if (rsp.getBody() != null && rsp.getBody().length > 0) {
+                enqueue(ByteBuffer.wrap(rsp.getBody()));
+            }
+        } finally {
+            sendLock.unlock();
+        }
+        if (!batching) {
+            loop.requestWrite(this);
+        }
+        return true;
+    }
+
+    /**
+     * Queues a chunk of a streamed response body for the event loop. The stream hands over its buffer, so nothing is copied.
+     * When more than the configured number of bytes are waiting to be sent, the worker waits for the client to catch up
+     * so a fast servlet and a slow client cannot fill the heap.
+     * @param chunk - the framed chunk
+     * @throws IOException
+     */
+    @Override
+    void writeChunk(ByteBuffer[] chunk) throws IOException {
+        enqueueChunk(chunk);
+        loop.requestWrite(this);
+        awaitDrain();
+    }
+
+    @Override
+    void writeLastChunk(ByteBuffer[] chunk) throws IOException {
+        enqueueChunk(chunk);
+        if (!batching)
+            loop.requestWrite(this);
+    }
+
+    private void enqueueChunk(ByteBuffer[] chunk) throws IOException {
+        if (!channel.isOpen()) {
+            throw new IOException("Connection closed");
+        }
+        sendLock.lock();
+        try {
+            for (ByteBuffer buf : chunk) {
+                enqueue(buf);
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    @Override
+    boolean retainsChunks() {
+        return true;
+    }
+
+    /**
+     * Blocks until the bytes queued for the client are back within the configured limit
+     * @throws IOException if the connection is closed while waiting
+     */
+    private void awaitDrain() throws IOException {
+        int limit = getServer().getStreamMaxBuffered();
+        if (queuedBytes.get() <= limit) {
+            return;
+        }
+        drainLock.lock();
+        awaitingDrain = true;
+        try {
+            while (queuedBytes.get() > limit) {
+                if (!channel.isOpen()) {
+                    throw new IOException("Connection closed");
+                }
+                drained.await(1000, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the client");
+        } finally {
+            awaitingDrain = false;
+            drainLock.unlock();
+        }
+    }
+
+    private void enqueue(ByteBuffer buf) {
+        queuedBytes.addAndGet(buf.remaining());
+        writeQueue.add(buf);
+    }
+
+    /**
+     * Reads request bodies on the worker thread out of the buffer the event loop reads into, waiting for the event loop
+     * when the buffer runs dry and asking it to read again when room has been made.
+     */
+    private class ChannelBodySource implements RequestBody.Source {
+        @Override
+        public int read(BodyDecoder decoder, byte[] b, int off, int len) throws IOException {
+            bodyLock.lock();
+            try {
+                long timeout = Math.max(1000, getServer().getPersistentConnectionTimeout());
+                long deadline = System.currentTimeMillis() + timeout;
+                while (true) {
+                    boolean wasFull = !readBuffer.hasRemaining();
+                    readBuffer.flip();
+                    int n;
+                    try {
+                        n = decoder.decode(readBuffer, b, off, len);
+                    } finally {
+                        readBuffer.compact();
+                    }
+
+                    boolean complete = decoder.isComplete();
+                    if (complete) {
+                        bodyPending = false;
+                    }
+                    if (complete || (wasFull && readBuffer.hasRemaining())) {
+                        loop.requestRead(ChannelConnection.this);
+                    }
+                    if (n > 0) {
+                        return n;
+                    }
+                    if (complete) {
+                        return -1;
+                    }
+
+                    if (!channel.isOpen()) {
+                        throw new EOFException("The client closed the connection before sending the whole request body");
+                    }
+                    // Responses held back for the batch go out first, the client may be waiting for them before it sends more
+                    if (!writeQueue.isEmpty()) {
+                        loop.requestWrite(ChannelConnection.this);
+                    }
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new SocketTimeoutException("Timed out waiting for the request body");
+                    }
+                    try {
+                        bodyReceived.await(wait, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the request body");
+                    }
+                    if (readBuffer.position() > 0) {
+                        deadline = System.currentTimeMillis() + timeout;
+                    }
+                }
+            } finally {
+                bodyLock.unlock();
+            }
+        }
+
+        @Override
+        public void sendContinue() throws IOException {
+            sendLock.lock();
+            try {
+                enqueue(ByteBuffer.wrap(CONTINUE_RESPONSE));
+            } finally {
+                sendLock.unlock();
+            }
+            loop.requestWrite(ChannelConnection.this);
+        }
+    }
+}
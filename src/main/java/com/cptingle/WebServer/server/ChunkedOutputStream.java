@@ -0,0 +1,161 @@
+package com.cptingle.WebServer.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The body of a streamed response, sent with Transfer-Encoding: chunked. Bytes written to the stream are collected in a
+ * buffer of a fixed size and sent as one chunk whenever it fills up or flush() is called, so a servlet can produce a body
+ * of any length with constant memory. Closing the stream sends the last chunk and completes the response.
+ * Obtained from {@link ClientConnection#startStreaming(com.cptingle.WebServer.messaging.Response)}, not thread safe.
+ */
+public class ChunkedOutputStream extends OutputStream implements WritableByteChannel {
+    // Room in front of the data for the chunk size in hex and its line break, and behind it for the closing line break
+    private static final int HEAD_ROOM = 10;
+    private static final int TAIL_ROOM = 2;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final ClientConnection conn;
+    private final int chunkSize;
+    private byte[] buf;
+    private int count;
+    private boolean closed;
+
+    /**
+     * @param conn - the connection the response headers have been sent on
+     * @param chunkSize - the most data bytes to collect before sending them as a chunk
+     */
+    ChunkedOutputStream(ClientConnection conn, int chunkSize) {
+        this.conn = conn;
+        this.chunkSize = chunkSize;
+        this.buf = new byte[HEAD_ROOM + chunkSize + TAIL_ROOM];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == chunkSize) {
+            sendChunk();
+        }
+        buf[HEAD_ROOM + count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if ((off | len | (b.length - (len + off))) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            if (count == chunkSize) {
+                sendChunk();
+            }
+            int n = Math.min(len, chunkSize - count);
+            System.arraycopy(b, off, buf, HEAD_ROOM + count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            if (count == chunkSize) {
+                sendChunk();
+            }
+            int n = Math.min(src.remaining(), chunkSize - count);
+            src.get(buf, HEAD_ROOM + count, n);
+            count += n;
+        }
+        return written;
+    }
+
+    /**
+     * Sends the collected bytes as a chunk straight away, along with the response headers if they have not been sent yet
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        sendChunk();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Sends the remaining bytes and the last chunk, completing the response. Closing the stream does not close the connection.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        conn.endStreaming(this);
+
+        // The last chunk goes out with the final data chunk and is written along with the connection's next responses.
+        // The buffer is never used again, so it can stay queued until then.
+        int start = frame();
+        int end = count == 0 ? start : HEAD_ROOM + count + TAIL_ROOM;
+        ByteBuffer data = ByteBuffer.wrap(buf, start, end - start);
+        conn.writeLastChunk(new ByteBuffer[]{data, ByteBuffer.wrap(LAST_CHUNK)});
+        buf = null;
+    }
+
+    /**
+     * Sends the collected bytes as a chunk. Without any, whatever is queued ahead of the stream is still sent.
+     * @throws IOException
+     */
+    private void sendChunk() throws IOException {
+        if (count == 0) {
+            conn.writeChunk(new ByteBuffer[0]);
+            return;
+        }
+        int start = frame();
+        conn.writeChunk(new ByteBuffer[]{ByteBuffer.wrap(buf, start, HEAD_ROOM + count + TAIL_ROOM - start)});
+        // Connections that write in the background keep the buffer until it has been sent
+        if (conn.retainsChunks()) {
+            buf = new byte[HEAD_ROOM + chunkSize + TAIL_ROOM];
+        }
+        count = 0;
+    }
+
+    /**
+     * Writes the chunk size line in front of the data and the line break behind it
+     * @return - the index the framed chunk starts at
+     */
+    private int frame() {
+        int i = HEAD_ROOM;
+        if (count == 0) {
+            return i;
+        }
+        buf[--i] = '\n';
+        buf[--i] = '\r';
+        int n = count;
+        do {
+            buf[--i] = HEX[n & 0xF];
+            n >>>= 4;
+        } while (n != 0);
+        buf[HEAD_ROOM + count] = '\r';
+        buf[HEAD_ROOM + count + 1] = '\n';
+        return i;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -1,59 +1,79 @@
 package com.cptingle.WebServer.server;
 
+import com.cptingle.WebServer.exceptions.HTTPParseException;
+import com.cptingle.WebServer.exceptions.RequestBodyException;
 import com.cptingle.WebServer.exceptions.YAMLConfigurationException;
+import com.cptingle.WebServer.messaging.BodyDecoder;
 import com.cptingle.WebServer.messaging.Method;
 import com.cptingle.WebServer.messaging.Request;
+import com.cptingle.WebServer.messaging.RequestBody;
+import com.cptingle.WebServer.messaging.RequestParser;
 import com.cptingle.WebServer.messaging.Response;
+import com.cptingle.WebServer.metrics.MetricsRegistry;
 import com.cptingle.WebServer.response.Status;
+import com.cptingle.WebServer.routing.Route;
+import com.cptingle.WebServer.routing.Router;
 import com.cptingle.WebServer.util.FileParser;
-import com.cptingle.WebServer.util.Utility;
-import com.cptingle.WebServer.util.configuration.Configuration;
+import com.cptingle.WebServer.util.configuration.ServerSettings;
 import com.cptingle.WebServer.util.logging.LogLevel;
 import com.cptingle.WebServer.util.logging.Logger;
 
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A connection with a client, shared by the transports. Routes the requests read from the client to the servlets or the
+ * static files and records them, while the subclasses read the requests and write the responses.
+ * {@link BlockingConnection} serves the client from a thread of its own, {@link ChannelConnection} is driven by an {@link EventLoop}.
+ */
+public abstract class ClientConnection {
+    // The interim response to "Expect: 100-continue"
+    protected static final byte[] CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
 
-public class ClientConnection implements Runnable {
-    private static File WEB_ROOT;
     private HTTPServer server;
 
     private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
-    private BufferedOutputStream bytesOut;
-    private Configuration config;
-
-    private int connectionTimeout;
+    private RequestParser parser;
+    // The request being dispatched, responses are encoded according to what its client accepts
+    private Request currentRequest;
+    // The body of the response being streamed, if any
+    private ChunkedOutputStream stream;
+    // Whether a response has been sent for the request being dispatched
+    private boolean responded;
+    // Receives the path parameter offsets of each routed request
+    private final int[] routeParams = new int[Router.MAX_PARAMS * 2];
+    // When the request being dispatched started and the route it is recorded under in the metrics
+    private long requestStart;
+    private String requestRoute;
 
 
     public ClientConnection(Socket socket, HTTPServer server) {
         this.socket = socket;
         this.server = server;
-        this.config = server.getConfig();
+        // One read of the current settings, so the connection is set up from a single consistent snapshot
+        ServerSettings settings = server.getSettings();
+        this.parser = new RequestParser(server, settings.getIndexPage(), settings.getMaxRequestLine(), settings.getMaxHeaderSize(), settings.getMaxBodySize());
+
+        // Responses are coalesced before they are written, so Nagle's algorithm would only hold back the last segment of a batch
+        // until the client's delayed ACK arrives
         try {
-            WEB_ROOT = new File(config.getSection("files").getString("web-root", "."));
-        } catch (YAMLConfigurationException e) {
+            socket.setTcpNoDelay(true);
+        } catch (SocketException e) {
             e.printStackTrace();
         }
-
-        // If the config value for persistent connections is set, then set the socket timeout to a non-zero value as specified in the config.
-        // Setting a timeout will cause the socket to throw a timeout exception after the specified amount of milliseconds.
-        if (server.areConnectionsPersistent()) {
-            try {
-                socket.setSoTimeout(server.getPersistentConnectionTimeout());
-            } catch (SocketException e) {
-                e.printStackTrace();
-            }
-        }
     }
 
     public HTTPServer getServer() {
@@ -72,209 +92,344 @@ public class ClientConnection implements Runnable {
         return server.getLogger();
     }
 
-    @Override
-    public void run() {
-
-        // While the socket is not timed out or closed, listen for and process HTTP requests
-        while(true) {
-            List<String> headers = new ArrayList<String>();
-            Map<String, String> headerMap = new HashMap<String, String>();
-            Map<String, String> cookies = new HashMap<String, String>();
-            try {
-                // Open input and output streams/writers to facilitate communication with the client
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                out = new PrintWriter(socket.getOutputStream());
-                bytesOut = new BufferedOutputStream(socket.getOutputStream());
-
-                // Read all of the headers line by line into the list of headers
-                String inputLine;
-                while (!(inputLine = in.readLine()).equals("")) {
-                    headers.add(inputLine);
-                }
+    /**
+     * @return - the parser used to frame requests read from this connection
+     */
+    protected RequestParser getParser() {
+        return parser;
+    }
 
-                getLogger().verbose("Request received from client", getAddress());
+    /**
+     * @param request - the request
+     * @return - true if the client sent "Connection: close" and will not send another request
+     */
+    protected boolean wantsClose(Request request) {
+        String connection = request.getHeaderValue("connection");
+        return connection != null && connection.equalsIgnoreCase("close");
+    }
+    /**
+     * Builds the error response for a request that could not be parsed. The connection is closed after it is sent.
+     * @param ex - the parse failure
+     * @return - the response
+     */
+    protected Response buildParseError(HTTPParseException ex) {
+        server.getMetrics().recordParseError();
+        Response resp = new Response(this, ex.getStatus());
+        resp.buildErrorPage(server.areConnectionsPersistent() ? Collections.singletonList("Connection: close") : null);
+        return resp;
+    }
 
-                // Debug headers and cookies
-                if (server.isDebugging()) {
-                    getLogger().debug("RECEIVED HEADERS\n", getAddress());
-                    for (String header : headers) {
-                        getLogger().debug(header, getAddress());
-                    }
-                }
+    /**
+     * Writes the request line and headers of a request to the debug log
+     * @param request - the request
+     */
+    protected void debugHeaders(Request request) {
+        getLogger().debug("RECEIVED HEADERS\n", getAddress());
+        getLogger().debug(request.getMethod() + " " + request.getPath(), getAddress());
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            getLogger().debug(header.getKey() + ": " + header.getValue(), getAddress());
+        }
+    }
 
-                String firstLine = headers.remove(0);
-                String method = firstLine.split(" ")[0];
-                String filePath = firstLine.split(" ")[1];
+    /**
+     * Passes the request to the servlet registered for its path, or serves the file from the web root if there is none
+     * @param request - the request to handle
+     * @return - true if the connection can be used for another request, false if it has to be closed
+     * @throws IOException
+     */
+    protected boolean dispatch(Request request) throws IOException {
+        currentRequest = request;
+        responded = false;
+        requestStart = System.nanoTime();
+        requestRoute = MetricsRegistry.STATIC_ROUTE;
+        // The servlets stay loaded until the request is done with them, even if they are reloaded meanwhile
+        ServletRegistry.Generation generation = server.getServlets().acquire();
+        boolean parked = false;
+        try {
+            HTTPServlet servlet = null;
+            Route route = generation.getRouter().find(request.getPath(), routeParams);
+            if (route != null) {
+                request.setRoute(route, routeParams);
+                servlet = route.getServlet();
+                requestRoute = route.getPattern();
+            }
 
-                if (filePath.substring(filePath.length() - 1).equals("/")) {
-                    filePath += config.getString("index-page", "index.html");
+            if (servlet instanceof AsyncServlet) {
+                // The servlet may finish the request on another thread while this connection routes the next one
+                request.retainRoute();
+                CompletionStage<Response> stage = ((AsyncServlet) servlet).service(this, request);
+                if (stage != null) {
+                    parked = true;
+                    return park(request, withTimeout(stage), generation);
                 }
+            }
 
-                Request request = new Request(server, Method.valueOf(method), filePath, headers);
-
-                HTTPServlet servlet = server.getServlet(request.getPath());
-
-                // If the config value for persistent connections is set, then set the socket timeout to the value specified in the headers otherwise use com.cptingle.WebServer.server config val.
-                if (server.areConnectionsPersistent() && request.getHeaderValue("keep-alive") != null) {
-                    try {
-                        String hdr = request.getHeaderValue("keep-alive");
-                        String[] attrSplit = hdr.split(",");
-                        Map<String, String> tempMap = new HashMap<String, String>();
-                        for (String s : attrSplit) {
-                            String[] tmp = s.split("=");
-                            tempMap.put(tmp[0], tmp[1]);
-                        }
-                        socket.setSoTimeout(Integer.parseInt(tempMap.get("timeout")) * 1000);
-                    } catch (SocketException e) {
-                        e.printStackTrace();
-                    } catch (NullPointerException e) {
-                        getLogger().verbose("Malformed headers received", getAddress());
+            // Switch the request method and pass the request to the appropriate function
+            switch (request.getMethod()) {
+                case GET:
+                    if (servlet != null) {
+                        servlet.get(this, request);
+                    } else {
+                        server.getStaticFiles().get(this, request);
                     }
-                }
+                    break;
+                case HEAD:
+                    if (servlet != null) {
+                        servlet.head(this, request);
+                    } else {
+                        server.getStaticFiles().head(this, request);
+                    }
+                    break;
+                case POST:
+                    if (servlet != null) {
+                        servlet.post(this, request);
+                    } else {
 
-                // Switch the request method and pass the request to the appropriate function
-                switch (request.getMethod()) {
-                    case GET:
-                        if (servlet != null) {
-                            servlet.get(this, request);
-                        } else {
-                            if (Files.exists(Paths.get(WEB_ROOT + request.getPath()))) {
-                                Response resp = new Response(this, Status.OK, new File(WEB_ROOT + request.getPath()));
-                                sendResponse(resp);
-                            } else {
-                                Response resp = new Response(this, Status.NOT_FOUND);
-                                resp.buildErrorPage();
-                                sendResponse(resp);
-                            }
-                        }
-                        break;
-                    case HEAD:
-                        if (servlet != null) {
-                            servlet.head(this, request);
-                        } else {
-
-                        }
-                        break;
-                    case POST:
-                        if (servlet != null) {
-                            servlet.post(this, request);
-                        } else {
-
-                        }
-                        break;
-                    case PUT:
-                        if (servlet != null) {
-                            servlet.put(this, request);
-                        } else {
-
-                        }
-                        break;
-                    case DELETE:
-                        if (servlet != null) {
-                            servlet.delete(this, request);
-                        } else {
-
-                        }
-                        break;
-                    case PATCH:
-                        if (servlet != null) {
-                            servlet.patch(this, request);
-                        } else {
-
-                        }
-                        break;
-                }
+                    }
+                    break;
+                case PUT:
+                    if (servlet != null) {
+                        servlet.put(this, request);
+                    } else {
 
+                    }
+                    break;
+                case DELETE:
+                    if (servlet != null) {
+                        servlet.delete(this, request);
+                    } else {
 
-                // If connections are not persistent, close all socket connections.
-                if (!server.areConnectionsPersistent()) {
-                    getLogger().verbose("Connection with a client closed (non-persistent)", getAddress());
-                    in.close();
-                    bytesOut.close();
-                    out.close();
-                    socket.close();
+                    }
                     break;
-                }
-            } catch (FileNotFoundException ex) {
-                try {
-                    if(!sendResponse(Status.NOT_FOUND, "<html><head><title>Page not found</title></head><body>404 Page not found</body></html>")){
-                        getLogger().info("Error sending response to client", getAddress());
+                case PATCH:
+                    if (servlet != null) {
+                        servlet.patch(this, request);
+                    } else {
+
                     }
-                } catch (IOException ex1) {
-                    getLogger().severe("An exception was encountered in generating the error page" + ex1.getMessage(), getAddress());
-                    System.err.println("An exception was encountered in generating the error page: " + ex1.getMessage());
-                }
-            } catch (SocketTimeoutException ex) {
-                // Catch the SocketTimeoutException and close all of the streams and socket.
-                getLogger().verbose("Connection with a client timed out and was closed (persistent)", getAddress());
-                try {
-                    in.close();
-                    bytesOut.close();
-                    out.close();
-                    socket.close();
-                } catch (IOException ex1) {
-                    getLogger().info(ex1.getMessage(), "");
-                }
-                break;
-            } catch (IOException ex) {
-                getLogger().info(ex.getMessage(), "");
-                break;
+                    break;
+            }
+
+            // A servlet that did not close its response stream still has to end the body before the next response
+            if (stream != null) {
+                stream.close();
+            }
+            return true;
+        } finally {
+            if (!parked) {
+                generation.release();
             }
         }
     }
 
     /**
-     * Sends a com.cptingle.WebServer.response to the client provided a com.cptingle.WebServer.response code and a file to send
-     * @param code - Response code to send
-     * @param file - The file to send
-     * @throws IOException
+     * @param stage - the stage returned by an asynchronous servlet
+     * @return - a future completing with the servlet's response, or with a TimeoutException once the configured timeout passes
      */
-    private boolean sendResponse(Status code, Object file) throws IOException {
-        return sendResponse(code, null, file);
+    private CompletableFuture<Response> withTimeout(CompletionStage<Response> stage) {
+        // A separate future, so the timeout does not complete the servlet's own stage
+        CompletableFuture<Response> response = new CompletableFuture<Response>();
+        stage.whenComplete((rsp, failure) -> {
+            if (failure != null) {
+                response.completeExceptionally(failure);
+            } else {
+                response.complete(rsp);
+            }
+        });
+        if (server.getAsyncTimeout() > 0) {
+            response.orTimeout(server.getAsyncTimeout(), TimeUnit.MILLISECONDS);
+        }
+        return response;
     }
+    /**
+     * Waits for or arranges to send the response of an asynchronous servlet, see {@link #completeAsync}
+     * @param request - the request being answered
+     * @param response - completes with the response
+     * @param generation - the servlets the request was dispatched to, released once the response has been sent
+     * @return - true if the connection can be used for another request, false if it has to be closed
+     * @throws IOException
+     */
+    protected abstract boolean park(Request request, CompletableFuture<Response> response, ServletRegistry.Generation generation) throws IOException;
 
-    public boolean sendResponse(Response rsp) throws IOException {
-        out.print(rsp.getHeaders());
-        out.flush();
+    /**
+     * Sends the response an asynchronous servlet completed with. A servlet that ran out of time is answered with 504 Gateway
+     * Timeout, one that failed or completed without a response with 500 Internal Server Error.
+     * @param request - the request being answered
+     * @param rsp - the response, or null if there is none
+     * @param failure - what the stage completed exceptionally with, or null
+     * @param generation - the servlets the request was dispatched to, released once the response has been sent
+     * @return - true if the connection can be used for another request, false if it has to be closed
+     * @throws IOException
+     */
+    protected boolean completeAsync(Request request, Response rsp, Throwable failure, ServletRegistry.Generation generation) throws IOException {
+        currentRequest = request;
+        try {
+            if (failure instanceof CompletionException && failure.getCause() != null) {
+                failure = failure.getCause();
+            }
+
+            if (failure instanceof TimeoutException) {
+                // The servlet may still be reading the request body, the connection can't be used for another request
+                getLogger().warn("Asynchronous servlet did not respond to " + request.getPath() + " within " + server.getAsyncTimeout() + "ms", getAddress());
+                Response resp = new Response(this, Status.GATEWAY_TIMEOUT);
+                resp.buildErrorPage(server.areConnectionsPersistent() ? Collections.singletonList("Connection: close") : null);
+                sendResponse(resp);
+                return false;
+            }
 
-        bytesOut.write(rsp.getBody(), 0, rsp.getBody().length);
-        bytesOut.flush();
-        return true;
+            if (failure != null || rsp == null) {
+                getLogger().warn("Asynchronous servlet failed to respond to " + request.getPath() + (failure != null ? ": " + failure : ""), getAddress());
+                rsp = new Response(this, Status.INTERNAL_SERVER_ERROR);
+                rsp.buildErrorPage();
+            }
+            sendResponse(rsp);
+            return true;
+        } finally {
+            generation.release();
+        }
     }
+    /**
+     * Queues the response to be written to the client
+     * @param rsp - the response to send
+     * @return - true once the response has been queued
+     * @throws IOException
+     */
+    public abstract boolean sendResponse(Response rsp) throws IOException;
 
     /**
-     * Sends a com.cptingle.WebServer.response to the client provided a com.cptingle.WebServer.response code, additional headers, and a file to send
-     * @param code - Response code to send
-     * @param extraHeaders - Extra headers such as cookies
-     * @param file - The file to send
+     * Attaches a stream that reads the body from this connection to a request that has a body
+     * @param request - the request
+     */
+    protected void attachBody(Request request) {
+        if (!request.hasBody()) {
+            return;
+        }
+        BodyDecoder decoder = request.isChunked() ? BodyDecoder.chunked(parser.getMaxBodySize()) : BodyDecoder.fixed(request.getContentLength());
+        request.setBody(new RequestBody(decoder, getBodySource(), request.expectsContinue()));
+    }
+    /**
+     * @return - the source request bodies read from
+     */
+    protected abstract RequestBody.Source getBodySource();
+
+    /**
+     * Discards the part of the request body the servlet did not read, so the next request can be read from the connection.
+     * If the body turned out to be malformed or too large and the servlet did not respond, the error is sent to the client.
+     * @param request - the request that was dispatched
+     * @return - true if the connection can be used for another request, false if it has to be closed
      * @throws IOException
      */
-    private boolean sendResponse(Status code, List<String> extraHeaders, Object file) throws IOException {
-        int fileLength;
-        byte[] fileData;
-
-        // Sometimes a file is provided (in the case of 404) but other times the file is provided in the form of a String (the result of the FileParser)
-        if (file instanceof File) {
-            fileLength = (int) ((File) file).length();
-            fileData = Utility.fileToByteArray((File) file);
-        } else if (file instanceof String) {
-            fileData = ((String) file).getBytes("UTF-8");
-            fileLength = fileData.length;
+    protected boolean finishBody(Request request) throws IOException {
+        RequestBody body = request.getBody();
+        if (body.isComplete() || body.drain(server.getMaxDrainSize())) {
+            return true;
+        }
+
+        if (body.getFailure() instanceof RequestBodyException) {
+            RequestBodyException ex = (RequestBodyException) body.getFailure();
+            getLogger().verbose("Malformed request body received: " + ex.getMessage(), getAddress());
+            if (!responded) {
+                Response resp = new Response(this, ex.getStatus());
+                resp.buildErrorPage(server.areConnectionsPersistent() ? Collections.singletonList("Connection: close") : null);
+                sendResponse(resp);
+            }
         } else {
-            return false;
+            getLogger().verbose("Request body left unread, closing the connection", getAddress());
         }
+        return false;
+    }
 
-        // Builds and sends the header using the helper method in the Utility class
-        String headers = Utility.buildHeaders(this, code, extraHeaders, "text/html", fileLength);
+    /**
+     * Records that a response has been sent for the request being dispatched in the metrics, which allocates nothing, and
+     * in the http log if the access log has been turned on
+     * @param rsp - the response
+     */
+    void markResponded(Response rsp) {
+        if (responded) {
+            return;
+        }
+        responded = true;
+        if (currentRequest == null) {
+            return;
+        }
+        if (requestStart != 0) {
+            server.getMetrics().recordRequest(requestRoute, rsp.getStatus(), System.nanoTime() - requestStart);
+            requestStart = 0;
+        }
+        Logger logger = getLogger();
+        if (logger.isAccessLogEnabled()) {
+            logger.logAccess(socket.getInetAddress(), currentRequest.getHeaderValue("host"), currentRequest.getMethod().name(), currentRequest.getPath(), rsp.getStatus().getStatusCode());
+        }
+    }
 
-        getLogger().debug("SENDING HEADERS\n" + headers, getAddress());
+    /**
+     * Sends the headers of a response whose body is streamed with Transfer-Encoding: chunked, for servlets that produce
+     * large bodies or want the client to receive the start of the body before the rest is ready. The body is written to the
+     * returned stream, which must be closed to complete the response before another response is sent.
+     * @param rsp - the response, any body it already has is ignored
+     * @return - the stream to write the body to
+     * @throws IOException
+     */
+    public ChunkedOutputStream startStreaming(Response rsp) throws IOException {
+        if (stream != null) {
+            throw new IllegalStateException("The previous streamed response has not been completed");
+        }
+        rsp.setChunked();
+        sendResponse(rsp);
+        stream = new ChunkedOutputStream(this, server.getStreamChunkSize());
+        return stream;
+    }
+
+    /**
+     * Called when a streamed response has been completed
+     * @param completed - the stream that was closed
+     */
+    void endStreaming(ChunkedOutputStream completed) {
+        if (stream == completed) {
+            stream = null;
+        }
+    }
+    /**
+     * Sends a chunk of a streamed response body, along with anything queued before it such as the response headers
+     * @param chunk - the framed chunk, may be empty to only send what is queued
+     * @throws IOException
+     */
+    abstract void writeChunk(ByteBuffer[] chunk) throws IOException;
 
-        out.print(headers);
-        out.flush();
+    /**
+     * Queues the end of a streamed response body, which is sent together with the connection's next responses
+     * @param chunk - the final data chunk, if any, and the last chunk
+     * @throws IOException
+     */
+    abstract void writeLastChunk(ByteBuffer[] chunk) throws IOException;
 
-        // Writes the file/string data in byte array form
-        bytesOut.write(fileData, 0, fileLength);
-        bytesOut.flush();
-        return true;
+    /**
+     * @return - true if chunks are still referenced after writeChunk() returns, so the stream needs a new buffer for the next one
+     */
+    abstract boolean retainsChunks();
+
+    /**
+     * Encodes the response headers behind anything already in the buffer
+     * @param rsp - the response
+     * @param buf - the header buffer, in write mode
+     * @return - a view of the encoded headers, or null if they don't fit in the space left
+     */
+    protected static ByteBuffer encodeHeaders(Response rsp, ByteBuffer buf) {
+        int start = buf.position();
+        if (!rsp.writeHeaders(buf)) {
+            return null;
+        }
+        ByteBuffer view = buf.duplicate();
+        view.flip();
+        view.position(start);
+        return view.slice();
+    }
+
+    /**
+     * Compresses the response body if it is worth compressing and the client of the request being answered accepts it
+     * @param rsp - the response about to be sent
+     */
+    protected void encode(Response rsp) {
+        server.getCompressor().apply(currentRequest, rsp);
     }
 }
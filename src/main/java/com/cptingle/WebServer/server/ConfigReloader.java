@@ -0,0 +1,171 @@
+package com.cptingle.WebServer.server;
+
+import com.cptingle.WebServer.exceptions.YAMLConfigurationException;
+import com.cptingle.WebServer.files.InvalidationListener;
+import com.cptingle.WebServer.files.WebRootWatcher;
+import com.cptingle.WebServer.util.configuration.Configuration;
+import com.cptingle.WebServer.util.configuration.ServerSettings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the configuration file and reloads the server settings when it changes, without a restart. The file is only
+ * read once it has been unchanged for the reload delay, so an editor saving it in several steps causes a single reload.
+ * A file that can't be parsed or has invalid values is reported and ignored, the settings in effect stay as they are.
+ * Only the keys read into the {@link ServerSettings} are applied, changes to any other key are reported as needing a restart.
+ */
+class ConfigReloader implements InvalidationListener {
+    private final HTTPServer server;
+    private final Path file;
+    private boolean hotReload = true;
+    private int reloadDelay = 500;
+
+    private WebRootWatcher watcher;
+    private ScheduledExecutorService reloader;
+    private ScheduledFuture<?> pendingReload;
+
+    ConfigReloader(HTTPServer server) {
+        this.server = server;
+        Path file = server.getConfig().getFile();
+        this.file = file != null ? file.toAbsolutePath().normalize() : null;
+        try {
+            Configuration section = server.getConfig().getSection("configuration");
+            this.hotReload = section.getBoolean("hot-reload", true);
+            this.reloadDelay = section.getInt("reload-delay", 500);
+        } catch (YAMLConfigurationException e) {
+            // Not configured, reloading stays on
+        }
+    }
+
+    /**
+     * Starts watching the directory of the configuration file if hot reloading is enabled
+     */
+    void start() {
+        if (!hotReload || file == null || file.getParent() == null) {
+            return;
+        }
+        try {
+            watcher = new WebRootWatcher(file.getParent());
+            watcher.addListener(this);
+            reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "config-reloader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            watcher.start("config-watcher");
+        } catch (IOException e) {
+            server.getLogger().warn("Unable to watch the configuration file, changes take effect after a restart: " + e.getMessage(), "");
+        }
+    }
+
+    void close() {
+        if (watcher != null)
+            watcher.close();
+        if (reloader != null)
+            reloader.shutdownNow();
+    }
+
+    /**
+     * Reads the configuration file and hands the new settings to the server if they are valid
+     */
+    void reload() {
+        // Editors that save by replacing the file leave it missing for a moment, a later event reloads it
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+
+        Configuration reloaded;
+        try {
+            reloaded = new Configuration(file.toString());
+        } catch (RuntimeException e) {
+            server.getLogger().warn("Configuration file " + file + " could not be parsed, keeping the current settings: " + e.getMessage(), "");
+            return;
+        }
+        if (reloaded.getKeys().isEmpty()) {
+            server.getLogger().warn("Configuration file " + file + " is empty, keeping the current settings", "");
+            return;
+        }
+
+        List<String> problems = new ArrayList<String>();
+        ServerSettings next = ServerSettings.load(reloaded, problems);
+        if (!problems.isEmpty()) {
+            server.getLogger().warn("Configuration file " + file + " is invalid, keeping the current settings: " + String.join("; ", problems), "");
+            return;
+        }
+
+        List<String> changed = new ArrayList<String>();
+        collectChanges(server.getConfig(), reloaded, "", changed);
+        changed.removeIf(ServerSettings::covers);
+        if (!changed.isEmpty()) {
+            server.getLogger().warn("Configuration changes to " + String.join(", ", changed) + " take effect after a restart", "");
+        }
+        server.applySettings(reloaded, next);
+    }
+
+    /**
+     * Collects the keys whose values differ between two configurations, descending into the sections both of them have
+     * @param before - the configuration in effect
+     * @param after - the reloaded configuration
+     * @param prefix - the names of the enclosing sections, each followed by a dot
+     * @param changed - receives the changed keys, prefixed with their sections
+     */
+    private static void collectChanges(Configuration before, Configuration after, String prefix, List<String> changed) {
+        Set<String> keys = new LinkedHashSet<String>(before.getKeys());
+        keys.addAll(after.getKeys());
+        for (String key : keys) {
+            Object old = value(before, key);
+            Object current = value(after, key);
+            if (old instanceof Map && current instanceof Map) {
+                try {
+                    collectChanges(before.getSection(key), after.getSection(key), prefix + key + ".", changed);
+                } catch (YAMLConfigurationException e) {
+                    changed.add(prefix + key);
+                }
+            } else if (!Objects.equals(old, current)) {
+                changed.add(prefix + key);
+            }
+        }
+    }
+
+    /**
+     * @return - the value at the key, or null if there is none
+     */
+    private static Object value(Configuration config, String key) {
+        try {
+            return config.getObject(key);
+        } catch (YAMLConfigurationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void invalidate(Path path) {
+        if (path.toAbsolutePath().normalize().equals(file)) {
+            scheduleReload();
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        scheduleReload();
+    }
+
+    private synchronized void scheduleReload() {
+        if (pendingReload != null) {
+            pendingReload.cancel(false);
+        }
+        pendingReload = reloader.schedule(this::reload, reloadDelay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,176 @@
+package com.cptingle.WebServer.server;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Selector based transport. A single thread accepts connections and performs all socket reads and writes without blocking,
+ * so idle keep-alive clients only cost a registered key instead of a parked thread. The server runs one loop per listener,
+ * each handing the servlets of its connections to its own executor shard.
+ */
+public class EventLoop implements Runnable {
+    private static final long IDLE_CHECK_INTERVAL = 1000;
+
+    private final HTTPServer server;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService executor;
+    private final Selector selector;
+
+    // Connections that workers have queued data for, handled on the loop thread
+    private final Queue<ChannelConnection> writeRequests = new ConcurrentLinkedQueue<ChannelConnection>();
+    // Connections whose workers have consumed buffered request body bytes, so reading can resume
+    private final Queue<ChannelConnection> readRequests = new ConcurrentLinkedQueue<ChannelConnection>();
+
+    private long lastIdleCheck = System.currentTimeMillis();
+
+    public EventLoop(HTTPServer server, ServerSocketChannel serverChannel, ExecutorService executor) throws IOException {
+        this.server = server;
+        this.serverChannel = serverChannel;
+        this.executor = executor;
+        this.selector = Selector.open();
+
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * @return - the executor shard the servlets of this loop's connections run on
+     */
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Asks the loop to flush the connection's write queue. Safe to call from any thread.
+     * @param conn - the connection with data to write
+     */
+    void requestWrite(ChannelConnection conn) {
+        writeRequests.add(conn);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the loop to resume reading from the connection after a worker has made room in its read buffer. Safe to call from any thread.
+     * @param conn - the connection to read from
+     */
+    void requestRead(ChannelConnection conn) {
+        readRequests.add(conn);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (serverChannel.isOpen()) {
+            try {
+                selector.select(IDLE_CHECK_INTERVAL);
+
+                ChannelConnection conn;
+                while ((conn = writeRequests.poll()) != null) {
+                    handleWrite(conn);
+                }
+                while ((conn = readRequests.poll()) != null) {
+                    handleResume(conn);
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    conn = (ChannelConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            conn.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            conn.onWritable();
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        server.getLogger().info(e.getMessage() != null ? e.getMessage() : e.toString(), conn.getAddress());
+                        conn.close();
+                    }
+                }
+
+                closeIdleConnections();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Accepts all pending connections and registers them for reading
+     * @throws IOException
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            ChannelConnection conn = new ChannelConnection(channel, this, key, server);
+            key.attach(conn);
+            if (server.isDebugging())
+                server.getLogger().debug("Connection established with client", conn.getAddress());
+        }
+    }
+
+    private void handleWrite(ChannelConnection conn) {
+        try {
+            if (conn.getChannel().isOpen()) {
+                conn.onWritable();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            server.getLogger().info(e.getMessage() != null ? e.getMessage() : e.toString(), conn.getAddress());
+            conn.close();
+        }
+    }
+
+    private void handleResume(ChannelConnection conn) {
+        try {
+            if (conn.getChannel().isOpen()) {
+                conn.resumeReading();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            server.getLogger().info(e.getMessage() != null ? e.getMessage() : e.toString(), conn.getAddress());
+            conn.close();
+        }
+    }
+
+    /**
+     * Closes connections that have had no activity for longer than the configured persistent connection timeout
+     */
+    private void closeIdleConnections() {
+        long now = System.currentTimeMillis();
+        if (now - lastIdleCheck < IDLE_CHECK_INTERVAL) {
+            return;
+        }
+        lastIdleCheck = now;
+
+        long timeout = server.getPersistentConnectionTimeout();
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof ChannelConnection) {
+                ChannelConnection conn = (ChannelConnection) key.attachment();
+                if (conn.isIdle() && now - conn.getLastActive() > timeout) {
+                    server.getLogger().verbose("Connection with a client timed out and was closed (persistent)", conn.getAddress());
+                    conn.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.cptingle.WebServer.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A range of a file queued for a non-blocking channel. Each call to {@link #transferTo(WritableByteChannel)} sends as much
+ * as the socket accepts with FileChannel.transferTo and remembers where it stopped.
+ */
+class FileRegion {
+    private final FileChannel fileChannel;
+    private long position;
+    private final long end;
+
+    FileRegion(File file, long position, long count) throws IOException {
+        this.fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.position = position;
+        this.end = position + count;
+    }
+
+    /**
+     * Transfers the next part of the region
+     * @param target - channel to write to
+     * @return - the number of bytes transferred
+     * @throws IOException
+     */
+    long transferTo(WritableByteChannel target) throws IOException {
+        long sent = fileChannel.transferTo(position, end - position, target);
+        if (sent <= 0 && position >= fileChannel.size()) {
+            throw new IOException("File was truncated while it was being sent");
+        }
+        position += sent;
+        return sent;
+    }
+
+    /**
+     * @return - true once every byte of the region has been sent
+     */
+    boolean isDone() {
+        return position >= end;
+    }
+
+    void close() {
+        try {
+            fileChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,171 +1,543 @@
 package com.cptingle.WebServer.server;
 
-import com.cptingle.WebServer.exceptions.YAMLConfigurationException;
-import com.cptingle.WebServer.util.DirTree;
+import com.cptingle.WebServer.files.StaticFileHandler;
+import com.cptingle.WebServer.metrics.MetricsRegistry;
+import com.cptingle.WebServer.response.HeaderEncoder;
+import com.cptingle.WebServer.response.Status;
+import com.cptingle.WebServer.routing.Router;
+import com.cptingle.WebServer.util.compression.Compressor;
 import com.cptingle.WebServer.util.configuration.Configuration;
+import com.cptingle.WebServer.util.configuration.ServerSettings;
+import com.cptingle.WebServer.util.template.TemplateCache;
 import com.cptingle.WebServer.util.logging.Logger;
 
-import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class HTTPServer implements Runnable {
-    private boolean debug = false;
-    private boolean persistentConnections = false;
-    private int persistentConnectionTimeout = 0;
-    private String version = "";
+    // Replaced as a whole when the configuration file is reloaded
+    private volatile ServerSettings settings;
+    // Chosen at startup, changing it takes a restart
+    private String transport = "blocking";
 
-    private int port;
-    private String bindAddr;
-    private ServerSocket servSock;
-    private ThreadPoolExecutor executor;
-    private Configuration config;
+    // One listener per acceptor, all bound to the same port with SO_REUSEPORT so the kernel spreads new connections over them
+    private ServerSocketChannel[] listeners;
+    // One shard per acceptor, connections run on the shard of the listener that accepted them
+    private ExecutorService[] executors;
+    private final LongAdder rejectedCount = new LongAdder();
+    private volatile byte[] serviceUnavailableResponse;
+    private volatile Configuration config;
 
+    private volatile HeaderEncoder headerEncoder;
     private Logger logger;
+    private Compressor compressor;
+    private StaticFileHandler staticFiles;
+    private final TemplateCache templates = new TemplateCache();
+    private MetricsRegistry metrics;
 
-    private Map<String, AbstractServlet> servletMap;
+    private ServletRegistry servlets;
+    private ConfigReloader configReloader;
 
 
     public HTTPServer() {
-        config = new Configuration();
+        this(new Configuration());
+        if (isBound()) {
+            this.run();
+        }
+    }
+
+    /**
+     * Creates the server from the provided configuration and binds its listening socket, but does not start accepting connections.
+     * Call run() to begin serving requests.
+     * @param config - the configuration to use
+     */
+    public HTTPServer(Configuration config) {
+        this.config = config;
 
         loadConfig();
 
-        this.executor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+        int acceptors = settings.getAcceptors();
+        if (acceptors > 1 && !isReusePortSupported()) {
+            System.err.println("SO_REUSEPORT is not supported on this platform, accepting connections on a single listener");
+            acceptors = 1;
+        }
+        this.executors = new ExecutorService[acceptors];
+        for (int i = 0; i < acceptors; i++) {
+            executors[i] = createExecutor(acceptors);
+        }
+        this.headerEncoder = new HeaderEncoder(settings.getVersion(), settings.arePersistentConnections());
+        this.serviceUnavailableResponse = buildServiceUnavailableResponse();
         this.logger = new Logger(this);
+        this.metrics = new MetricsRegistry(this);
+        this.compressor = new Compressor(this);
+        this.staticFiles = new StaticFileHandler(this);
 
-        servletMap = new HashMap<>();
-        loadServlets();
+        this.servlets = new ServletRegistry(this);
+        this.servlets.start();
 
-        // Open ServerSocket to listen for connections.
+        // Open the ServerSocketChannels to listen for connections. The blocking transport accepts from them in blocking mode so
+        // every client socket is backed by a SocketChannel that files can be transferred to directly.
         try {
-            servSock = new ServerSocket();
-            servSock.bind(new InetSocketAddress(InetAddress.getByName(bindAddr), port));
-            System.out.println("HTTP Server started " + (config.getBoolean("debug", false) ? "IN DEBUG MODE " : "") + "using " + (config.getSection("persistence").getBoolean("use-persistent-connections", true) ? "persistent connections" : "non-persistent connections"));
-            System.out.println("Listening for requests on " + bindAddr + ":" + port);
-            this.run();
+            listeners = openListeners(acceptors);
+            System.out.println("HTTP Server started " + (settings.isDebug() ? "IN DEBUG MODE " : "") + "using " + (settings.arePersistentConnections() ? "persistent connections" : "non-persistent connections") + " over the " + transport + " transport");
+            System.out.println("Listening for requests on " + settings.getBindAddress() + ":" + getLocalPort() + (acceptors > 1 ? " with " + acceptors + " acceptors" : ""));
         } catch (IOException e) {
             System.err.println("Server failed to start: " + e.getMessage());
             e.printStackTrace();
-        } catch (YAMLConfigurationException ex) {
-            System.err.println(ex.getMessage());
         }
+
+        this.configReloader = new ConfigReloader(this);
+        this.configReloader.start();
     }
 
     public boolean isDebugging() {
-        return debug;
+        return settings.isDebug();
     }
 
     public boolean areConnectionsPersistent() {
-        return persistentConnections;
+        return settings.arePersistentConnections();
     }
 
     public int getPersistentConnectionTimeout() {
-        return persistentConnectionTimeout;
+        return settings.getPersistentConnectionTimeout();
     }
 
     public String getVersion() {
-        return version;
+        return settings.getVersion();
+    }
+
+    /**
+     * @return - the longest request line accepted from clients, in bytes
+     */
+    public int getMaxRequestLine() {
+        return settings.getMaxRequestLine();
+    }
+
+    /**
+     * @return - the largest request head (request line and headers) accepted from clients, in bytes
+     */
+    public int getMaxHeaderSize() {
+        return settings.getMaxHeaderSize();
+    }
+
+    /**
+     * @return - the largest request body accepted from clients, in bytes
+     */
+    public long getMaxBodySize() {
+        return settings.getMaxBodySize();
+    }
+
+    /**
+     * @return - the most bytes of a request body left unread by a servlet that are read and discarded to keep the connection open
+     */
+    public long getMaxDrainSize() {
+        return settings.getMaxDrainSize();
+    }
+
+    /**
+     * @return - the milliseconds an asynchronous servlet has to complete its response before 504 Gateway Timeout is sent, 0 for no limit
+     */
+    public int getAsyncTimeout() {
+        return settings.getAsyncTimeout();
+    }
+
+    /**
+     * @return - the most body bytes a streamed response collects before sending them as a chunk
+     */
+    public int getStreamChunkSize() {
+        return settings.getStreamChunkSize();
+    }
+
+    /**
+     * @return - the most pipelined requests the nio transport queues for a connection before it stops reading from it
+     */
+    public int getMaxPipeline() {
+        return settings.getMaxPipeline();
+    }
+
+    /**
+     * @return - the most bytes the nio transport queues for a client before a streaming servlet has to wait for them to be sent
+     */
+    public int getStreamMaxBuffered() {
+        return settings.getStreamMaxBuffered();
     }
 
     public Configuration getConfig() {
         return config;
     }
 
+    /**
+     * @return - the current settings, read once and used throughout a connection's setup or a request so they are consistent
+     */
+    public ServerSettings getSettings() {
+        return settings;
+    }
+
     public Logger getLogger() { return logger; }
 
-    public HTTPServlet getServlet(String path) {
-        return servletMap.get(path);
-    }
-
-    public void loadClasses(DirTree node, final File folder) throws MalformedURLException, ClassNotFoundException, NoSuchMethodException, IllegalAccessException, InvocationTargetException, InstantiationException {
-        String filepath = "file://" + node.getPath() + "/";
-        URL[] classPath = new URL[]{(new URL(filepath))};
-        URLClassLoader cld = new URLClassLoader(classPath, this.getClass().getClassLoader());
-
-        for (final File fileEntry : folder.listFiles()) {
-            if (fileEntry.isDirectory()) {
-                DirTree tmp = new DirTree(fileEntry.getName(),fileEntry.getAbsolutePath(),true);
-                node.addNode(tmp);
-                loadClasses(tmp, fileEntry);
-            } else {
-                node.addNode(new DirTree(fileEntry.getName(),fileEntry.getAbsolutePath(), false));
-                if (fileEntry.getName().contains(".class")) {
-                    String name = fileEntry.getName().replaceAll(".class", "");
-                    Class clazz = cld.loadClass(name);
-                    Object obj = clazz.getConstructor(new Class[]{HTTPServer.class}).newInstance(this);
-                    AbstractServlet asv = (AbstractServlet) obj;
-                    for (String uri : asv.getURIs()){
-                        servletMap.put(uri, asv);
-                    }
+    /**
+     * @return - the encoder that writes response headers and holds the prerendered error pages
+     */
+    public HeaderEncoder getHeaderEncoder() {
+        return headerEncoder;
+    }
+
+    public Compressor getCompressor() {
+        return compressor;
+    }
+
+    public StaticFileHandler getStaticFiles() {
+        return staticFiles;
+    }
+
+    /**
+     * @return - the executor shard of the first acceptor, connections use the shard of the acceptor that accepted them
+     */
+    public ExecutorService getExecutor() {
+        return executors[0];
+    }
+
+    /**
+     * @return - the number of tasks waiting for a worker thread over all shards, always 0 for executors without a queue
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ExecutorService executor : executors) {
+            if (executor instanceof ThreadPoolExecutor)
+                depth += ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        return depth;
+    }
+
+    /**
+     * @return - the number of worker threads currently running a task over all shards, or -1 if the executor does not track it
+     */
+    public int getActiveWorkers() {
+        int active = 0;
+        for (ExecutorService executor : executors) {
+            if (!(executor instanceof ThreadPoolExecutor))
+                return -1;
+            active += ((ThreadPoolExecutor) executor).getActiveCount();
+        }
+        return active;
+    }
+
+    /**
+     * @return - the number of connections or requests turned away with 503 Service Unavailable since startup
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * @return - the complete 503 Service Unavailable response, built once at startup so shedding load costs no allocation
+     */
+    public byte[] getServiceUnavailableResponse() {
+        return serviceUnavailableResponse;
+    }
+
+    /**
+     * Records a request or connection that was turned away because the executor was saturated
+     * @param address - the address of the rejected client
+     */
+    void recordRejection(String address) {
+        rejectedCount.increment();
+        logger.verbose("Executor saturated (queue depth " + getQueueDepth() + "), rejected with 503", address);
+    }
+
+    /**
+     * @return - true if the listening sockets were bound successfully
+     */
+    public boolean isBound() {
+        return listeners != null && listeners[0].isOpen();
+    }
+
+    /**
+     * @return - the port the server is listening on, useful when the configured port is 0 and an ephemeral port was chosen
+     */
+    public int getLocalPort() {
+        return listeners != null ? listeners[0].socket().getLocalPort() : settings.getPort();
+    }
+
+    /**
+     * @return - the number of listeners accepting connections, each with its own thread and executor shard
+     */
+    public int getAcceptorCount() {
+        return executors.length;
+    }
+
+    /**
+     * Stops accepting new connections and shuts down the executors
+     */
+    public void close() {
+        if (listeners != null) {
+            for (ServerSocketChannel listener : listeners) {
+                try {
+                    listener.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
         }
+        for (ExecutorService executor : executors) {
+            executor.shutdown();
+        }
+        staticFiles.close();
+        servlets.close();
+        configReloader.close();
+        headerEncoder.close();
+        logger.close();
+    }
+
+    /**
+     * @return - true if several listeners can be bound to the same port
+     */
+    private static boolean isReusePortSupported() {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
     }
 
-    private void loadServlets() {
+    /**
+     * Binds the listeners to the configured address and port. When there is more than one they are all bound with
+     * SO_REUSEPORT and the kernel balances new connections between them.
+     * @param count - the number of listeners
+     * @return - the bound listeners
+     * @throws IOException if any of them could not be bound, the ones already bound are closed
+     */
+    private ServerSocketChannel[] openListeners(int count) throws IOException {
+        ServerSocketChannel[] channels = new ServerSocketChannel[count];
+        InetAddress address = InetAddress.getByName(settings.getBindAddress());
         try {
-            loadClasses(new DirTree("servlets", Paths.get("servlets").toAbsolutePath().toString(), true), Paths.get("servlets").toFile());
-        } catch (MalformedURLException e) {
-            e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-        } catch (NoSuchMethodException e) {
-            e.printStackTrace();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
+            for (int i = 0; i < count; i++) {
+                channels[i] = ServerSocketChannel.open();
+                if (count > 1)
+                    channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                // With port 0 the first listener is given an ephemeral port and the others join it
+                int port = i == 0 ? settings.getPort() : channels[0].socket().getLocalPort();
+                channels[i].bind(new InetSocketAddress(address, port));
+            }
+        } catch (IOException e) {
+            for (ServerSocketChannel channel : channels) {
+                if (channel != null)
+                    channel.close();
+            }
+            throw e;
         }
+        return channels;
     }
 
     /**
-     * Load the values from the configuration file into the com.cptingle.WebServer.server
+     * Creates an executor shard that runs client connections (or servlets when using the nio transport).
+     * Virtual threads are only available on Java 21 and newer so they are looked up reflectively, falling back to the cached pool.
+     * @param shards - the number of shards the bounded executor's threads and queue are split between
+     * @return - the executor for the configured executor type
      */
-    private void loadConfig() {
+    private ExecutorService createExecutor(int shards) {
+        String executorType = settings.getExecutorType();
+        int maxThreads = (settings.getMaxThreads() + shards - 1) / shards;
+        int queueSize = (settings.getQueueSize() + shards - 1) / shards;
+        if (executorType.equals("bounded")) {
+            // Core and max are the same so the pool grows to max-threads before anything is queued, idle threads still time out
+            BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<Runnable>(queueSize) : new SynchronousQueue<Runnable>();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS, queue, new ThreadPoolExecutor.AbortPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+        if (executorType.equals("virtual")) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (NoSuchMethodException e) {
+                System.err.println("Virtual threads are not supported by this Java version, falling back to the cached executor");
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                System.err.println("Failed to create virtual thread executor: " + e.getMessage());
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Builds the response sent when the executor cannot take more work. The connection is always closed after it is sent.
+     * @return - the encoded response headers and body
+     */
+    private byte[] buildServiceUnavailableResponse() {
+        ServerSettings settings = this.settings;
+        Status status = Status.SERVICE_UNAVAILABLE;
+        String body = new String(headerEncoder.getErrorPage(status), StandardCharsets.ISO_8859_1);
+        String resp = "HTTP/1.1 " + status.getStatusCode() + " " + status.getReasonPhrase() + "\r\n" +
+                "Server: cpt22 Web Server v" + settings.getVersion() + "\r\n" +
+                "Retry-After: " + settings.getRetryAfter() + "\r\n" +
+                "Content-type: text/html\r\n" +
+                "Content-length: " + body.length() + "\r\n" +
+                "Connection: close\r\n" +
+                "\r\n" +
+                body;
+        return resp.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Turns a freshly accepted connection away by writing the prebuilt 503 response and closing the socket.
+     * The response is small enough to fit in the socket send buffer so this does not stall the accept loop.
+     * @param socket - the rejected client socket
+     */
+    private void rejectConnection(Socket socket) {
+        recordRejection(socket.getInetAddress().getHostAddress());
         try {
-            this.debug = config.getBoolean("debug", false);
-            this.persistentConnections = config.getSection("persistence").getBoolean("use-persistent-connections", false);
-            this.persistentConnectionTimeout = config.getSection("persistence").getInt("persistent-connection-timeout", 6000);
-            this.bindAddr = config.getString("bind-address", "0.0.0.0");
-            this.port = config.getInt("port", 80);
-            this.version = config.getString("server-version");
-            String webRoot = config.getSection("files").getString("web-root");
+            socket.getOutputStream().write(serviceUnavailableResponse);
+            socket.getOutputStream().flush();
+        } catch (IOException e) {
+            logger.info(e.getMessage(), "");
+        } finally {
             try {
-                if (!Files.exists(Paths.get(webRoot))) {
-                    Files.createDirectories(Paths.get(webRoot));
+                socket.close();
+            } catch (IOException e) {
+                logger.info(e.getMessage(), "");
+            }
+        }
+    }
 
-                }
-            } catch (IOException ex) {
-                ex.printStackTrace();
+    public HTTPServlet getServlet(String path) {
+        return servlets.getRouter().getServlet(path);
+    }
+
+    /**
+     * @return - the router mapping request paths to the currently loaded servlets
+     */
+    public Router getRouter() {
+        return servlets.getRouter();
+    }
+
+    /**
+     * @return - the request, connection and executor metrics
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return - the compiled templates servlets render their pages from
+     */
+    public TemplateCache getTemplates() {
+        return templates;
+    }
+
+    /**
+     * @return - the registry holding the loaded servlets
+     */
+    public ServletRegistry getServlets() {
+        return servlets;
+    }
+
+    /**
+     * Load the values from the configuration file into the com.cptingle.WebServer.server
+     */
+    private void loadConfig() {
+        List<String> problems = new ArrayList<String>();
+        this.settings = ServerSettings.load(config, problems);
+        for (String problem : problems) {
+            System.err.println(problem);
+        }
+        this.transport = settings.getTransport();
+
+        try {
+            if (!Files.exists(settings.getWebRoot())) {
+                Files.createDirectories(settings.getWebRoot());
             }
-        } catch (YAMLConfigurationException ex) {
-            System.err.println(ex.getMessage());
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Makes reloaded settings current. Settings that are only read at startup keep their old values until a restart.
+     * Called by the {@link ConfigReloader} once the new configuration has been validated.
+     * @param reloaded - the configuration the settings were read from
+     * @param next - the new settings
+     */
+    void applySettings(Configuration reloaded, ServerSettings next) {
+        ServerSettings previous = settings;
+        String restart = next.restartRequired(previous);
+        if (!restart.isEmpty()) {
+            logger.warn("Configuration changes to " + restart + " take effect after a restart", "");
+        }
+
+        this.config = reloaded;
+        this.settings = next;
+        if (!next.getVersion().equals(previous.getVersion()) || next.arePersistentConnections() != previous.arePersistentConnections()) {
+            HeaderEncoder old = headerEncoder;
+            this.headerEncoder = new HeaderEncoder(next.getVersion(), next.arePersistentConnections());
+            old.close();
         }
+        this.serviceUnavailableResponse = buildServiceUnavailableResponse();
+        staticFiles.applySettings(previous, next);
+        logger.info("Configuration reloaded from " + reloaded.getFile(), "");
     }
 
     /**
-     * Begin accepting socket requests from the clients. Upon receiving a connection from a client, create a new Server.ClientConnection object and dispatch it to the CachedThreadPool for execution
+     * Begin accepting socket requests from the clients. Every listener gets its own acceptor, the first runs on the calling thread.
+     * Upon receiving a connection from a client, the blocking transport creates a new BlockingConnection and dispatches it
+     * to the acceptor's executor shard. When the nio transport is configured, each acceptor is instead an EventLoop which services its
+     * connections itself and only uses its shard to run servlets.
      */
     @Override
     public void run() {
-        while(true) {
+        for (int i = 1; i < listeners.length; i++) {
+            int acceptor = i;
+            Thread thread = new Thread(() -> runAcceptor(acceptor), (transport.equals("nio") ? "event-loop-" : "acceptor-") + i);
+            thread.start();
+        }
+        runAcceptor(0);
+    }
+
+    /**
+     * Accepts connections from one listener until it is closed
+     * @param index - the index of the listener and of its executor shard
+     */
+    private void runAcceptor(int index) {
+        ServerSocketChannel listener = listeners[index];
+        ExecutorService executor = executors[index];
+        if (transport.equals("nio")) {
             try {
-                executor.submit(new ClientConnection(servSock.accept(), this));
-                if (debug)
-                    System.out.println("Connection established with Client");
+                new EventLoop(this, listener, executor).run();
             } catch (IOException e) {
+                System.err.println("Event loop failed to start: " + e.getMessage());
                 e.printStackTrace();
             }
+            return;
+        }
+
+        while(listener.isOpen()) {
+            try {
+                Socket socket = listener.accept().socket();
+                try {
+                    executor.execute(new BlockingConnection(socket, this));
+                } catch (RejectedExecutionException e) {
+                    rejectConnection(socket);
+                    continue;
+                }
+                if (settings.isDebug())
+                    logger.debug("Connection established with client", socket.getInetAddress().getHostAddress());
+            } catch (IOException e) {
+                if (listener.isOpen())
+                    e.printStackTrace();
+            }
         }
     }
 }
@@ -0,0 +1,288 @@
+package com.cptingle.WebServer.server;
+
+import com.cptingle.WebServer.exceptions.YAMLConfigurationException;
+import com.cptingle.WebServer.files.InvalidationListener;
+import com.cptingle.WebServer.files.WebRootWatcher;
+import com.cptingle.WebServer.metrics.MetricsServlet;
+import com.cptingle.WebServer.routing.Router;
+import com.cptingle.WebServer.util.configuration.Configuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the servlets from the servlets directory and reloads them when the class files change, without restarting the server.
+ * Every load creates a new {@link Generation}: fresh class loaders, new servlet instances and a router built from their routes,
+ * published as a whole so a request is always dispatched entirely by one generation. Requests already running on the
+ * previous generation finish on its servlets, its class loaders are only closed once the last of them is done.
+ */
+public class ServletRegistry implements InvalidationListener {
+    private final HTTPServer server;
+    private Path directory = Paths.get("servlets");
+    private boolean hotReload = true;
+    private int reloadDelay = 500;
+
+    private volatile Generation current = new Generation(Router.empty(), new ArrayList<URLClassLoader>(), new ArrayList<AbstractServlet>());
+    private WebRootWatcher watcher;
+    // Reloads run on this thread after the directory has been quiet for the reload delay, so a deploy copying many files
+    // causes a single reload
+    private ScheduledExecutorService reloader;
+    private ScheduledFuture<?> pendingReload;
+    // Servlets provided by the server itself, part of every generation
+    private final List<AbstractServlet> builtIn = new ArrayList<AbstractServlet>();
+
+    public ServletRegistry(HTTPServer server) {
+        this.server = server;
+        try {
+            Configuration section = server.getConfig().getSection("servlets");
+            this.directory = Paths.get(section.getString("directory", "servlets"));
+            this.hotReload = section.getBoolean("hot-reload", true);
+            this.reloadDelay = section.getInt("reload-delay", 500);
+        } catch (YAMLConfigurationException e) {
+            System.err.println(e.getMessage());
+        }
+        if (server.getMetrics().isEnabled()) {
+            builtIn.add(new MetricsServlet(server));
+        }
+    }
+
+    /**
+     * Loads the servlets and starts watching the directory for changes if hot reloading is enabled
+     */
+    public void start() {
+        reload();
+        if (!hotReload || !Files.isDirectory(directory)) {
+            return;
+        }
+        try {
+            watcher = new WebRootWatcher(directory);
+            watcher.addListener(this);
+            reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "servlet-reloader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            watcher.start("servlet-watcher");
+        } catch (IOException e) {
+            server.getLogger().warn("Unable to watch the servlets directory, servlets will not be reloaded: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Registers a servlet created by code embedding the server rather than loaded from the servlets directory. Like the
+     * built in servlets it is part of every generation, and a loaded servlet with the same route replaces it.
+     * @param servlet - the servlet to register
+     */
+    public synchronized void register(AbstractServlet servlet) {
+        builtIn.add(servlet);
+        reload();
+    }
+
+    /**
+     * Stops watching the directory and releases the current servlets
+     */
+    public void close() {
+        if (watcher != null)
+            watcher.close();
+        if (reloader != null)
+            reloader.shutdownNow();
+        current.retire();
+    }
+
+    /**
+     * Takes a reference to the current generation for the duration of a request. Every acquire() must be followed by a
+     * release() on the returned generation, until then its servlets stay loaded.
+     * @return - the current generation
+     */
+    public Generation acquire() {
+        while (true) {
+            Generation generation = current;
+            generation.active.incrementAndGet();
+            // A generation retired before the reference was taken may already be released, use its replacement instead
+            if (!generation.retired) {
+                return generation;
+            }
+            generation.release();
+        }
+    }
+
+    /**
+     * @return - the router of the current generation
+     */
+    public Router getRouter() {
+        return current.router;
+    }
+
+    /**
+     * Loads every servlet in the directory into new class loaders and makes them the current generation.
+     * Class files that can't be loaded are reported and skipped.
+     */
+    public synchronized void reload() {
+        List<URLClassLoader> loaders = new ArrayList<URLClassLoader>();
+        List<AbstractServlet> servlets = new ArrayList<AbstractServlet>();
+        Router.Builder routes = new Router.Builder();
+        // Added first, so a loaded servlet with the same route replaces a built in one
+        for (AbstractServlet servlet : builtIn) {
+            for (String uri : servlet.getURIs()) {
+                routes.add(uri, servlet);
+            }
+        }
+        if (Files.isDirectory(directory)) {
+            loadClasses(directory.toFile(), loaders, servlets, routes);
+        }
+
+        Generation previous = current;
+        current = new Generation(routes.build(), loaders, servlets);
+        previous.retire();
+        if (previous.router != Router.empty() || !servlets.isEmpty()) {
+            server.getLogger().info("Loaded " + servlets.size() + " servlets with " + current.router.size() + " routes", "");
+        }
+    }
+
+    @Override
+    public void invalidate(Path path) {
+        scheduleReload();
+    }
+
+    @Override
+    public void invalidateAll() {
+        scheduleReload();
+    }
+
+    private synchronized void scheduleReload() {
+        if (pendingReload != null) {
+            pendingReload.cancel(false);
+        }
+        pendingReload = reloader.schedule(this::reload, reloadDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Loads the servlets in a directory and its subdirectories. Each directory gets its own class loader as classes are
+     * loaded by their file name, helper classes are loaded from it when the servlets first use them.
+     */
+    private void loadClasses(File folder, List<URLClassLoader> loaders, List<AbstractServlet> servlets, Router.Builder routes) {
+        File[] entries = folder.listFiles();
+        if (entries == null) {
+            return;
+        }
+
+        URLClassLoader loader;
+        try {
+            loader = new URLClassLoader(new URL[]{folder.toURI().toURL()}, server.getClass().getClassLoader());
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+            return;
+        }
+        loaders.add(loader);
+
+        for (File entry : entries) {
+            if (entry.isDirectory()) {
+                loadClasses(entry, loaders, servlets, routes);
+                continue;
+            }
+            // Inner and anonymous classes are loaded along with the class that declares them
+            if (!entry.getName().endsWith(".class") || entry.getName().contains("$")) {
+                continue;
+            }
+
+            String name = entry.getName().substring(0, entry.getName().length() - ".class".length());
+            try {
+                Class<?> clazz = loader.loadClass(name);
+                if (!AbstractServlet.class.isAssignableFrom(clazz) || Modifier.isAbstract(clazz.getModifiers())) {
+                    continue;
+                }
+                AbstractServlet servlet = (AbstractServlet) clazz.getConstructor(HTTPServer.class).newInstance(server);
+                servlets.add(servlet);
+                for (String uri : servlet.getURIs()) {
+                    try {
+                        routes.add(uri, servlet);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Servlet " + name + " has an invalid route: " + e.getMessage());
+                    }
+                }
+            } catch (ClassNotFoundException | LinkageError | NoSuchMethodException | InstantiationException | IllegalAccessException e) {
+                System.err.println("Failed to load servlet " + entry + ": " + e);
+            } catch (InvocationTargetException e) {
+                System.err.println("Servlet " + name + " failed to initialise: " + e.getCause());
+            }
+        }
+    }
+
+    /**
+     * One load of the servlets directory: the class loaders, the servlet instances and the router built from them
+     */
+    public static class Generation {
+        private final Router router;
+        private final List<URLClassLoader> loaders;
+        private final List<AbstractServlet> servlets;
+        // Requests currently using the generation
+        private final AtomicInteger active = new AtomicInteger();
+        private volatile boolean retired = false;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        Generation(Router router, List<URLClassLoader> loaders, List<AbstractServlet> servlets) {
+            this.router = router;
+            this.loaders = loaders;
+            this.servlets = servlets;
+        }
+
+        public Router getRouter() {
+            return router;
+        }
+
+        /**
+         * Gives up the reference taken by {@link ServletRegistry#acquire()}
+         */
+        public void release() {
+            if (active.decrementAndGet() == 0 && retired) {
+                dispose();
+            }
+        }
+
+        /**
+         * Marks the generation as replaced, it is disposed of as soon as no request uses it
+         */
+        void retire() {
+            retired = true;
+            if (active.get() == 0) {
+                dispose();
+            }
+        }
+
+        private void dispose() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            for (AbstractServlet servlet : servlets) {
+                try {
+                    servlet.destroy();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (URLClassLoader loader : loaders) {
+                try {
+                    loader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
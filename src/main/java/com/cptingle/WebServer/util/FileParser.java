@@ -1,65 +1,34 @@
 package com.cptingle.WebServer.util;
 
+import com.cptingle.WebServer.util.template.Template;
+import com.cptingle.WebServer.util.template.TemplateCache;
+
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.NoSuchFileException;
 import java.util.Map;
 
 public class FileParser {
-    private static final String[] DELIM = {"%", "%"};
+    private static final TemplateCache TEMPLATES = new TemplateCache();
 
     /**
-     * Parses the specified file and replaces the symbols within the delimiters with the specified value in the map
+     * Parses the specified file and replaces the symbols within the delimiters with the specified value in the map.
+     * The file is compiled once and cached until it changes, see {@link Template}.
      * @param file - The file to parse
-     * @param symbolMap - The map of symbols and values to replace in the file
+     * @param symbolMap - The map of symbols and values to replace in the file, values are HTML escaped
      * @return - The file in string format with the proper replacements
      * @throws FileNotFoundException
+     * @deprecated - render a {@link Template} from {@link com.cptingle.WebServer.server.HTTPServer#getTemplates()} instead,
+     * it can be written to the response without building a String
      */
+    @Deprecated
     public static String parseFile(File file, Map<String, Object> symbolMap) throws FileNotFoundException {
-        BufferedReader reader = new BufferedReader(new FileReader(file));
-        List<String> lines = new ArrayList<String>();
-        String line = null;
-        String allLines = "";
         try {
-            // Read all of the file lines into a single string
-            line = reader.readLine();
-            while (line != null) {
-                allLines += line;
-                line = reader.readLine();
-            }
-
-            // Split the lines into an array of strings 1 character long
-            String[] lineSplit = allLines.split("");
-            // Loop through all characters searching for the delimiters
-            for (int i = 0; i < lineSplit.length - 1; i++) {
-                int index1, index2 = -1;
-                String symbol = "";
-                // If the two delimiter characters are found in order, attempt to obtain the symbol
-                if (lineSplit[i].equals(DELIM[0]) && lineSplit[i+1].equals(DELIM[1])) {
-                    index1 = i;
-                    // Loop through the characters between the sets of delimiters and build the symbol
-                    for (int j = i+2; j < lineSplit.length - 2; j++) {
-                        if (lineSplit[j].equals(DELIM[0]) && lineSplit[j+1].equals(DELIM[1])) {
-                            index2 = j;
-                            i = j+2;
-                            break;
-                        }
-                        symbol += lineSplit[j];
-                    }
-
-                    // Replace all of the found symbol with its associated value in the map, or with the empty String if it is not found in the map
-                    if (symbolMap.containsKey(symbol) && index1 != -1 && index2 != -1) {
-                        allLines = allLines.replaceAll(DELIM[0] + DELIM[1] + symbol + DELIM[0] + DELIM[1], String.valueOf(symbolMap.get(symbol)));
-                    } else {
-                        allLines = allLines.replaceAll(DELIM[0] + DELIM[1] + symbol + DELIM[0] + DELIM[1], "");
-                    }
-                }
-            }
-            reader.close();
+            return TEMPLATES.get(file.toPath()).render(symbolMap);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(file.getPath());
         } catch (IOException e) {
             e.printStackTrace();
+            return "";
         }
-
-        return allLines;
     }
 }
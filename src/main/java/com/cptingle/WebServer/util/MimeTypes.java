@@ -0,0 +1,82 @@
+package com.cptingle.WebServer.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps file extensions to the mime types sent in the Content-type header
+ */
+public class MimeTypes {
+    public static final String DEFAULT = "application/octet-stream";
+
+    private static final Map<String, String> TYPES = new HashMap<String, String>();
+
+    static {
+        TYPES.put("html", "text/html; charset=utf-8");
+        TYPES.put("htm", "text/html; charset=utf-8");
+        TYPES.put("css", "text/css; charset=utf-8");
+        TYPES.put("js", "application/javascript; charset=utf-8");
+        TYPES.put("mjs", "application/javascript; charset=utf-8");
+        TYPES.put("json", "application/json");
+        TYPES.put("map", "application/json");
+        TYPES.put("xml", "application/xml");
+        TYPES.put("txt", "text/plain; charset=utf-8");
+        TYPES.put("csv", "text/csv; charset=utf-8");
+        TYPES.put("md", "text/markdown; charset=utf-8");
+        TYPES.put("svg", "image/svg+xml");
+        TYPES.put("ico", "image/x-icon");
+        TYPES.put("png", "image/png");
+        TYPES.put("jpg", "image/jpeg");
+        TYPES.put("jpeg", "image/jpeg");
+        TYPES.put("gif", "image/gif");
+        TYPES.put("webp", "image/webp");
+        TYPES.put("avif", "image/avif");
+        TYPES.put("woff", "font/woff");
+        TYPES.put("woff2", "font/woff2");
+        TYPES.put("ttf", "font/ttf");
+        TYPES.put("otf", "font/otf");
+        TYPES.put("wasm", "application/wasm");
+        TYPES.put("pdf", "application/pdf");
+        TYPES.put("zip", "application/zip");
+        TYPES.put("gz", "application/gzip");
+        TYPES.put("mp3", "audio/mpeg");
+        TYPES.put("mp4", "video/mp4");
+        TYPES.put("webm", "video/webm");
+    }
+
+    /**
+     * Looks up the mime type of a file from its extension
+     * @param fileName - the file name or path
+     * @return - the mime type, or application/octet-stream if the extension is not known
+     */
+    public static String forFileName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot == -1 || dot < fileName.lastIndexOf('/')) {
+            return DEFAULT;
+        }
+        String type = TYPES.get(fileName.substring(dot + 1).toLowerCase());
+        return type != null ? type : DEFAULT;
+    }
+
+    /**
+     * Whether content of the mime type is worth compressing. Images, fonts, archives and media are already compressed.
+     * @param mimeType - the mime type, parameters such as charset are ignored
+     * @return - true for text based types
+     */
+    public static boolean isCompressible(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+        int semicolon = mimeType.indexOf(';');
+        String type = (semicolon == -1 ? mimeType : mimeType.substring(0, semicolon)).trim().toLowerCase();
+        return type.startsWith("text/")
+                || type.equals("application/javascript")
+                || type.equals("application/json")
+                || type.equals("application/xml")
+                || type.equals("application/wasm")
+                || type.equals("image/svg+xml")
+                || type.equals("image/x-icon")
+                || type.endsWith("+json")
+                || type.endsWith("+xml");
+    }
+}
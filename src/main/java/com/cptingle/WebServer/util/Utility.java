@@ -6,7 +6,7 @@ import com.cptingle.WebServer.server.ClientConnection;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Date;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,21 +23,7 @@ public class Utility {
      * @return - A string containing all of the headers delimited by a newline
      */
     public static String buildHeaders(ClientConnection cc, Status rc, List<String> extraHeaders, String mimeType, int contentLength) {
-        String ret = "";
-        ret += "HTTP/1.1 " + rc.getStatusCode() + " " + rc.getReasonPhrase() + "\r\n";
-        ret += "Server: Christian Tingles HTTP Server v" + cc.getServer().getVersion() + "\r\n";
-        ret += "Date: " + new Date() + "\r\n";
-        ret += "Content-type: " + mimeType + "\r\n";
-        ret += "Content-length: " + contentLength + "\r\n";
-        if (!cc.getServer().areConnectionsPersistent())
-            ret += "Connection: close\r\n";
-        if (extraHeaders != null) {
-            for (int i = 0; i < extraHeaders.size(); i++) {
-                ret += extraHeaders.get(i) + "\r\n";
-            }
-        }
-        ret += "\r\n";
-        return ret;
+        return new String(cc.getServer().getHeaderEncoder().encode(rc, mimeType, contentLength, extraHeaders), StandardCharsets.ISO_8859_1);
     }
 
     /**
@@ -47,15 +33,22 @@ public class Utility {
      * @throws IOException
      */
     public static byte[] fileToByteArray(File file) throws IOException {
-        FileInputStream fis = null;
-        byte[] data = new byte[(int) file.length()];
+        long length = file.length();
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("File " + file + " is too large to be read into memory");
+        }
 
-        try {
-            fis = new FileInputStream(file);
-            fis.read(data);
-        } finally {
-            if (fis != null)
-                fis.close();
+        byte[] data = new byte[(int) length];
+        try (FileInputStream fis = new FileInputStream(file)) {
+            // A single read may return fewer bytes than requested, keep reading until the array is full
+            int offset = 0;
+            while (offset < data.length) {
+                int read = fis.read(data, offset, data.length - offset);
+                if (read == -1) {
+                    throw new IOException("File " + file + " was truncated while it was being read");
+                }
+                offset += read;
+            }
         }
 
         return data;
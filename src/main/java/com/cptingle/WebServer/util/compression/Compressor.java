@@ -0,0 +1,244 @@
+package com.cptingle.WebServer.util.compression;
+
+import com.cptingle.WebServer.exceptions.YAMLConfigurationException;
+import com.cptingle.WebServer.messaging.Request;
+import com.cptingle.WebServer.messaging.Response;
+import com.cptingle.WebServer.server.HTTPServer;
+import com.cptingle.WebServer.util.MimeTypes;
+import com.cptingle.WebServer.util.configuration.Configuration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Negotiates the content coding of a response from the Accept-Encoding request header and compresses bodies with gzip or deflate.
+ * The compression level drops as the system load rises so compression never competes with serving requests for CPU time.
+ */
+public class Compressor {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    // How often the system load is sampled, in nanoseconds
+    private static final long LOAD_SAMPLE_INTERVAL = 1_000_000_000L;
+
+    private boolean enabled = true;
+    private int minSize = 1024;
+    private int level = 6;
+    private int staticLevel = 9;
+
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private volatile double load;
+    private volatile long nextLoadSample = System.nanoTime();
+
+    public Compressor(HTTPServer server) {
+        try {
+            Configuration section = server.getConfig().getSection("compression");
+            this.enabled = section.getBoolean("enabled", true);
+            this.minSize = section.getInt("min-size", 1024);
+            this.level = clampLevel(section.getInt("level", 6));
+            this.staticLevel = clampLevel(section.getInt("static-level", 9));
+        } catch (YAMLConfigurationException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return - bodies smaller than this many bytes are always sent uncompressed
+     */
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Decides whether a body is worth compressing at all, before looking at what the client accepts
+     * @param mimeType - the mime type of the body
+     * @param length - the length of the uncompressed body
+     * @return - true if the body should be compressed for clients that accept it
+     */
+    public boolean isEligible(String mimeType, long length) {
+        return enabled && length >= minSize && MimeTypes.isCompressible(mimeType);
+    }
+
+    /**
+     * Picks the content coding to use from an Accept-Encoding header. gzip is preferred over deflate when both are
+     * acceptable with the same weight, codings with a weight of 0 are never used.
+     * @param acceptEncoding - the header value, may be null
+     * @return - gzip, deflate, or null if the body should be sent uncompressed
+     */
+    public String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String coding = part;
+            double q = 1;
+            int semicolon = part.indexOf(';');
+            if (semicolon != -1) {
+                coding = part.substring(0, semicolon);
+                String param = part.substring(semicolon + 1).trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            coding = coding.trim().toLowerCase();
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+                gzip = q;
+            } else if (coding.equals(DEFLATE)) {
+                deflate = q;
+            } else if (coding.equals("*")) {
+                any = q;
+            }
+        }
+
+        // Codings that are not listed take the weight of the wildcard
+        if (gzip == -1)
+            gzip = any;
+        if (deflate == -1)
+            deflate = any;
+
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        if (deflate > 0) {
+            return DEFLATE;
+        }
+        return null;
+    }
+
+    /**
+     * Compresses the in-memory body of a response if the client accepts a compressed coding. File and buffer bodies are
+     * left alone, static files are compressed once and cached by the static file handler instead.
+     * @param req - the request being answered, may be null
+     * @param rsp - the response about to be sent
+     */
+    public void apply(Request req, Response rsp) {
+        if (req == null || rsp.getContentEncoding() != null || rsp.getBodyFile() != null || rsp.getBodyBuffers() != null) {
+            return;
+        }
+
+        byte[] body = rsp.getBody();
+        if (body == null || !isEligible(rsp.getContentType(), body.length)) {
+            return;
+        }
+
+        rsp.addHeader("Vary: Accept-Encoding");
+        String encoding = negotiate(req.getHeaderValue("accept-encoding"));
+        if (encoding == null) {
+            return;
+        }
+
+        try {
+            byte[] compressed = compress(body, 0, body.length, encoding, getLevel(level));
+            if (compressed.length < body.length) {
+                rsp.setEncodedBody(compressed, encoding);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Compresses a static file. Static files are only compressed once so they get a higher level than dynamic responses.
+     * @param data - the file contents
+     * @param offset - the offset of the first byte
+     * @param length - the number of bytes
+     * @param encoding - gzip or deflate
+     * @return - the compressed bytes
+     * @throws IOException
+     */
+    public byte[] compressStatic(byte[] data, int offset, int length, String encoding) throws IOException {
+        return compress(data, offset, length, encoding, getLevel(staticLevel));
+    }
+
+    /**
+     * Compresses bytes with the given content coding
+     * @param data - the bytes to compress
+     * @param offset - the offset of the first byte
+     * @param length - the number of bytes
+     * @param encoding - gzip or deflate
+     * @param level - the deflate level from 1 (fastest) to 9 (smallest)
+     * @return - the compressed bytes
+     * @throws IOException
+     */
+    public static byte[] compress(byte[] data, int offset, int length, String encoding, int level) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, length / 3));
+        if (encoding.equals(GZIP)) {
+            try (OutputStream out = new LevelledGZIPOutputStream(bytes, level)) {
+                out.write(data, offset, length);
+            }
+        } else {
+            // The deflate coding is the zlib format, not raw deflate
+            Deflater deflater = new Deflater(level);
+            try (OutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+                out.write(data, offset, length);
+            } finally {
+                deflater.end();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Scales the preferred level down as the system load average approaches the number of processors
+     * @param preferred - the level to use when the system is idle
+     * @return - the level to use now
+     */
+    public int getLevel(int preferred) {
+        double perCpu = sampleLoad();
+        if (perCpu < 0.5) {
+            return preferred;
+        }
+        if (perCpu < 0.8) {
+            return Math.min(preferred, 4);
+        }
+        if (perCpu < 1.0) {
+            return Math.min(preferred, 2);
+        }
+        return Deflater.BEST_SPEED;
+    }
+
+    /**
+     * @return - the system load average per processor, resampled at most once a second, or a negative value if the platform does not report it
+     */
+    private double sampleLoad() {
+        long now = System.nanoTime();
+        if (now - nextLoadSample >= 0) {
+            nextLoadSample = now + LOAD_SAMPLE_INTERVAL;
+            double average = os.getSystemLoadAverage();
+            load = average < 0 ? -1 : average / os.getAvailableProcessors();
+        }
+        return load;
+    }
+
+    private static int clampLevel(int level) {
+        return Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level));
+    }
+
+    /**
+     * GZIPOutputStream always uses the default level, its deflater can only be changed from a subclass
+     */
+    private static class LevelledGZIPOutputStream extends GZIPOutputStream {
+        LevelledGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out);
+            def.setLevel(level);
+        }
+    }
+}
@@ -7,7 +7,9 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * com.cptingle.WebServer.util.configuration.Configuration class based on the SnakeYAML library
@@ -15,6 +17,8 @@ import java.util.Map;
 public class Configuration {
     private Yaml confFile = new Yaml();
     private Map<String, Object> config = null;
+    // The file the configuration was loaded from, null for sections
+    private Path file;
 
     public Configuration() {
         load("./configuration/config.yaml");
@@ -35,6 +39,7 @@ public class Configuration {
     private void load(String path) {
         try {
             Path target = Paths.get(path);
+            this.file = target;
             if (!Files.exists(target)) {
                 Files.createDirectories(target.getParent());
                 InputStream in = getClass().getResourceAsStream("/default_config.yaml");
@@ -89,7 +94,9 @@ public class Configuration {
         if (obj instanceof Boolean) {
             return (Boolean) obj;
         } else {
-            System.err.println("Expected type Boolean for key '" + key + "' but found " + (obj != null ? obj.getClass().getName() : "null"));
+            // A missing key simply takes the default, only a value of the wrong type is worth reporting
+            if (obj != null)
+                System.err.println("Expected type Boolean for key '" + key + "' but found " + obj.getClass().getName());
             return def;
         }
     }
@@ -120,7 +127,8 @@ public class Configuration {
         if (obj instanceof Integer) {
             return (Integer) obj;
         } else {
-            System.err.println("Expected type Boolean for key '" + key + "' but found " + (obj != null ? obj.getClass().getName() : "null"));
+            if (obj != null)
+                System.err.println("Expected type Integer for key '" + key + "' but found " + obj.getClass().getName());
             return def;
         }
     }
@@ -151,11 +159,27 @@ public class Configuration {
         if (obj instanceof String) {
             return (String) obj;
         } else {
-            System.err.println("Expected type Boolean for key '" + key + "' but found " + (obj != null ? obj.getClass().getName() : "null"));
+            if (obj != null)
+                System.err.println("Expected type String for key '" + key + "' but found " + obj.getClass().getName());
             return def;
         }
     }
 
+    /**
+     * @return - the file the configuration was loaded from, or null if this is a section
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Fetches the keys of this configuration section in the order they appear in the YAML file
+     * @return - the set of keys
+     */
+    public Set<String> getKeys() {
+        return config != null ? config.keySet() : Collections.<String>emptySet();
+    }
+
     /**
      * Fetches an Object at the specified key
      * @param key - key of the Object value to be fetched
@@ -0,0 +1,390 @@
+package com.cptingle.WebServer.util.configuration;
+
+import com.cptingle.WebServer.exceptions.YAMLConfigurationException;
+import com.cptingle.WebServer.files.CacheControlPolicy;
+import com.cptingle.WebServer.messaging.RequestParser;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * The server settings read from the configuration file, resolved once into typed fields. A snapshot never changes, the
+ * server replaces it as a whole when the file is reloaded, so connections read every setting through a single volatile
+ * reference instead of looking keys up in the YAML maps.
+ */
+public class ServerSettings {
+    // The keys, or whole sections, read into the settings. Changes to any other key only take effect after a restart.
+    private static final String[] KEYS = {"debug", "server-version", "bind-address", "port", "index-page", "files", "persistence",
+            "transport", "executor", "requests", "streaming", "compression.variant-cache-size", "compression.max-file-size"};
+
+    private boolean debug = false;
+    private String version = "";
+    private String bindAddress = "0.0.0.0";
+    private int port = 80;
+    private Path webRoot = Paths.get("./html");
+    private String indexPage = "index.html";
+
+    private boolean fileCacheEnabled = true;
+    private int fileCacheMaxSize = 64 * 1024 * 1024;
+    private int fileCacheMaxFileSize = 1024 * 1024;
+    private boolean fileCacheOffHeap = false;
+    private boolean watchWebRoot = true;
+    private int maxMappedSize = 256 * 1024 * 1024;
+    private CacheControlPolicy cacheControl = new CacheControlPolicy();
+    private int variantCacheSize = 32 * 1024 * 1024;
+    private int maxCompressedFileSize = 10 * 1024 * 1024;
+
+    private boolean persistentConnections = false;
+    private int persistentConnectionTimeout = 6000;
+
+    private String transport = "blocking";
+    private int acceptors = 1;
+    private String executorType = "cached";
+    private int maxThreads = 200;
+    private int queueSize = 1000;
+    private int retryAfter = 5;
+
+    private int maxRequestLine = RequestParser.DEFAULT_MAX_REQUEST_LINE;
+    private int maxHeaderSize = RequestParser.DEFAULT_MAX_HEADER_SIZE;
+    private long maxBodySize = RequestParser.DEFAULT_MAX_BODY_SIZE;
+    private long maxDrainSize = 1024 * 1024;
+    private int asyncTimeout = 30000;
+    private int maxPipeline = 32;
+
+    private int streamChunkSize = 8192;
+    private int streamMaxBuffered = 65536;
+
+    private ServerSettings() {
+    }
+
+    /**
+     * Resolves the settings from a configuration. Missing keys take their defaults, values of the wrong type or out of
+     * range are reported and take their defaults too.
+     * @param config - the configuration to read
+     * @param problems - receives a description of every value that could not be used
+     * @return - the settings
+     */
+    public static ServerSettings load(Configuration config, List<String> problems) {
+        ServerSettings s = new ServerSettings();
+        s.debug = readBoolean(config, "debug", s.debug, problems);
+        s.bindAddress = readString(config, "bind-address", s.bindAddress, problems);
+        s.port = readInt(config, "port", s.port, problems);
+        if (s.port < 0 || s.port > 65535) {
+            problems.add("port must be between 0 and 65535 but is " + s.port);
+            s.port = 80;
+        }
+        s.indexPage = readString(config, "index-page", s.indexPage, problems);
+        s.version = require(config, "server-version", problems);
+
+        Configuration files = section(config, "files", problems);
+        String webRoot = require(files, "web-root", problems);
+        if (!webRoot.isEmpty()) {
+            s.webRoot = Paths.get(webRoot);
+        }
+        Configuration cache = section(files, "cache", problems);
+        s.fileCacheEnabled = readBoolean(cache, "enabled", s.fileCacheEnabled, problems);
+        s.fileCacheMaxSize = atLeast(readInt(cache, "max-size", s.fileCacheMaxSize, problems), 0, "files.cache.max-size", s.fileCacheMaxSize, problems);
+        s.fileCacheMaxFileSize = atLeast(readInt(cache, "max-file-size", s.fileCacheMaxFileSize, problems), 0, "files.cache.max-file-size", s.fileCacheMaxFileSize, problems);
+        s.fileCacheOffHeap = readBoolean(cache, "off-heap", s.fileCacheOffHeap, problems);
+        s.watchWebRoot = readBoolean(cache, "watch", s.watchWebRoot, problems);
+        s.maxMappedSize = atLeast(readInt(cache, "max-mapped-size", s.maxMappedSize, problems), 0, "files.cache.max-mapped-size", s.maxMappedSize, problems);
+        Configuration cacheControl = section(files, "cache-control", problems);
+        if (cacheControl != null) {
+            s.cacheControl = new CacheControlPolicy(cacheControl);
+        }
+
+        Configuration compression = section(config, "compression", problems);
+        s.variantCacheSize = atLeast(readInt(compression, "variant-cache-size", s.variantCacheSize, problems), 0, "compression.variant-cache-size", s.variantCacheSize, problems);
+        s.maxCompressedFileSize = atLeast(readInt(compression, "max-file-size", s.maxCompressedFileSize, problems), 0, "compression.max-file-size", s.maxCompressedFileSize, problems);
+
+        Configuration persistence = section(config, "persistence", problems);
+        s.persistentConnections = readBoolean(persistence, "use-persistent-connections", s.persistentConnections, problems);
+        s.persistentConnectionTimeout = atLeast(readInt(persistence, "persistent-connection-timeout", s.persistentConnectionTimeout, problems),
+                0, "persistence.persistent-connection-timeout", s.persistentConnectionTimeout, problems);
+
+        Configuration transport = section(config, "transport", problems);
+        s.transport = readString(transport, "type", s.transport, problems);
+        if (!s.transport.equals("blocking") && !s.transport.equals("nio")) {
+            problems.add("Unknown transport type '" + s.transport + "', falling back to blocking");
+            s.transport = "blocking";
+        }
+        s.acceptors = atLeast(readInt(transport, "acceptors", s.acceptors, problems), 1, "transport.acceptors", s.acceptors, problems);
+
+        Configuration executor = section(config, "executor", problems);
+        s.executorType = readString(executor, "type", s.executorType, problems);
+        if (!s.executorType.equals("cached") && !s.executorType.equals("virtual") && !s.executorType.equals("bounded")) {
+            problems.add("Unknown executor type '" + s.executorType + "', falling back to cached");
+            s.executorType = "cached";
+        }
+        s.maxThreads = atLeast(readInt(executor, "max-threads", s.maxThreads, problems), 1, "executor.max-threads", s.maxThreads, problems);
+        s.queueSize = atLeast(readInt(executor, "queue-size", s.queueSize, problems), 0, "executor.queue-size", s.queueSize, problems);
+        s.retryAfter = atLeast(readInt(executor, "retry-after", s.retryAfter, problems), 0, "executor.retry-after", s.retryAfter, problems);
+
+        Configuration requests = section(config, "requests", problems);
+        s.maxRequestLine = atLeast(readInt(requests, "max-request-line", s.maxRequestLine, problems), 1, "requests.max-request-line", s.maxRequestLine, problems);
+        s.maxHeaderSize = atLeast(readInt(requests, "max-header-size", s.maxHeaderSize, problems), 1, "requests.max-header-size", s.maxHeaderSize, problems);
+        s.maxBodySize = atLeast(readInt(requests, "max-body-size", (int) s.maxBodySize, problems), 0, "requests.max-body-size", (int) s.maxBodySize, problems);
+        s.maxDrainSize = atLeast(readInt(requests, "max-drain-size", (int) s.maxDrainSize, problems), 0, "requests.max-drain-size", (int) s.maxDrainSize, problems);
+        s.asyncTimeout = atLeast(readInt(requests, "async-timeout", s.asyncTimeout, problems), 0, "requests.async-timeout", s.asyncTimeout, problems);
+        s.maxPipeline = atLeast(readInt(requests, "max-pipeline", s.maxPipeline, problems), 1, "requests.max-pipeline", s.maxPipeline, problems);
+
+        Configuration streaming = section(config, "streaming", problems);
+        s.streamChunkSize = atLeast(readInt(streaming, "chunk-size", s.streamChunkSize, problems), 1, "streaming.chunk-size", s.streamChunkSize, problems);
+        s.streamMaxBuffered = atLeast(readInt(streaming, "max-buffered", s.streamMaxBuffered, problems), 0, "streaming.max-buffered", s.streamMaxBuffered, problems);
+        return s;
+    }
+
+    /**
+     * @param other - the settings in effect
+     * @return - the names of the settings that differ from the other settings but are only applied when the server starts
+     */
+    public String restartRequired(ServerSettings other) {
+        StringBuilder changed = new StringBuilder();
+        if (!bindAddress.equals(other.bindAddress) || port != other.port)
+            changed.append(" bind-address/port");
+        if (!webRoot.equals(other.webRoot))
+            changed.append(" files.web-root");
+        if (watchWebRoot != other.watchWebRoot)
+            changed.append(" files.cache.watch");
+        if (!transport.equals(other.transport) || acceptors != other.acceptors)
+            changed.append(" transport");
+        if (!executorType.equals(other.executorType) || maxThreads != other.maxThreads || queueSize != other.queueSize)
+            changed.append(" executor");
+        return changed.toString().trim();
+    }
+
+    /**
+     * @param key - a configuration key, with the names of its sections separated by dots
+     * @return - whether the key is read into the settings, so a change to it is either applied on reload or reported by restartRequired
+     */
+    public static boolean covers(String key) {
+        for (String known : KEYS) {
+            if (key.equals(known) || key.startsWith(known + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getBindAddress() {
+        return bindAddress;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Path getWebRoot() {
+        return webRoot;
+    }
+
+    /**
+     * @return - the file name appended to request paths that end with a slash
+     */
+    public String getIndexPage() {
+        return indexPage;
+    }
+
+    public boolean isFileCacheEnabled() {
+        return fileCacheEnabled;
+    }
+
+    /**
+     * @return - the total number of bytes of file content the static file cache may hold
+     */
+    public int getFileCacheMaxSize() {
+        return fileCacheMaxSize;
+    }
+
+    /**
+     * @return - the size above which static files are streamed from disk instead of cached
+     */
+    public int getFileCacheMaxFileSize() {
+        return fileCacheMaxFileSize;
+    }
+
+    public boolean isFileCacheOffHeap() {
+        return fileCacheOffHeap;
+    }
+
+    /**
+     * @return - whether the web root is watched so cached files are dropped when they change
+     */
+    public boolean isWatchingWebRoot() {
+        return watchWebRoot;
+    }
+
+    /**
+     * @return - the total number of bytes of file content kept memory mapped for range requests
+     */
+    public int getMaxMappedSize() {
+        return maxMappedSize;
+    }
+
+    public CacheControlPolicy getCacheControl() {
+        return cacheControl;
+    }
+
+    /**
+     * @return - the total number of bytes of compressed static files to keep
+     */
+    public int getVariantCacheSize() {
+        return variantCacheSize;
+    }
+
+    /**
+     * @return - the size above which static files are sent uncompressed
+     */
+    public int getMaxCompressedFileSize() {
+        return maxCompressedFileSize;
+    }
+
+    public boolean arePersistentConnections() {
+        return persistentConnections;
+    }
+
+    public int getPersistentConnectionTimeout() {
+        return persistentConnectionTimeout;
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    /**
+     * @return - the number of listening sockets, each with its own accepting thread and executor shard
+     */
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public String getExecutorType() {
+        return executorType;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    public int getMaxRequestLine() {
+        return maxRequestLine;
+    }
+
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    public long getMaxDrainSize() {
+        return maxDrainSize;
+    }
+
+    public int getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
+    /**
+     * @return - the most received requests of one connection that wait to be answered before reading from it pauses
+     */
+    public int getMaxPipeline() {
+        return maxPipeline;
+    }
+
+    public int getStreamChunkSize() {
+        return streamChunkSize;
+    }
+
+    public int getStreamMaxBuffered() {
+        return streamMaxBuffered;
+    }
+
+    /**
+     * @return - the section, or null if it is missing or is not a section
+     */
+    private static Configuration section(Configuration config, String key, List<String> problems) {
+        if (config == null || !config.getKeys().contains(key))
+            return null;
+        try {
+            return config.getSection(key);
+        } catch (YAMLConfigurationException e) {
+            problems.add(e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean readBoolean(Configuration config, String key, boolean def, List<String> problems) {
+        if (config == null || !config.getKeys().contains(key))
+            return def;
+        try {
+            return config.getBoolean(key);
+        } catch (YAMLConfigurationException e) {
+            problems.add(e.getMessage());
+            return def;
+        }
+    }
+
+    private static int readInt(Configuration config, String key, int def, List<String> problems) {
+        if (config == null || !config.getKeys().contains(key))
+            return def;
+        try {
+            return config.getInt(key);
+        } catch (YAMLConfigurationException e) {
+            problems.add(e.getMessage());
+            return def;
+        }
+    }
+
+    private static String readString(Configuration config, String key, String def, List<String> problems) {
+        if (config == null || !config.getKeys().contains(key))
+            return def;
+        try {
+            return config.getString(key);
+        } catch (YAMLConfigurationException e) {
+            problems.add(e.getMessage());
+            return def;
+        }
+    }
+
+    /**
+     * @return - the string at the key, or an empty string if it is missing, which is reported
+     */
+    private static String require(Configuration config, String key, List<String> problems) {
+        if (config == null || !config.getKeys().contains(key)) {
+            problems.add("Missing required key '" + key + "'");
+            return "";
+        }
+        try {
+            return config.getString(key);
+        } catch (YAMLConfigurationException e) {
+            problems.add(e.getMessage());
+            return "";
+        }
+    }
+
+    private static int atLeast(int value, int min, String name, int def, List<String> problems) {
+        if (value >= min)
+            return value;
+        problems.add(name + " must be at least " + min + " but is " + value);
+        return def;
+    }
+}
@@ -0,0 +1,60 @@
+package com.cptingle.WebServer.util.logging;
+
+import java.net.InetAddress;
+
+/**
+ * A line waiting to be written by the log writer. Only the raw values are captured on the thread that logs, the line is
+ * formatted by the writer.
+ */
+final class LogRecord {
+    // Where the line goes
+    static final int HTTP_LOG = 0;
+    static final int ERROR_LOG = 1;
+    // Also printed to the console
+    static final int CONSOLE_NONE = 0;
+    static final int CONSOLE_OUT = 1;
+    static final int CONSOLE_ERR = 2;
+
+    final int target;
+    final long time;
+    final LogLevel level;
+    final String ip;
+    final String hostname;
+    final String message;
+    final String status;
+    // Set instead of ip, message and status by access log lines, which are turned into text by the writer
+    final InetAddress address;
+    final String path;
+    final int statusCode;
+    final int console;
+    // Whether the line is also written to the log file, console only lines are not
+    final boolean file;
+
+    private LogRecord(int target, LogLevel level, String ip, String hostname, String message, String status,
+                      InetAddress address, String path, int statusCode, int console, boolean file) {
+        this.target = target;
+        this.time = System.currentTimeMillis();
+        this.level = level;
+        this.ip = ip;
+        this.hostname = hostname;
+        this.message = message;
+        this.status = status;
+        this.address = address;
+        this.path = path;
+        this.statusCode = statusCode;
+        this.console = console;
+        this.file = file;
+    }
+
+    static LogRecord request(String ip, String hostname, String request, String status) {
+        return new LogRecord(HTTP_LOG, null, ip, hostname, request, status, null, null, 0, CONSOLE_NONE, true);
+    }
+
+    static LogRecord access(InetAddress address, String hostname, String method, String path, int statusCode) {
+        return new LogRecord(HTTP_LOG, null, null, hostname, method, null, address, path, statusCode, CONSOLE_NONE, true);
+    }
+
+    static LogRecord error(LogLevel level, String message, String ip, int console, boolean file) {
+        return new LogRecord(ERROR_LOG, level, ip, null, message, null, null, null, 0, console, file);
+    }
+}
@@ -0,0 +1,91 @@
+package com.cptingle.WebServer.util.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded ring of log records with many producers and a single consumer. Producers claim a slot with one compare and
+ * set on the tail and never take a lock, so a request thread logging is never held up by another one or by the writer.
+ * Every slot carries a sequence number saying whether it is free for the producer of a given lap or holds a record for the
+ * consumer, which also publishes the record to the other side.
+ */
+class LogRing {
+    private final LogRecord[] records;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Only touched by the consumer
+    private long head;
+    // The head published for size(), may lag behind
+    private final AtomicLong consumed = new AtomicLong();
+
+    /**
+     * @param capacity - the most records the ring holds, rounded up to a power of two
+     */
+    LogRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.records = new LogRecord[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return - the number of slots
+     */
+    int capacity() {
+        return records.length;
+    }
+
+    /**
+     * @return - roughly the number of records waiting for the consumer
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - consumed.get());
+    }
+
+    /**
+     * Adds a record unless the ring is full. Safe to call from any thread.
+     * @param record - the record
+     * @return - false if the ring is full
+     */
+    boolean offer(LogRecord record) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    records[index] = record;
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // The slot still holds the record of the previous lap
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest record. Only called by the consumer thread.
+     * @return - the record, or null if the ring is empty
+     */
+    LogRecord poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        LogRecord record = records[index];
+        records[index] = null;
+        sequences.set(index, head + records.length);
+        head++;
+        consumed.lazySet(head);
+        return record;
+    }
+}
@@ -4,89 +4,196 @@ import com.cptingle.WebServer.exceptions.YAMLConfigurationException;
 import com.cptingle.WebServer.server.HTTPServer;
 import com.cptingle.WebServer.util.configuration.Configuration;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.net.InetAddress;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * This class is used to log http requests into the specified log file
+ * This class is used to log http requests into the specified log file.
+ * Logging never touches a file on the calling thread: the values of each line are put into a lock free ring and a single
+ * writer thread formats them and writes them out in batches, when enough lines are waiting or the flush interval passes.
+ * When the writer falls behind and the ring is full the configured {@link OverflowPolicy} applies.
+ * The files are rotated by {@link RotatingLogFile} when they grow too large or too old.
  */
 public class Logger {
     private HTTPServer server;
-    private SimpleDateFormat dateFormatter;
+    private DateTimeFormatter dateFormatter;
     private Configuration configSection;
 
     private boolean enabled;
+    // Whether every answered request is written to the http log
+    private boolean accessLog;
 
     private String httpLogFilePath;
     private String httpLogFileBasePath;
     private String httpLogFileName;
     private int httpLogFileMaxLength;
-    private File httpLogFile;
-    private PrintWriter httpLogFileWriter;
+    private RotatingLogFile httpLogFile;
 
     private String errorLogFilePath;
     private String errorLogFileBasePath;
     private String errorLogFileName;
     private int errorLogFileMaxLength;
-    private File errorLogFile;
-    private PrintWriter errorLogFileWriter;
-    private LogLevel errorLogMinLogLevel;
+    private RotatingLogFile errorLogFile;
+    private LogLevel errorLogMinLogLevel = LogLevel.WARN;
+
+    private int bufferSize = 8192;
+    private int batchSize = 512;
+    private long flushInterval = 1000;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.COUNT;
+    private LogRing ring;
+    private Thread writer;
+    private final Thread shutdownHook = new Thread(this::close, "logger-shutdown");
+    private volatile boolean running;
+    // Set while the writer is parked, so producers know it has to be woken
+    private volatile boolean writerParked;
+    private final LongAdder dropped = new LongAdder();
+    // Compresses and deletes rotated log files
+    private final ExecutorService archiver = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "log-archiver");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Used by the writer only
+    private long droppedReported;
+    private long lastDateSecond = -1;
+    private String lastDate;
+    private final StringBuilder httpBatch = new StringBuilder();
+    private final StringBuilder errorBatch = new StringBuilder();
 
 
     public Logger(HTTPServer server) {
         this.server = server;
-        dateFormatter = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
+        dateFormatter = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss");
 
         try {
             this.configSection = server.getConfig().getSection("logging");
             this.enabled = configSection.getBoolean("enabled", true);
+            this.accessLog = configSection.getBoolean("access-log", false);
 
             this.httpLogFileBasePath = configSection.getString("http-log-file-path", ".") + "/";
             this.httpLogFileName = configSection.getString("http-log-file-name", "http_log");
             this.httpLogFileMaxLength = configSection.getInt("http-log-file-max-length", 150);
             this.httpLogFilePath = httpLogFileBasePath + httpLogFileName;
-            this.httpLogFile = new File(httpLogFilePath);
-            try {
-                if (!Files.exists(Paths.get(httpLogFilePath))) {
-                    Files.createDirectories(Paths.get(httpLogFileBasePath));
-                    Files.createFile(Paths.get(httpLogFilePath));
-                    this.httpLogFileWriter = new PrintWriter(new FileWriter(httpLogFilePath, true));
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            this.httpLogFileWriter = new PrintWriter(new FileWriter(httpLogFilePath, true));
 
             this.errorLogFileBasePath = configSection.getString("error-log-file-path", ".") + "/";
             this.errorLogFileName = configSection.getString("error-log-file-name", "error_log");
             this.errorLogFileMaxLength = configSection.getInt("error-log-file-max-length", 150);
             this.errorLogFilePath = errorLogFileBasePath + errorLogFileName;
-            this.errorLogFile = new File(errorLogFilePath);
+            String minLevel = configSection.getString("error-log-minlevel", "WARN");
             try {
-                if (!Files.exists(Paths.get(errorLogFilePath))) {
-                    Files.createDirectories(Paths.get(errorLogFileBasePath));
-                    Files.createFile(Paths.get(errorLogFilePath));
-                    this.errorLogFileWriter = new PrintWriter(new FileWriter(errorLogFilePath, true));
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+                this.errorLogMinLogLevel = LogLevel.valueOf(minLevel.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown logging error-log-minlevel " + minLevel + ", using WARN");
             }
-            this.errorLogFileWriter = new PrintWriter(new FileWriter(errorLogFilePath, true));
-            this.errorLogMinLogLevel = LogLevel.valueOf(configSection.getString("error-log-minlevel", "WARN"));
+
+            this.bufferSize = Math.max(16, configSection.getInt("buffer-size", 8192));
+            this.batchSize = Math.max(1, configSection.getInt("batch-size", 512));
+            this.flushInterval = Math.max(10, configSection.getInt("flush-interval", 1000));
+
+            String policy = configSection.getString("overflow-policy", "COUNT");
+            try {
+                this.overflowPolicy = OverflowPolicy.valueOf(policy.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown logging overflow-policy " + policy + ", using COUNT");
+            }
+
+            // Both files share the size and time limits, retention and compression, the line limits are per file
+            long maxFileSize = Math.max(0, configSection.getInt("max-file-size", 10 * 1024 * 1024));
+            long rotateInterval = Math.max(0, configSection.getInt("rotate-interval", 0)) * 1000L;
+            boolean compressRotated = configSection.getBoolean("compress-rotated", true);
+            int maxRotatedFiles = Math.max(0, configSection.getInt("max-rotated-files", 10));
+            this.httpLogFile = new RotatingLogFile(Paths.get(httpLogFilePath), maxFileSize, Math.max(0, httpLogFileMaxLength), rotateInterval, compressRotated, maxRotatedFiles, archiver);
+            this.errorLogFile = new RotatingLogFile(Paths.get(errorLogFilePath), maxFileSize, Math.max(0, errorLogFileMaxLength), rotateInterval, compressRotated, maxRotatedFiles, archiver);
         } catch (YAMLConfigurationException e) {
             System.err.println(e.getMessage());
         } catch (IOException e) {
             e.printStackTrace();
         }
+
+        this.ring = new LogRing(bufferSize);
+        this.running = true;
+        this.writer = new Thread(this::writeLoop, "log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        // Whatever is still queued when the JVM exits is written out
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Writes out everything that is queued and stops the writer thread. Lines logged afterwards are discarded.
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // Already shutting down
+            }
+        }
+        try {
+            if (httpLogFile != null)
+                httpLogFile.close();
+            if (errorLogFile != null)
+                errorLogFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // Let a compression that is under way finish, the files not compressed yet are picked up on the next start
+        archiver.shutdown();
+        try {
+            archiver.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return - the number of log lines discarded because the writer could not keep up
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return - true if answered requests are written to the http log, see {@link #logAccess}
+     */
+    public boolean isAccessLogEnabled() {
+        return enabled && accessLog;
+    }
+
+    /**
+     * Logs an answered request to the http log file if the access log is enabled. Only the values are captured here, the
+     * line is built by the writer thread, so nothing is formatted on the thread that answered the request.
+     * @param address - the address of the client
+     * @param hostname - the Host header of the request, may be null
+     * @param method - the request method
+     * @param path - the request path
+     * @param status - the status code of the response
+     */
+    public void logAccess(InetAddress address, String hostname, String method, String path, int status) {
+        if (isAccessLogEnabled()) {
+            enqueue(LogRecord.access(address, hostname, method, path, status));
+        }
     }
 
     /**
@@ -98,9 +205,7 @@ public class Logger {
      */
     public void logRequest(String ip, String hostname, String request, String status) {
         if (enabled) {
-            httpLogFileWriter.printf("%-27s %-40s %-23s %-60s %7s %n", ip, hostname, dateFormatter.format(new Date()), request, status);
-            httpLogFileWriter.flush();
-            checkHttpLogFileLength();
+            enqueue(LogRecord.request(ip, hostname, request, status));
         }
     }
 
@@ -176,61 +281,149 @@ public class Logger {
     public void errorLog(LogLevel level, String message, String ip) {
         if (enabled && (level.val >= errorLogMinLogLevel.val || server.isDebugging())) {
             if (level == LogLevel.DEBUG || server.isDebugging()) {
-                String client = ((ip != null && !ip.equals("")) ? "[client " + ip + "] " : "");
-                System.out.println("[" + dateFormatter.format(new Date()) + "] [" + level.text + "] " + client + ": " + message);
+                enqueue(LogRecord.error(level, message, ip, LogRecord.CONSOLE_OUT, level.val >= errorLogMinLogLevel.val));
+            } else {
+                enqueue(LogRecord.error(level, message, ip, level.val >= LogLevel.SEVERE.val ? LogRecord.CONSOLE_ERR : LogRecord.CONSOLE_NONE, true));
+            }
+        }
+    }
 
-                if (level.val >= errorLogMinLogLevel.val) {
-                    errorLogFileWriter.println("[" + dateFormatter.format(new Date()) + "] [" + level.text + "] [client " + ip + "] : " + message);
-                    errorLogFileWriter.flush();
-                    checkErrorLogFileLength();
+    /**
+     * Hands a record to the writer, applying the overflow policy if the ring is full
+     * @param record - the record
+     */
+    private void enqueue(LogRecord record) {
+        if (!running) {
+            return;
+        }
+        while (!ring.offer(record)) {
+            if (overflowPolicy != OverflowPolicy.BLOCK || !running) {
+                dropped.increment();
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100_000);
+        }
+        if (writerParked && ring.size() >= batchSize) {
+            writerParked = false;
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Runs on the writer thread. Drains the ring whenever a batch is waiting or the flush interval has passed, and writes the
+     * lines of each file with a single write.
+     */
+    private void writeLoop() {
+        long intervalNanos = flushInterval * 1_000_000L;
+        while (true) {
+            boolean stopping = !running;
+            LogRecord record;
+            while ((record = ring.poll()) != null) {
+                format(record);
+                if (httpBatch.length() >= 64 * 1024 || errorBatch.length() >= 64 * 1024) {
+                    writeBatches();
                 }
-            } else {
-                if (level.val >= LogLevel.SEVERE.val) {
-                    System.err.println("[" + dateFormatter.format(new Date()) + "] [" + level.text + "] [client " + ip + "] : " + message);
+            }
+            if (overflowPolicy == OverflowPolicy.COUNT) {
+                long total = dropped.sum();
+                if (total > droppedReported) {
+                    appendErrorLine(System.currentTimeMillis(), LogLevel.WARN, (total - droppedReported) + " log lines were dropped because the log writer fell behind", "");
+                    droppedReported = total;
                 }
+            }
+            writeBatches();
 
-                errorLogFileWriter.println("[" + dateFormatter.format(new Date()) + "] [" + level.text + "] [client " + ip + "] : " + message);
-                errorLogFileWriter.flush();
-                checkErrorLogFileLength();
+            if (stopping) {
+                return;
+            }
+            writerParked = true;
+            if (ring.size() < batchSize && running) {
+                LockSupport.parkNanos(this, intervalNanos);
             }
+            writerParked = false;
         }
     }
 
     /**
-     * Check the http log file length and if it is longer than the max length,
-     * copy the current file into the sequentially highest file and create a new http log file
+     * Formats a record into the batch of its file and prints it to the console if it has to be
      */
-    private void checkHttpLogFileLength() {
-        try {
-            Path filepath = Paths.get(httpLogFilePath);
-            if (Files.exists(filepath) && Files.readAllLines(filepath, Charset.defaultCharset()).size() >= httpLogFileMaxLength) {
-                int i = 1;
-                while(Files.exists(Paths.get(httpLogFilePath + "_" + i))) {
-                    i++;
-                }
-                Files.copy(filepath, Paths.get(httpLogFilePath + "_" + i));
-                Files.write(filepath, new byte[0]);
+    private void format(LogRecord record) {
+        if (record.target == LogRecord.HTTP_LOG) {
+            // Same layout as String.format("%-27s %-40s %-23s %-60s %7s %n"), without parsing the format for every line
+            padRight(httpBatch, record.address != null ? record.address.getHostAddress() : record.ip, 27).append(' ');
+            padRight(httpBatch, record.hostname, 40).append(' ');
+            padRight(httpBatch, formatDate(record.time), 23).append(' ');
+            padRight(httpBatch, record.path != null ? record.message + " " + record.path : record.message, 60).append(' ');
+            String status = record.status != null ? record.status : String.valueOf(record.statusCode);
+            for (int i = status.length(); i < 7; i++) {
+                httpBatch.append(' ');
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            httpBatch.append(status).append(' ').append(System.lineSeparator());
+            return;
+        }
+
+        if (record.console == LogRecord.CONSOLE_OUT) {
+            String client = ((record.ip != null && !record.ip.equals("")) ? "[client " + record.ip + "] " : "");
+            System.out.println("[" + formatDate(record.time) + "] [" + record.level.text + "] " + client + ": " + record.message);
+        } else if (record.console == LogRecord.CONSOLE_ERR) {
+            System.err.println("[" + formatDate(record.time) + "] [" + record.level.text + "] [client " + record.ip + "] : " + record.message);
+        }
+        if (record.file) {
+            appendErrorLine(record.time, record.level, record.message, record.ip);
+        }
+    }
+
+    private static StringBuilder padRight(StringBuilder sb, String value, int width) {
+        String text = String.valueOf(value);
+        sb.append(text);
+        for (int i = text.length(); i < width; i++) {
+            sb.append(' ');
+        }
+        return sb;
+    }
+
+    private void appendErrorLine(long time, LogLevel level, String message, String ip) {
+        errorBatch.append('[').append(formatDate(time)).append("] [").append(level.text).append("] [client ").append(ip).append("] : ").append(message).append(System.lineSeparator());
+    }
+
+    /**
+     * @param time - milliseconds since the epoch
+     * @return - the formatted date, reused for every line logged in the same second
+     */
+    private String formatDate(long time) {
+        long second = time / 1000;
+        if (second != lastDateSecond) {
+            lastDate = dateFormatter.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()));
+            lastDateSecond = second;
+        }
+        return lastDate;
+    }
+
+    /**
+     * Writes the formatted lines out and checks whether the files have to be rotated
+     */
+    private void writeBatches() {
+        if (httpBatch.length() > 0) {
+            writeLines(httpLogFile, httpBatch.toString());
+            httpBatch.setLength(0);
+        }
+        if (errorBatch.length() > 0) {
+            writeLines(errorLogFile, errorBatch.toString());
+            errorBatch.setLength(0);
         }
     }
 
     /**
-     * Check the error log file length and if it is longer than the max length,
-     * copy the current file into the sequentially highest file and create a new error log file
+     * Writes lines to a log file, which rotates itself when it is full. Only called by the writer thread.
+     * @param file - the log file
+     * @param lines - the lines to write including their line separators
      */
-    private void checkErrorLogFileLength() {
+    private void writeLines(RotatingLogFile file, String lines) {
+        if (file == null)
+            return;
         try {
-            Path filepath = Paths.get(errorLogFilePath);
-            if (Files.exists(filepath) && Files.readAllLines(filepath, Charset.defaultCharset()).size() >= errorLogFileMaxLength) {
-                int i = 1;
-                while(Files.exists(Paths.get(errorLogFilePath + "_" + i))) {
-                    i++;
-                }
-                Files.copy(filepath, Paths.get(errorLogFilePath + "_" + i));
-                Files.write(filepath, new byte[0]);
-            }
+            file.write(lines);
         } catch (IOException e) {
             e.printStackTrace();
         }
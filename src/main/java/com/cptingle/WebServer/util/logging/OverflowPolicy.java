@@ -0,0 +1,13 @@
+package com.cptingle.WebServer.util.logging;
+
+/**
+ * What a thread logging does when the log writer has fallen behind and the queue of records is full
+ */
+public enum OverflowPolicy {
+    // Wait for the writer to make room, nothing is lost but logging can hold up requests
+    BLOCK,
+    // Discard the record
+    DROP,
+    // Discard the record and have the writer log how many records were discarded
+    COUNT
+}
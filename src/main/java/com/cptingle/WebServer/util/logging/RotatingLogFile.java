@@ -0,0 +1,246 @@
+package com.cptingle.WebServer.util.logging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A log file that is rotated once it holds too many bytes or lines, or has been written to for too long. The size of the
+ * file is tracked in memory as it is written, so deciding whether to rotate costs nothing however large the file is.
+ * Rotation renames the file to name_N, N being one more than the newest rotated file, and starts a new one. Rotated files
+ * are gzip compressed and the oldest are deleted on a background thread, so the writer is never held up by either.
+ * Not thread safe, only the log writer thread writes to it.
+ */
+class RotatingLogFile {
+    private final Path path;
+    private final long maxBytes;
+    private final long maxLines;
+    private final long maxAge;
+    private final boolean compress;
+    private final int retention;
+    private final ExecutorService background;
+
+    private FileChannel channel;
+    private long bytes;
+    private long lines;
+    private long openedAt;
+    private long nextIndex;
+    // Indexes of the rotated files that still exist, oldest first. Only used by the background thread once it has started.
+    private final Deque<Long> rotated = new ArrayDeque<Long>();
+
+    /**
+     * @param path - the log file
+     * @param maxBytes - the size at which the file is rotated, 0 for no limit
+     * @param maxLines - the number of lines at which the file is rotated, 0 for no limit
+     * @param maxAge - the milliseconds after which the file is rotated, 0 for no limit
+     * @param compress - whether rotated files are gzip compressed
+     * @param retention - the number of rotated files kept, 0 to keep them all
+     * @param background - runs compression and deletion of rotated files
+     * @throws IOException
+     */
+    RotatingLogFile(Path path, long maxBytes, long maxLines, long maxAge, boolean compress, int retention, ExecutorService background) throws IOException {
+        this.path = path;
+        this.maxBytes = maxBytes;
+        this.maxLines = maxLines;
+        this.maxAge = maxAge;
+        this.compress = compress;
+        this.retention = retention;
+        this.background = background;
+
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        findRotated();
+        open();
+        this.bytes = channel.size();
+        // Counted once when the file is opened, afterwards the count is kept up to date as lines are written
+        if (maxLines > 0 && bytes > 0) {
+            this.lines = countLines();
+        }
+    }
+
+    /**
+     * Appends text to the file and rotates it if a limit has been reached
+     * @param text - whole lines, including their line separators
+     * @throws IOException
+     */
+    void write(String text) throws IOException {
+        if (maxAge > 0 && bytes > 0 && System.currentTimeMillis() - openedAt >= maxAge) {
+            rotate();
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        bytes += buf.remaining();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n')
+                lines++;
+        }
+
+        if ((maxBytes > 0 && bytes >= maxBytes) || (maxLines > 0 && lines >= maxLines)) {
+            rotate();
+        }
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Renames the current file out of the way and starts a new one. The rename is atomic, so anything reading the log
+     * sees either the old file or the new one, never a partly copied file. If the rename fails the file is reopened
+     * and kept, so logging carries on and the rotation is tried again on the next write.
+     * @throws IOException
+     */
+    private void rotate() throws IOException {
+        long index = nextIndex;
+        Path target = rotatedPath(index, false);
+        channel.close();
+        try {
+            try {
+                Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(path, target);
+            }
+        } finally {
+            open();
+        }
+        nextIndex = index + 1;
+        bytes = 0;
+        lines = 0;
+
+        try {
+            background.execute(() -> archive(index));
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the file is left uncompressed
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        openedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Runs on the background thread. Compresses a rotated file and deletes the oldest rotated files beyond the retention limit.
+     * @param index - the index of the rotated file
+     */
+    private void archive(long index) {
+        if (compress) {
+            compress(index);
+        }
+
+        rotated.addLast(index);
+        while (retention > 0 && rotated.size() > retention) {
+            long oldest = rotated.removeFirst();
+            try {
+                Files.deleteIfExists(rotatedPath(oldest, false));
+                Files.deleteIfExists(rotatedPath(oldest, true));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Replaces a rotated file with its gzip compressed copy. The copy is written under a temporary name first, so a
+     * .gz file is always complete.
+     * @param index - the index of the rotated file
+     */
+    private void compress(long index) {
+        Path source = rotatedPath(index, false);
+        Path target = rotatedPath(index, true);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (InputStream in = Files.newInputStream(source);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp), 64 * 1024)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(source);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Path rotatedPath(long index, boolean compressed) {
+        return path.resolveSibling(path.getFileName() + "_" + index + (compressed ? ".gz" : ""));
+    }
+
+    /**
+     * Finds the files rotated by earlier runs, so numbering carries on after the newest and the retention limit covers them
+     * @throws IOException
+     */
+    private void findRotated() throws IOException {
+        String prefix = path.getFileName() + "_";
+        List<Long> found = new ArrayList<Long>();
+        Path dir = path.toAbsolutePath().getParent();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*")) {
+            for (Path file : files) {
+                String suffix = file.getFileName().toString().substring(prefix.length());
+                if (suffix.endsWith(".gz"))
+                    suffix = suffix.substring(0, suffix.length() - 3);
+                try {
+                    long index = Long.parseLong(suffix);
+                    if (!found.contains(index))
+                        found.add(index);
+                } catch (NumberFormatException e) {
+                    // Not a rotated log file
+                }
+            }
+        }
+        Collections.sort(found);
+        rotated.addAll(found);
+        nextIndex = found.isEmpty() ? 1 : found.get(found.size() - 1) + 1;
+
+        // Files left uncompressed by a previous run that stopped before compressing them
+        if (compress) {
+            for (long index : found) {
+                if (Files.exists(rotatedPath(index, false)) && !Files.exists(rotatedPath(index, true))) {
+                    background.execute(() -> compress(index));
+                }
+            }
+        }
+    }
+
+    private long countLines() throws IOException {
+        long count = 0;
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] == '\n')
+                        count++;
+                }
+            }
+        }
+        return count;
+    }
+}
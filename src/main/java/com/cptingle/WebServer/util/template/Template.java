@@ -0,0 +1,148 @@
+package com.cptingle.WebServer.util.template;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A page with %%symbol%% placeholders, compiled once into a list of segments: the literal text between the placeholders,
+ * already encoded as UTF-8, and the names of the symbols. Rendering writes the segments out in a single pass, substituting
+ * each symbol with its HTML escaped value, or with nothing if it has no value. A %% without a closing %% is kept as text.
+ * Templates are immutable and can be rendered by any number of threads at once.
+ */
+public class Template {
+    private static final String DELIM = "%%";
+
+    // Literal segments are byte[], symbols are String
+    private final Object[] segments;
+    // Bytes of literal text, used to size the output
+    private final int literalLength;
+
+    private Template(Object[] segments, int literalLength) {
+        this.segments = segments;
+        this.literalLength = literalLength;
+    }
+
+    /**
+     * @param text - the template text
+     * @return - the compiled template
+     */
+    public static Template compile(String text) {
+        List<Object> segments = new ArrayList<Object>();
+        int literalLength = 0;
+        int start = 0;
+        int i = text.indexOf(DELIM);
+        while (i != -1) {
+            int end = text.indexOf(DELIM, i + DELIM.length());
+            if (end == -1) {
+                break;
+            }
+            if (i > start) {
+                byte[] literal = text.substring(start, i).getBytes(StandardCharsets.UTF_8);
+                segments.add(literal);
+                literalLength += literal.length;
+            }
+            segments.add(text.substring(i + DELIM.length(), end));
+            start = end + DELIM.length();
+            i = text.indexOf(DELIM, start);
+        }
+        if (start < text.length()) {
+            byte[] literal = text.substring(start).getBytes(StandardCharsets.UTF_8);
+            segments.add(literal);
+            literalLength += literal.length;
+        }
+        return new Template(segments.toArray(), literalLength);
+    }
+
+    /**
+     * Writes the rendered template to a stream, such as the stream of a streamed response
+     * @param symbols - the values of the symbols
+     * @param out - the stream to write to
+     * @throws IOException
+     */
+    public void render(Map<String, ?> symbols, OutputStream out) throws IOException {
+        for (Object segment : segments) {
+            if (segment instanceof byte[]) {
+                out.write((byte[]) segment);
+                continue;
+            }
+            Object value = symbols.get(segment);
+            if (value != null) {
+                out.write(escape(String.valueOf(value)).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * @param symbols - the values of the symbols
+     * @return - the rendered template encoded as UTF-8, ready to be used as a response body
+     */
+    public byte[] renderBytes(Map<String, ?> symbols) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(literalLength + 16 * (segments.length / 2 + 1));
+        try {
+            render(symbols, out);
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param symbols - the values of the symbols
+     * @return - the rendered template
+     */
+    public String render(Map<String, ?> symbols) {
+        return new String(renderBytes(symbols), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Replaces the characters that are special in HTML text and attribute values with their character references
+     * @param value - the text to escape
+     * @return - the escaped text, the same string if nothing had to be escaped
+     */
+    public static String escape(String value) {
+        int i = 0;
+        while (i < value.length() && !isSpecial(value.charAt(i))) {
+            i++;
+        }
+        if (i == value.length()) {
+            return value;
+        }
+
+        StringBuilder sb = new StringBuilder(value.length() + 16);
+        sb.append(value, 0, i);
+        for (; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                case '\'':
+                    sb.append("&#39;");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isSpecial(char c) {
+        return c == '&' || c == '<' || c == '>' || c == '"' || c == '\'';
+    }
+}
@@ -0,0 +1,56 @@
+package com.cptingle.WebServer.util.template;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled templates by file path. A file is read and compiled the first time it is used and again only when its
+ * modification time or size changes, so rendering a page does not touch its text.
+ */
+public class TemplateCache {
+    private final ConcurrentHashMap<Path, Entry> templates = new ConcurrentHashMap<Path, Entry>();
+
+    /**
+     * @param file - the template file
+     * @return - the compiled template
+     * @throws IOException if the file can't be read, NoSuchFileException if it does not exist
+     */
+    public Template get(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = Files.readAttributes(key, BasicFileAttributes.class);
+        long modified = attrs.lastModifiedTime().toMillis();
+
+        Entry entry = templates.get(key);
+        if (entry != null && entry.modified == modified && entry.size == attrs.size()) {
+            return entry.template;
+        }
+
+        // Two threads may compile a changed file at the same time, both results are the same so either can be kept
+        Template template = Template.compile(new String(Files.readAllBytes(key), StandardCharsets.UTF_8));
+        templates.put(key, new Entry(template, modified, attrs.size()));
+        return template;
+    }
+
+    /**
+     * Drops every compiled template
+     */
+    public void clear() {
+        templates.clear();
+    }
+
+    private static class Entry {
+        private final Template template;
+        private final long modified;
+        private final long size;
+
+        Entry(Template template, long modified, long size) {
+            this.template = template;
+            this.modified = modified;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.cptingle.WebServer.files;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteRangeTest {
+    private static String ranges(String header, long size) {
+        List<ByteRange> ranges = ByteRange.parse(header, size);
+        if (ranges == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (ByteRange range : ranges) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(range.getStart()).append('-').append(range.getEnd());
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void parsesSingleRanges() {
+        assertEquals("0-499", ranges("bytes=0-499", 1000));
+        assertEquals("500-999", ranges("bytes=500-", 1000));
+        assertEquals("900-999", ranges("bytes=-100", 1000));
+        assertEquals("0-0", ranges(" bytes=0-0 ", 1000));
+    }
+
+    @Test
+    void shortensRangesPastTheEnd() {
+        assertEquals("900-999", ranges("bytes=900-5000", 1000));
+        assertEquals("0-999", ranges("bytes=-5000", 1000));
+    }
+
+    @Test
+    void mergesOverlappingAndAdjacentRanges() {
+        assertEquals("0-199", ranges("bytes=100-199,0-99", 1000));
+        assertEquals("0-149,300-399", ranges("bytes=300-399, 0-100, 50-149", 1000));
+    }
+
+    @Test
+    void dropsUnsatisfiableRanges() {
+        assertEquals("", ranges("bytes=1000-1100", 1000));
+        assertEquals("", ranges("bytes=-0", 1000));
+        assertEquals("0-9", ranges("bytes=2000-,0-9", 1000));
+    }
+
+    @Test
+    void ignoresMalformedHeaders() {
+        assertNull(ranges("items=0-10", 1000));
+        assertNull(ranges("bytes=10", 1000));
+        assertNull(ranges("bytes=a-b", 1000));
+        assertNull(ranges("bytes=20-10", 1000));
+        assertNull(ranges("bytes=0-1,2-3,4-5,6-7,8-9,10-11,12-13,14-15,16-17,18-19,20-21,22-23,24-25,26-27,28-29,30-31,32-33", 1000));
+    }
+
+    @Test
+    void formatsContentRange() {
+        ByteRange range = new ByteRange(0, 499);
+        assertEquals(500, range.getLength());
+        assertEquals("bytes 0-499/1234", range.toContentRange(1234));
+    }
+}
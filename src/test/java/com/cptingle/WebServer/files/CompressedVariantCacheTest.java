@@ -0,0 +1,88 @@
+package com.cptingle.WebServer.files;
+
+import com.cptingle.WebServer.server.TestServer;
+import com.cptingle.WebServer.util.compression.Compressor;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedVariantCacheTest {
+    private static TestServer server;
+    private static Compressor compressor;
+
+    @TempDir
+    Path dir;
+    private Path file;
+    private CompressedVariantCache variants;
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = new TestServer("blocking");
+        compressor = new Compressor(server.getServer());
+    }
+
+    @AfterAll
+    static void stop() throws IOException {
+        server.close();
+    }
+
+    @BeforeEach
+    void create() {
+        file = dir.resolve("page.html");
+        variants = new CompressedVariantCache(compressor, 1024 * 1024, 1024 * 1024);
+    }
+
+    private FileMetadata write(String content, long modified) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+        return new FileMetadata(Files.readAttributes(file, BasicFileAttributes.class), null, "text/html", true);
+    }
+
+    @Test
+    void knowsTheLengthOnlyOnceCompressed() throws IOException {
+        FileMetadata meta = write("<p>hello hello hello hello</p>", 1_000_000);
+        assertEquals(-1, variants.getLength(file, meta, Compressor.GZIP));
+
+        ByteBuffer gzip = variants.get(file, meta, null, Compressor.GZIP);
+        assertEquals(gzip.remaining(), variants.getLength(file, meta, Compressor.GZIP));
+        assertEquals(-1, variants.getLength(file, meta, Compressor.DEFLATE));
+        assertEquals(gzip.remaining(), variants.getUsedBytes());
+    }
+
+    @Test
+    void servesTheSameCopyUntilTheFileChanges() throws IOException {
+        FileMetadata meta = write("<p>hello hello hello hello</p>", 1_000_000);
+        ByteBuffer first = variants.get(file, meta, null, Compressor.GZIP);
+        assertEquals(first, variants.get(file, meta, null, Compressor.GZIP));
+
+        FileMetadata changed = write("<p>goodbye goodbye goodbye goodbye</p>", 2_000_000);
+        assertEquals(-1, variants.getLength(file, changed, Compressor.GZIP));
+        ByteBuffer second = variants.get(file, changed, null, Compressor.GZIP);
+        assertNotEquals(first, second);
+        // The replaced copy no longer counts towards the budget
+        assertEquals(second.remaining(), variants.getUsedBytes());
+    }
+
+    @Test
+    void givesBackTheBytesOfInvalidatedCopies() throws IOException {
+        FileMetadata meta = write("<p>hello hello hello hello</p>", 1_000_000);
+        variants.get(file, meta, null, Compressor.GZIP);
+        variants.get(file, meta, null, Compressor.DEFLATE);
+
+        variants.invalidate(dir);
+        assertEquals(0, variants.getUsedBytes());
+        assertEquals(-1, variants.getLength(file, meta, Compressor.GZIP));
+    }
+}
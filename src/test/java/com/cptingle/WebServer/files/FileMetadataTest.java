@@ -0,0 +1,44 @@
+package com.cptingle.WebServer.files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileMetadataTest {
+    // Sun, 06 Nov 1994 08:49:37 GMT
+    private static final long DATE = 784111777000L;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void parsesAllThreeHttpDateFormats() {
+        assertEquals(DATE, FileMetadata.parseHttpDate("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(DATE, FileMetadata.parseHttpDate("Sunday, 06-Nov-94 08:49:37 GMT"));
+        assertEquals(DATE, FileMetadata.parseHttpDate("Sun Nov  6 08:49:37 1994"));
+        assertEquals(DATE, FileMetadata.parseHttpDate(" Sun, 06 Nov 1994 08:49:37 GMT "));
+    }
+
+    @Test
+    void rejectsOtherDates() {
+        assertEquals(-1, FileMetadata.parseHttpDate("Sun, 6 Nov 1994 08:49:37 GMT"));
+        assertEquals(-1, FileMetadata.parseHttpDate("Sun, 06 Nov 1994 08:49:37 +0100"));
+        assertEquals(-1, FileMetadata.parseHttpDate("1994-11-06T08:49:37Z"));
+        assertEquals(-1, FileMetadata.parseHttpDate(""));
+    }
+
+    @Test
+    void padsTheDayOfLastModified() throws IOException {
+        Path file = Files.write(dir.resolve("file"), new byte[1]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(DATE));
+        FileMetadata meta = new FileMetadata(Files.readAttributes(file, BasicFileAttributes.class), null, "text/plain", false);
+        assertTrue(meta.getHeaders().contains("Last-Modified: Sun, 06 Nov 1994 08:49:37 GMT"), meta.getHeaders().toString());
+    }
+}
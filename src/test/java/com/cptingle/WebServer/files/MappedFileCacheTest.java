@@ -0,0 +1,66 @@
+package com.cptingle.WebServer.files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedFileCacheTest {
+    @TempDir
+    Path dir;
+
+    private FileMetadata write(Path file, int size, long modified) throws IOException {
+        Files.write(file, new byte[size]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+        return new FileMetadata(Files.readAttributes(file, BasicFileAttributes.class), null, "application/octet-stream", false);
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedMappings() throws IOException {
+        MappedFileCache mappings = new MappedFileCache(250);
+        Path a = dir.resolve("a");
+        Path b = dir.resolve("b");
+        Path c = dir.resolve("c");
+        FileMetadata metaA = write(a, 100, 1_000_000);
+        FileMetadata metaB = write(b, 100, 1_000_000);
+        FileMetadata metaC = write(c, 100, 1_000_000);
+
+        MappedFile first = mappings.get(a, metaA);
+        mappings.get(b, metaB);
+        assertSame(first, mappings.get(a, metaA));
+        mappings.get(c, metaC);
+
+        assertEquals(2, mappings.size());
+        assertEquals(200, mappings.getUsedBytes());
+        assertSame(first, mappings.get(a, metaA));
+    }
+
+    @Test
+    void doesNotKeepFilesLargerThanTheBudget() throws IOException {
+        MappedFileCache mappings = new MappedFileCache(50);
+        Path file = dir.resolve("large");
+        FileMetadata meta = write(file, 100, 1_000_000);
+
+        assertNotNull(mappings.get(file, meta));
+        assertEquals(0, mappings.size());
+        assertEquals(0, mappings.getUsedBytes());
+    }
+
+    @Test
+    void refusesToServeAFileThatChanged() throws IOException {
+        MappedFileCache mappings = new MappedFileCache(1000);
+        Path file = dir.resolve("file");
+        FileMetadata meta = write(file, 100, 1_000_000);
+        assertNotNull(mappings.get(file, meta));
+
+        // Truncated without the watcher noticing yet
+        write(file, 10, 2_000_000);
+        assertNull(mappings.get(file, meta));
+    }
+}
@@ -0,0 +1,160 @@
+package com.cptingle.WebServer.messaging;
+
+import com.cptingle.WebServer.exceptions.RequestBodyException;
+import com.cptingle.WebServer.response.Status;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BodyDecoderTest {
+    private static ByteBuffer buffer(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Decodes everything the decoder accepts from the buffer
+     * @return - the decoded data
+     */
+    private static String decodeAll(BodyDecoder decoder, ByteBuffer in) throws RequestBodyException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] out = new byte[7];
+        int n;
+        while ((n = decoder.decode(in, out, 0, out.length)) > 0) {
+            data.write(out, 0, n);
+        }
+        return new String(data.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    private static Status failure(BodyDecoder decoder, String raw) {
+        return assertThrows(RequestBodyException.class, () -> decodeAll(decoder, buffer(raw))).getStatus();
+    }
+
+    @Test
+    void fixedLengthStopsAtTheEndOfTheBody() throws RequestBodyException {
+        BodyDecoder decoder = BodyDecoder.fixed(11);
+        ByteBuffer in = buffer("hello worldGET / HTTP/1.1");
+        assertEquals(11, decoder.getRemaining());
+        assertEquals("hello world", decodeAll(decoder, in));
+        assertTrue(decoder.isComplete());
+        assertEquals(0, decoder.getRemaining());
+        assertEquals("GET / HTTP/1.1", StandardCharsets.ISO_8859_1.decode(in).toString());
+    }
+
+    @Test
+    void fixedLengthOfZeroIsComplete() {
+        assertTrue(BodyDecoder.fixed(0).isComplete());
+    }
+
+    @Test
+    void decodesChunks() throws RequestBodyException {
+        BodyDecoder decoder = BodyDecoder.chunked(1000);
+        ByteBuffer in = buffer("5\r\nhello\r\n6\r\n world\r\n0\r\n\r\nNEXT");
+        assertEquals(-1, decoder.getRemaining());
+        assertEquals("hello world", decodeAll(decoder, in));
+        assertTrue(decoder.isComplete());
+        assertEquals(11, decoder.getDecodedLength());
+        assertEquals("NEXT", StandardCharsets.ISO_8859_1.decode(in).toString());
+    }
+
+    @Test
+    void decodesChunksArrivingOneByteAtATime() throws RequestBodyException {
+        BodyDecoder decoder = BodyDecoder.chunked(1000);
+        byte[] raw = "a\r\n0123456789\r\n1;ext=1\r\n!\r\n0\r\nTrailer: x\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        StringBuilder data = new StringBuilder();
+        byte[] out = new byte[4];
+        for (byte b : raw) {
+            ByteBuffer in = ByteBuffer.wrap(new byte[]{b});
+            while (in.hasRemaining()) {
+                int n = decoder.decode(in, out, 0, out.length);
+                data.append(new String(out, 0, n, StandardCharsets.ISO_8859_1));
+            }
+        }
+        assertEquals("0123456789!", data.toString());
+        assertTrue(decoder.isComplete());
+    }
+
+    @Test
+    void acceptsUpperCaseHexAndBareLineFeeds() throws RequestBodyException {
+        BodyDecoder decoder = BodyDecoder.chunked(1000);
+        assertEquals("0123456789", decodeAll(decoder, buffer("A\n0123456789\n0\n\n")));
+        assertTrue(decoder.isComplete());
+    }
+
+    @Test
+    void skipsChunkExtensions() throws RequestBodyException {
+        BodyDecoder decoder = BodyDecoder.chunked(1000);
+        assertEquals("abc", decodeAll(decoder, buffer("3;name=value;other\r\nabc\r\n0;last\r\n\r\n")));
+        assertTrue(decoder.isComplete());
+    }
+
+    @Test
+    void skipsTrailers() throws RequestBodyException {
+        BodyDecoder decoder = BodyDecoder.chunked(1000);
+        ByteBuffer in = buffer("3\r\nabc\r\n0\r\nChecksum: 1234\r\nExpires: never\r\n\r\nGET");
+        assertEquals("abc", decodeAll(decoder, in));
+        assertTrue(decoder.isComplete());
+        assertEquals("GET", StandardCharsets.ISO_8859_1.decode(in).toString());
+    }
+
+    @Test
+    void rejectsChunkSizesThatOverflow() {
+        // 16 hex digits would overflow a long into a negative size
+        assertEquals(Status.REQUEST_ENTITY_TOO_LARGE, failure(BodyDecoder.chunked(Long.MAX_VALUE), "ffffffffffffffff\r\n"));
+        assertEquals(Status.REQUEST_ENTITY_TOO_LARGE, failure(BodyDecoder.chunked(Long.MAX_VALUE), "0000000000000001\r\nx"));
+    }
+
+    @Test
+    void rejectsBodiesOverTheLimit() throws RequestBodyException {
+        assertEquals("0123456789", decodeAll(BodyDecoder.chunked(10), buffer("5\r\n01234\r\n5\r\n56789\r\n0\r\n\r\n")));
+        // The size is checked when the chunk is announced, before its data is read
+        assertEquals(Status.REQUEST_ENTITY_TOO_LARGE, failure(BodyDecoder.chunked(10), "5\r\n01234\r\n6\r\n"));
+    }
+
+    @Test
+    void rejectsMalformedChunkSizes() {
+        assertEquals(Status.BAD_REQUEST, failure(BodyDecoder.chunked(1000), "\r\n"));
+        assertEquals(Status.BAD_REQUEST, failure(BodyDecoder.chunked(1000), "-5\r\nhello\r\n"));
+        assertEquals(Status.BAD_REQUEST, failure(BodyDecoder.chunked(1000), "0x5\r\nhello\r\n"));
+        assertEquals(Status.BAD_REQUEST, failure(BodyDecoder.chunked(1000), "5\rhello\r\n"));
+    }
+
+    @Test
+    void rejectsDataLongerThanItsChunk() {
+        assertEquals(Status.BAD_REQUEST, failure(BodyDecoder.chunked(1000), "3\r\nabcdef\r\n0\r\n\r\n"));
+        assertEquals(Status.BAD_REQUEST, failure(BodyDecoder.chunked(1000), "3\r\nabc\rx"));
+    }
+
+    @Test
+    void rejectsLongExtensions() {
+        StringBuilder raw = new StringBuilder("1;");
+        for (int i = 0; i < 5000; i++) {
+            raw.append('x');
+        }
+        assertEquals(Status.BAD_REQUEST, failure(BodyDecoder.chunked(1000), raw.toString()));
+    }
+
+    @Test
+    void rejectsLargeTrailers() {
+        StringBuilder raw = new StringBuilder("0\r\n");
+        for (int i = 0; i < 1000; i++) {
+            raw.append("X-Trailer: value\r\n");
+        }
+        assertEquals(Status.REQUEST_HEADER_FIELDS_TOO_LARGE, failure(BodyDecoder.chunked(1000), raw.toString()));
+    }
+
+    @Test
+    void stopsWhenTheOutputIsFull() throws RequestBodyException {
+        BodyDecoder decoder = BodyDecoder.chunked(1000);
+        ByteBuffer in = buffer("a\r\n0123456789\r\n0\r\n\r\n");
+        byte[] out = new byte[4];
+        assertEquals(4, decoder.decode(in, out, 0, 4));
+        assertEquals("0123", new String(out, StandardCharsets.ISO_8859_1));
+        assertFalse(decoder.isComplete());
+        assertEquals("456789", decodeAll(decoder, in));
+        assertTrue(decoder.isComplete());
+    }
+}
@@ -0,0 +1,183 @@
+package com.cptingle.WebServer.messaging;
+
+import com.cptingle.WebServer.exceptions.HTTPParseException;
+import com.cptingle.WebServer.response.Status;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestParserTest {
+    // Parsers keep their progress through a head between calls, every test starts with a new one
+    private final RequestParser parser = newParser();
+
+    private static RequestParser newParser() {
+        return new RequestParser(null, "index.html", 64, 1024, 1000);
+    }
+
+    private static ByteBuffer buffer(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static Request parse(String text) throws HTTPParseException {
+        return newParser().parse(buffer(text));
+    }
+
+    private static Status failure(String text) {
+        return assertThrows(HTTPParseException.class, () -> parse(text)).getStatus();
+    }
+
+    @Test
+    void parsesRequestLineAndHeaders() throws HTTPParseException {
+        Request request = parse("GET /docs/page.html?a=1&b=2 HTTP/1.1\r\nHost: example.com\r\nX-Custom:  value \r\n\r\n");
+        assertEquals(Method.GET, request.getMethod());
+        assertEquals("/docs/page.html", request.getPath());
+        assertEquals("a=1&b=2", request.getQueryString());
+        assertEquals("example.com", request.getHeaderValue("host"));
+        assertEquals("value", request.getHeaderValue("x-custom"));
+        assertFalse(request.hasBody());
+    }
+
+    @Test
+    void appendsIndexPageToDirectories() throws HTTPParseException {
+        assertEquals("/docs/index.html", parse("GET /docs/ HTTP/1.1\r\n\r\n").getPath());
+    }
+
+    @Test
+    void acceptsBareLineFeeds() throws HTTPParseException {
+        assertEquals("/a", parse("GET /a HTTP/1.1\nHost: x\n\n").getPath());
+    }
+
+    @Test
+    void waitsForTheWholeHead() throws HTTPParseException {
+        byte[] bytes = "GET /a HTTP/1.1\r\nHost: x\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer buf = ByteBuffer.allocate(bytes.length);
+        Request request = null;
+        for (byte b : bytes) {
+            buf.put(b);
+            buf.flip();
+            request = parser.parse(buf);
+            if (request == null) {
+                assertEquals(0, buf.position());
+                buf.position(buf.limit());
+                buf.limit(buf.capacity());
+            }
+        }
+        assertNotNull(request);
+        assertEquals("x", request.getHeaderValue("host"));
+    }
+
+    @Test
+    void leavesPipelinedRequestsInTheBuffer() throws HTTPParseException {
+        ByteBuffer buf = buffer("GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\n\r\nGET /c");
+        assertEquals("/a", parser.parse(buf).getPath());
+        assertEquals("/b", parser.parse(buf).getPath());
+        assertNull(parser.parse(buf));
+        assertEquals("GET /c", StandardCharsets.ISO_8859_1.decode(buf).toString());
+    }
+
+    @Test
+    void skipsBlankLinesBeforeTheRequestLine() throws HTTPParseException {
+        assertEquals("/a", parse("\r\n\r\nGET /a HTTP/1.1\r\n\r\n").getPath());
+    }
+
+    @Test
+    void combinesRepeatedHeaders() throws HTTPParseException {
+        Request request = parse("GET / HTTP/1.1\r\nAccept: a\r\nACCEPT: b\r\nCookie: x=1\r\nCookie: y=2\r\n\r\n");
+        assertEquals("a, b", request.getHeaderValue("accept"));
+        assertEquals("x=1; y=2", request.getHeaderValue("cookie"));
+    }
+
+    @Test
+    void framesBodyWithContentLength() throws HTTPParseException {
+        Request request = parse("POST /a HTTP/1.1\r\nContent-Length: 12\r\n\r\n");
+        assertTrue(request.hasBody());
+        assertFalse(request.isChunked());
+        assertEquals(12, request.getContentLength());
+    }
+
+    @Test
+    void framesChunkedBody() throws HTTPParseException {
+        Request request = parse("POST /a HTTP/1.1\r\nTransfer-Encoding: Chunked\r\n\r\n");
+        assertTrue(request.hasBody());
+        assertTrue(request.isChunked());
+    }
+
+    @Test
+    void acceptsRepeatedContentLengthsThatAgree() throws HTTPParseException {
+        assertEquals(5, parse("POST /a HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 5\r\n\r\n").getContentLength());
+        assertEquals(5, parse("POST /a HTTP/1.1\r\nContent-Length: 5, 5\r\n\r\n").getContentLength());
+    }
+
+    @Test
+    void rejectsConflictingContentLengths() {
+        assertEquals(Status.BAD_REQUEST, failure("POST /a HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 6\r\n\r\n"));
+        assertEquals(Status.BAD_REQUEST, failure("POST /a HTTP/1.1\r\nContent-Length: 5, 6\r\n\r\n"));
+    }
+
+    @Test
+    void rejectsContentLengthTogetherWithTransferEncoding() {
+        assertEquals(Status.BAD_REQUEST, failure("POST /a HTTP/1.1\r\nContent-Length: 5\r\nTransfer-Encoding: chunked\r\n\r\n"));
+    }
+
+    @Test
+    void rejectsUnsupportedTransferCodings() {
+        assertEquals(Status.NOT_IMPLEMENTED, failure("POST /a HTTP/1.1\r\nTransfer-Encoding: gzip, chunked\r\n\r\n"));
+    }
+
+    @Test
+    void rejectsMalformedContentLengths() {
+        assertEquals(Status.BAD_REQUEST, failure("POST /a HTTP/1.1\r\nContent-Length: -1\r\n\r\n"));
+        assertEquals(Status.BAD_REQUEST, failure("POST /a HTTP/1.1\r\nContent-Length: 0x10\r\n\r\n"));
+        assertEquals(Status.BAD_REQUEST, failure("POST /a HTTP/1.1\r\nContent-Length: \r\n\r\n"));
+        assertEquals(Status.REQUEST_ENTITY_TOO_LARGE, failure("POST /a HTTP/1.1\r\nContent-Length: 99999999999999999999\r\n\r\n"));
+    }
+
+    @Test
+    void rejectsBodiesOverTheLimit() throws HTTPParseException {
+        assertEquals(1000, parse("POST /a HTTP/1.1\r\nContent-Length: 1000\r\n\r\n").getContentLength());
+        assertEquals(Status.REQUEST_ENTITY_TOO_LARGE, failure("POST /a HTTP/1.1\r\nContent-Length: 1001\r\n\r\n"));
+    }
+
+    @Test
+    void rejectsUnsupportedExpectations() {
+        assertEquals(Status.EXPECTATION_FAILED, failure("POST /a HTTP/1.1\r\nContent-Length: 1\r\nExpect: something\r\n\r\n"));
+    }
+
+    @Test
+    void rejectsLongRequestLinesBeforeTheHeadEnds() {
+        StringBuilder path = new StringBuilder("/");
+        for (int i = 0; i < 100; i++) {
+            path.append('a');
+        }
+        assertEquals(Status.REQUESTED_URI_TOO_LONG, failure("GET " + path + " HTTP/1.1\r\n\r\n"));
+        assertEquals(Status.REQUESTED_URI_TOO_LONG, failure("GET " + path));
+    }
+
+    @Test
+    void rejectsLargeHeads() {
+        StringBuilder head = new StringBuilder("GET / HTTP/1.1\r\n");
+        for (int i = 0; i < 100; i++) {
+            head.append("X-Header-").append(i).append(": value\r\n");
+        }
+        assertEquals(Status.REQUEST_HEADER_FIELDS_TOO_LARGE, failure(head.toString()));
+    }
+
+    @Test
+    void rejectsMalformedRequestLines() {
+        assertEquals(Status.BAD_REQUEST, failure("GET\r\n\r\n"));
+        assertEquals(Status.BAD_REQUEST, failure("GET /a b HTTP/1.1\r\n\r\n"));
+        assertEquals(Status.BAD_REQUEST, failure("GET /a HTTX/1.1\r\n\r\n"));
+        assertEquals(Status.HTTP_VERSION_NOT_SUPPORTED, failure("GET /a HTTP/2.0\r\n\r\n"));
+        assertEquals(Status.NOT_IMPLEMENTED, failure("BREW /pot HTTP/1.1\r\n\r\n"));
+    }
+
+    @Test
+    void rejectsMalformedHeaders() {
+        assertEquals(Status.BAD_REQUEST, failure("GET / HTTP/1.1\r\nHost: x\r\n continued\r\n\r\n"));
+        assertEquals(Status.BAD_REQUEST, failure("GET / HTTP/1.1\r\nContent-Length : 5\r\n\r\n"));
+        assertEquals(Status.BAD_REQUEST, failure("GET / HTTP/1.1\r\nno colon\r\n\r\n"));
+    }
+}
@@ -0,0 +1,53 @@
+package com.cptingle.WebServer.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramTest {
+    @Test
+    void countsDurationsIntoPowerOfTwoMicrosecondBuckets() {
+        Histogram histogram = new Histogram();
+        histogram.record(500);          // under 1us
+        histogram.record(1_000);        // 1us
+        histogram.record(2_000);        // 2us
+        histogram.record(3_000);        // 3us, at most 4us
+        histogram.record(1_024_000);    // 1024us, exactly 2^10
+        histogram.record(1_025_000);    // just over 2^10us
+
+        assertEquals(2, histogram.getBucket(0));
+        assertEquals(1, histogram.getBucket(1));
+        assertEquals(1, histogram.getBucket(2));
+        assertEquals(1, histogram.getBucket(10));
+        assertEquals(1, histogram.getBucket(11));
+        assertEquals(6, histogram.getCount());
+        assertEquals(500 + 1_000 + 2_000 + 3_000 + 1_024_000 + 1_025_000, histogram.getSumNanos());
+    }
+
+    @Test
+    void countsDurationsJustOverABoundInTheNextBucket() {
+        Histogram histogram = new Histogram();
+        histogram.record(1_001);        // 1.001us
+        histogram.record(1_024_001);    // 1ns over 2^10us
+        histogram.record(2_047_999);    // under 2^11us
+        assertEquals(1, histogram.getBucket(1));
+        assertEquals(0, histogram.getBucket(10));
+        assertEquals(2, histogram.getBucket(11));
+    }
+
+    @Test
+    void countsSlowDurationsInTheUnboundedBucket() {
+        Histogram histogram = new Histogram();
+        histogram.record((1L << (Histogram.BOUNDED_BUCKETS - 1)) * 1000);
+        histogram.record(60_000_000_000L);
+        assertEquals(1, histogram.getBucket(Histogram.BOUNDED_BUCKETS - 1));
+        assertEquals(1, histogram.getBucket(Histogram.BOUNDED_BUCKETS));
+    }
+
+    @Test
+    void upperBoundsAreInSeconds() {
+        assertEquals(0.000001, Histogram.getUpperBound(0), 1e-12);
+        assertEquals(0.001024, Histogram.getUpperBound(10), 1e-12);
+        assertEquals(16.777216, Histogram.getUpperBound(Histogram.BOUNDED_BUCKETS - 1), 1e-9);
+    }
+}
@@ -0,0 +1,126 @@
+package com.cptingle.WebServer.routing;
+
+import com.cptingle.WebServer.messaging.Request;
+import com.cptingle.WebServer.server.ClientConnection;
+import com.cptingle.WebServer.server.HTTPServlet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouterTest {
+    private final int[] bounds = new int[Router.MAX_PARAMS * 2];
+
+    private static Router router(String... patterns) {
+        Router.Builder builder = new Router.Builder();
+        for (String pattern : patterns) {
+            builder.add(pattern, null);
+        }
+        return builder.build();
+    }
+
+    private String find(Router router, String path) {
+        Route route = router.find(path, bounds);
+        return route != null ? route.getPattern() : null;
+    }
+
+    private static String param(String path, int[] bounds, int index) {
+        return path.substring(bounds[index * 2], bounds[index * 2 + 1]);
+    }
+
+    @Test
+    void matchesLiteralRoutesExactly() {
+        Router router = router("/users", "/users/new", "/usage");
+        assertEquals(3, router.size());
+        assertEquals("/users", find(router, "/users"));
+        assertEquals("/users/new", find(router, "/users/new"));
+        assertEquals("/usage", find(router, "/usage"));
+        assertNull(find(router, "/user"));
+        assertNull(find(router, "/users/"));
+        assertNull(find(router, "/users/newer"));
+    }
+
+    @Test
+    void capturesParameterSegments() {
+        Router router = router("/users/{id}/posts/{post}");
+        String path = "/users/42/posts/hello";
+        Route route = router.find(path, bounds);
+        assertNotNull(route);
+        assertEquals(2, route.getParamCount());
+        assertEquals(0, route.indexOf("id"));
+        assertEquals(1, route.indexOf("post"));
+        assertEquals("42", param(path, bounds, 0));
+        assertEquals("hello", param(path, bounds, 1));
+        assertNull(find(router, "/users//posts/hello"));
+        assertNull(find(router, "/users/42/posts"));
+    }
+
+    @Test
+    void capturesTheRestOfThePath() {
+        Router router = router("/static/*");
+        String path = "/static/css/site.css";
+        Route route = router.find(path, bounds);
+        assertEquals("/static/*", route.getPattern());
+        assertEquals(0, route.indexOf(Route.REST));
+        assertEquals("css/site.css", param(path, bounds, 0));
+        assertEquals("/static/*", find(router, "/static/"));
+    }
+
+    @Test
+    void prefersLiteralsOverParametersOverWildcards() {
+        Router router = router("/api/*", "/api/{name}", "/api/status");
+        assertEquals("/api/status", find(router, "/api/status"));
+        assertEquals("/api/{name}", find(router, "/api/other"));
+        assertEquals("/api/*", find(router, "/api/other/deeper"));
+    }
+
+    @Test
+    void backtracksWhenALiteralBranchFails() {
+        Router router = router("/files/list/all", "/files/{name}/meta");
+        assertEquals("/files/{name}/meta", find(router, "/files/list/meta"));
+    }
+
+    @Test
+    void replacesRoutesWithTheSamePattern() {
+        Router router = router("/a", "/a");
+        assertEquals(1, router.size());
+        assertEquals("/a", find(router, "/a"));
+    }
+
+    @Test
+    void rejectsMalformedPatterns() {
+        Router.Builder builder = new Router.Builder();
+        assertThrows(IllegalArgumentException.class, () -> builder.add("users", null));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("/users/{}", null));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("/users/{id}/{id}", null));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("/users/id{id}", null));
+    }
+
+    @Test
+    void emptyRouterMatchesNothing() {
+        assertEquals(0, Router.empty().size());
+        assertNull(Router.empty().find("/", bounds));
+    }
+
+    @Test
+    void findsServletsWithoutRecordingParameters() {
+        HTTPServlet servlet = new NoopServlet();
+        Router router = new Router.Builder().add("/users/{id}", servlet).add("/static/*", servlet).build();
+        assertSame(servlet, router.getServlet("/users/42"));
+        assertSame(servlet, router.getServlet("/static/css/site.css"));
+        assertNull(router.getServlet("/users"));
+    }
+
+    private static class NoopServlet implements HTTPServlet {
+        public void get(ClientConnection conn, Request req) {}
+
+        public void head(ClientConnection conn, Request req) {}
+
+        public void post(ClientConnection conn, Request req) {}
+
+        public void put(ClientConnection conn, Request req) {}
+
+        public void patch(ClientConnection conn, Request req) {}
+
+        public void delete(ClientConnection conn, Request req) {}
+    }
+}
@@ -0,0 +1,169 @@
+package com.cptingle.WebServer.server;
+
+import com.cptingle.WebServer.messaging.BodyDecoder;
+import com.cptingle.WebServer.messaging.Request;
+import com.cptingle.WebServer.messaging.Response;
+import com.cptingle.WebServer.response.Status;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkedOutputStreamTest {
+    private static final String TAIL = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+    /**
+     * Streams a body in several parts. After the first flush it waits until the client has received what was flushed.
+     */
+    private static class StreamingServlet extends AbstractServlet {
+        private final CountDownLatch received = new CountDownLatch(1);
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        StreamingServlet(HTTPServer server) {
+            super(server, new String[]{"/stream"});
+        }
+
+        @Override
+        public void get(ClientConnection conn, Request req) {
+            try (ChunkedOutputStream out = conn.startStreaming(new Response(conn, Status.OK))) {
+                out.write(bytes("first-"));
+                out.flush();
+                if (!received.await(5, TimeUnit.SECONDS)) {
+                    throw new IOException("The flushed chunk did not reach the client");
+                }
+                out.write(bytes("second-"));
+                out.flush();
+                out.flush();
+                out.write(bytes("third-"));
+                // Several times the chunk size, so full buffers are sent between the flushes as well
+                for (int i = 0; i < 10; i++) {
+                    out.write(bytes(TAIL));
+                    out.flush();
+                }
+                out.write(bytes("end"));
+            } catch (IOException | InterruptedException e) {
+                failure.set(e);
+            }
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"blocking", "nio"})
+    void writeFlushWriteSendsEveryPartInOrder(String transport) throws Exception {
+        try (TestServer server = new TestServer(transport)) {
+            StreamingServlet servlet = new StreamingServlet(server.getServer());
+            server.getServer().getServlets().register(servlet);
+
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", server.getPort()));
+                socket.setSoTimeout(5000);
+                ChunkedReader reader = new ChunkedReader(socket.getInputStream());
+                byte[] request = bytes("GET /stream HTTP/1.1\r\nHost: localhost\r\n\r\n");
+
+                // The response is read on the same connection twice, the end of the first one must not be held back
+                for (int round = 0; round < 2; round++) {
+                    socket.getOutputStream().write(request);
+                    socket.getOutputStream().flush();
+                    String head = reader.readHead();
+                    assertTrue(head.startsWith("HTTP/1.1 200"), head);
+                    assertTrue(head.toLowerCase().contains("transfer-encoding: chunked"), head);
+
+                    // Nothing more is sent until the client has seen the flushed part
+                    assertEquals("first-", reader.readData(6));
+                    servlet.received.countDown();
+
+                    StringBuilder expected = new StringBuilder("second-third-");
+                    for (int i = 0; i < 10; i++) {
+                        expected.append(TAIL);
+                    }
+                    expected.append("end");
+                    assertEquals(expected.toString(), reader.readToEnd());
+                    assertNull(servlet.failure.get());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a chunked response with the server's own decoder
+     */
+    private static class ChunkedReader {
+        private final InputStream in;
+        private final ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        private BodyDecoder decoder;
+
+        ChunkedReader(InputStream in) {
+            this.in = in;
+            buf.flip();
+        }
+
+        String readHead() throws IOException {
+            StringBuilder head = new StringBuilder();
+            while (!head.toString().endsWith("\r\n\r\n")) {
+                if (!buf.hasRemaining()) {
+                    fill();
+                }
+                head.append((char) buf.get());
+            }
+            decoder = BodyDecoder.chunked(Long.MAX_VALUE);
+            return head.toString();
+        }
+
+        /**
+         * @param length - the number of data bytes to read
+         */
+        String readData(int length) throws IOException {
+            byte[] data = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = decoder.decode(buf, data, read, length - read);
+                read += n;
+                if (n == 0 && read < length) {
+                    assertFalse(decoder.isComplete(), "The body ended early");
+                    fill();
+                }
+            }
+            return new String(data, StandardCharsets.ISO_8859_1);
+        }
+
+        String readToEnd() throws IOException {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            byte[] out = new byte[1024];
+            while (true) {
+                int n = decoder.decode(buf, out, 0, out.length);
+                data.write(out, 0, n);
+                if (decoder.isComplete()) {
+                    return new String(data.toByteArray(), StandardCharsets.ISO_8859_1);
+                }
+                if (n == 0) {
+                    fill();
+                }
+            }
+        }
+
+        private void fill() throws IOException {
+            buf.compact();
+            int n = in.read(buf.array(), buf.position(), buf.remaining());
+            if (n == -1) {
+                throw new IOException("Connection closed by server");
+            }
+            buf.position(buf.position() + n);
+            buf.flip();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.cptingle.WebServer.server;
+
+import com.cptingle.WebServer.messaging.Request;
+import com.cptingle.WebServer.messaging.Response;
+import com.cptingle.WebServer.response.Status;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipeliningTest {
+    private static final int REQUESTS = 200;
+
+    /**
+     * Answers with the query string of the request, so the client can tell the responses apart
+     */
+    private static class EchoServlet extends AbstractServlet {
+        EchoServlet(HTTPServer server) {
+            super(server, new String[]{"/echo"});
+        }
+
+        @Override
+        public void get(ClientConnection conn, Request req) {
+            try {
+                conn.sendResponse(new Response(conn, Status.OK, ByteBuffer.wrap(req.getQueryString().getBytes(StandardCharsets.ISO_8859_1))));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"blocking", "nio"})
+    void answersPipelinedRequestsInOrder(String transport) throws Exception {
+        try (TestServer server = new TestServer(transport)) {
+            server.getServer().getServlets().register(new EchoServlet(server.getServer()));
+
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", server.getPort()));
+                socket.setSoTimeout(5000);
+
+                // All sent before any response is read. The blocking transport has to flush its queue part way, the nio
+                // transport pauses reading every time max-pipeline requests are queued
+                StringBuilder requests = new StringBuilder();
+                for (int i = 0; i < REQUESTS; i++) {
+                    requests.append("GET /echo?").append(i).append(" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                }
+                socket.getOutputStream().write(requests.toString().getBytes(StandardCharsets.ISO_8859_1));
+                socket.getOutputStream().flush();
+
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                for (int i = 0; i < REQUESTS; i++) {
+                    String head = readHead(in);
+                    assertTrue(head.startsWith("HTTP/1.1 200"), head);
+                    assertEquals(String.valueOf(i), readBody(in, contentLength(head)));
+                }
+            }
+        }
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("Connection closed by server");
+            }
+            head.append((char) b);
+        }
+        return head.toString();
+    }
+
+    private static int contentLength(String head) {
+        for (String line : head.split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                return Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        fail("No Content-Length in " + head);
+        return -1;
+    }
+
+    private static String readBody(InputStream in, int length) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < length; i++) {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("Connection closed by server");
+            }
+            body.write(b);
+        }
+        return new String(body.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+}
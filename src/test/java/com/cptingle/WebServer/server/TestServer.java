@@ -0,0 +1,93 @@
+package com.cptingle.WebServer.server;
+
+import com.cptingle.WebServer.util.configuration.Configuration;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * An in-process server for the tests, listening on an ephemeral loopback port with persistent connections and logging
+ * turned off. Streamed responses use small chunks and a small send limit, so short bodies already span several chunks,
+ * and only a few pipelined requests are queued per connection. Its configuration, web root and servlet directory live in
+ * a temporary directory that is deleted when it is closed.
+ */
+public final class TestServer implements Closeable {
+    private final Path dir;
+    private final Path webRoot;
+    private final HTTPServer server;
+
+    /**
+     * @param transport - "blocking" or "nio"
+     * @throws IOException
+     */
+    public TestServer(String transport) throws IOException {
+        this.dir = Files.createTempDirectory("webserver-test");
+        this.webRoot = Files.createDirectories(dir.resolve("html"));
+
+        List<String> config = Arrays.asList(
+                "server-version: \"test\"",
+                "debug: false",
+                "bind-address: \"127.0.0.1\"",
+                "port: 0",
+                "index-page: \"index.html\"",
+                "configuration:",
+                "  hot-reload: false",
+                "transport:",
+                "  type: \"" + transport + "\"",
+                "requests:",
+                "  max-pipeline: 4",
+                "persistence:",
+                "  use-persistent-connections: true",
+                "  persistent-connection-timeout: 10000",
+                "streaming:",
+                "  chunk-size: 16",
+                "  max-buffered: 64",
+                "compression:",
+                "  enabled: true",
+                "  min-size: 16",
+                "servlets:",
+                "  directory: \"" + dir.resolve("servlets") + "\"",
+                "  hot-reload: false",
+                "logging:",
+                "  enabled: false",
+                "  http-log-file-path: \"" + dir.resolve("logs") + "\"",
+                "  error-log-file-path: \"" + dir.resolve("logs") + "\"",
+                "files:",
+                "  web-root: \"" + webRoot + "\""
+        );
+        Path configFile = dir.resolve("config.yaml");
+        Files.write(configFile, config, StandardCharsets.UTF_8);
+
+        this.server = new HTTPServer(new Configuration(configFile.toString()));
+        Thread serverThread = new Thread(server, "test-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    public HTTPServer getServer() {
+        return server;
+    }
+
+    public Path getWebRoot() {
+        return webRoot;
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
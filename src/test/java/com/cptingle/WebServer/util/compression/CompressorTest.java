@@ -0,0 +1,62 @@
+package com.cptingle.WebServer.util.compression;
+
+import com.cptingle.WebServer.server.TestServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressorTest {
+    private static TestServer server;
+    private static Compressor compressor;
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = new TestServer("blocking");
+        compressor = new Compressor(server.getServer());
+    }
+
+    @AfterAll
+    static void stop() throws IOException {
+        server.close();
+    }
+
+    @Test
+    void sendsUncompressedWithoutAcceptEncoding() {
+        assertNull(compressor.negotiate(null));
+        assertNull(compressor.negotiate(""));
+        assertNull(compressor.negotiate("br, identity"));
+    }
+
+    @Test
+    void prefersGzipAtEqualWeight() {
+        assertEquals(Compressor.GZIP, compressor.negotiate("deflate, gzip"));
+        assertEquals(Compressor.GZIP, compressor.negotiate("gzip;q=0.5, deflate;q=0.5"));
+        assertEquals(Compressor.GZIP, compressor.negotiate("X-GZIP"));
+    }
+
+    @Test
+    void followsTheWeights() {
+        assertEquals(Compressor.DEFLATE, compressor.negotiate("gzip;q=0.4, deflate;q=0.8"));
+        assertEquals(Compressor.DEFLATE, compressor.negotiate("gzip;q=0, deflate"));
+        assertNull(compressor.negotiate("gzip;q=0, deflate;q=0"));
+        assertNull(compressor.negotiate("gzip;q=oops"));
+    }
+
+    @Test
+    void wildcardCoversUnlistedCodings() {
+        assertEquals(Compressor.GZIP, compressor.negotiate("*"));
+        assertEquals(Compressor.DEFLATE, compressor.negotiate("gzip;q=0, *;q=0.1"));
+        assertNull(compressor.negotiate("*;q=0"));
+    }
+
+    @Test
+    void onlyCompressesLargeEnoughText() {
+        assertTrue(compressor.isEligible("text/html", 16));
+        assertFalse(compressor.isEligible("text/html", 15));
+        assertFalse(compressor.isEligible("image/png", 100000));
+    }
+}
@@ -0,0 +1,72 @@
+package com.cptingle.WebServer.util.logging;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RotatingLogFileTest {
+    @TempDir
+    Path dir;
+    private ExecutorService background;
+
+    @BeforeEach
+    void start() {
+        background = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        background.shutdown();
+        background.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void rotatesAfterTheLineLimit() throws IOException {
+        Path log = dir.resolve("log");
+        RotatingLogFile file = new RotatingLogFile(log, 0, 2, 0, false, 0, background);
+        file.write("a\n");
+        file.write("b\n");
+        file.write("c\n");
+        file.close();
+
+        assertEquals("a\nb\n", read(dir.resolve("log_1")));
+        assertEquals("c\n", read(log));
+    }
+
+    @Test
+    void keepsLoggingWhenTheRenameFails() throws IOException {
+        Path log = dir.resolve("log");
+        RotatingLogFile file = new RotatingLogFile(log, 0, 1, 0, false, 0, background);
+        // A non-empty directory in the way of the first rotated file makes the rename fail
+        Path blocker = Files.createDirectory(dir.resolve("log_1"));
+        Files.createFile(blocker.resolve("x"));
+
+        assertThrows(IOException.class, () -> file.write("a\n"));
+        Files.delete(blocker.resolve("x"));
+        Files.delete(blocker);
+
+        // The file was reopened, so the next write lands in it and the retried rotation uses the same index
+        file.write("b\n");
+        file.write("c\n");
+        file.close();
+
+        assertEquals("a\nb\n", read(dir.resolve("log_1")));
+        assertEquals("c\n", read(dir.resolve("log_2")));
+        assertEquals("", read(log));
+    }
+}
@@ -0,0 +1,55 @@
+package com.cptingle.WebServer.util.template;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TemplateTest {
+    @Test
+    void substitutesSymbols() {
+        Map<String, Object> symbols = new HashMap<String, Object>();
+        symbols.put("title", "Home");
+        symbols.put("count", 3);
+        Template template = Template.compile("<h1>%%title%%</h1><p>%%count%% items</p>");
+        assertEquals("<h1>Home</h1><p>3 items</p>", template.render(symbols));
+    }
+
+    @Test
+    void rendersMissingSymbolsAsNothing() {
+        assertEquals("a  b", Template.compile("a %%missing%% b").render(Collections.emptyMap()));
+    }
+
+    @Test
+    void keepsUnclosedDelimitersAsText() {
+        assertEquals("only %% one", Template.compile("only %% one").render(Collections.emptyMap()));
+        assertEquals("a B c %% d", Template.compile("a %%b%% c %% d").render(Collections.singletonMap("b", "B")));
+    }
+
+    @Test
+    void escapesValues() {
+        String rendered = Template.compile("<a title=\"%%t%%\">%%t%%</a>").render(Collections.singletonMap("t", "<b>\"Tom\" & 'Jerry'</b>"));
+        assertFalse(rendered.contains("<b>"));
+        assertTrue(rendered.contains("&lt;b&gt;"));
+        assertTrue(rendered.contains("&amp;"));
+        assertFalse(rendered.contains("\"Tom\""));
+        String plain = "nothing special";
+        assertSame(plain, Template.escape(plain));
+    }
+
+    @Test
+    void encodesAsUtf8() throws IOException {
+        Template template = Template.compile("héllo %%name%%");
+        Map<String, String> symbols = Collections.singletonMap("name", "wörld");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.render(symbols, out);
+        assertArrayEquals("héllo wörld".getBytes(StandardCharsets.UTF_8), out.toByteArray());
+        assertArrayEquals(out.toByteArray(), template.renderBytes(symbols));
+    }
+}